@@ -1,7 +1,30 @@
 package tictactoe;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 public class ApplicationRunner {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // the engine mode stays headless, the solved table is built when a search first needs it
+        if (args.length > 0 && args[0].equals("--engine")) {
+            EngineRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // solve the 3x3 game before the first robot move needs it
+        SolvedTable table = SolvedTable.getInstance();
+
+        if (args.length > 0 && args[0].equals("--verify-table")) {
+            int mismatches = table.verify();
+            System.out.printf("%d positions, %d mismatches against the live search%n", table.getPositionCount(), mismatches);
+            System.exit(mismatches == 0 ? 0 : 1);
+        }
+
+        if (Game.STATS_ENABLED) {
+            SearchStats.register();
+            GameStats.register();
+        }
+
         new TicTacToe();
     }
 }
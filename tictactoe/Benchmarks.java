@@ -0,0 +1,349 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Micro-benchmarks of the engine hot paths.
+ *
+ * A small JMH-style harness: every benchmark is warmed up, then measured over several timed
+ * iterations. It reports the average time per operation, nodes per second for the searches and
+ * the bytes allocated per operation (the per-thread allocation counter, the same source as the
+ * JMH GC profiler's gc.alloc.rate.norm). Results are also written as JSON, so two releases can be
+ * diffed. Usage:
+ *
+ *   java tictactoe.Benchmarks --out bench.json --filter search --iterations 5 --time 1000
+ *
+ * With --check-alloc true the run fails if a search allocates per searched node: the search hot
+ * path works on bitmasks and preallocated arrays only, whatever a move costs once is spread over
+ * its nodes and stays far below the limit.
+ */
+public class Benchmarks {
+    // representative positions, cells row by row from the top left, '_' for an empty cell
+    final static String EMPTY_3 = "_________";
+    final static String MID_3 = "X___O___X";
+    final static String NEAR_END_3 = "XOX_OOX_X";
+    final static String MID_5 = "______X_____OX______O____";
+    final static String MID_7 = "________________O_____XX_O_______________________";
+
+    // most bytes a search may allocate per node in --check-alloc mode, once per move costs fit below it
+    final static double ALLOC_BYTES_PER_NODE = 0.01;
+
+    private static volatile long blackhole;     // keeps the results alive
+
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final String filter;
+    private final int iterations;
+    private final long iterationMillis;
+    private final List<String> results;
+    private final List<String> allocFailures;
+
+    public Benchmarks(String filter, int iterations, long iterationMillis) {
+        this.filter = filter;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+        this.results = new ArrayList<>();
+        this.allocFailures = new ArrayList<>();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = SimulationRunner.parseOptions(args);
+
+        Benchmarks benchmarks = new Benchmarks(
+                options.getOrDefault("filter", ""),
+                Integer.parseInt(options.getOrDefault("iterations", "5")),
+                Long.parseLong(options.getOrDefault("time", "1000")));
+
+        benchmarks.runAll();
+
+        String out = options.getOrDefault("out", "bench.json");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8))) {
+            writer.println("[");
+            writer.println(String.join(",\n", benchmarks.results));
+            writer.println("]");
+        }
+
+        System.out.println("results written to " + out);
+
+        if (Boolean.parseBoolean(options.getOrDefault("check-alloc", "false"))) {
+            if (!benchmarks.allocFailures.isEmpty()) {
+                System.out.println("searches allocating per node:");
+                benchmarks.allocFailures.forEach(failure -> System.out.println("  " + failure));
+                System.exit(1);
+            }
+
+            System.out.println("no search allocates per node");
+        }
+    }
+
+    public void runAll() {
+        // move generation and make/unmake with incremental win detection
+        for (String[] board : new String[][]{{"3", "3", MID_3}, {"5", "4", MID_5}, {"7", "5", MID_7}}) {
+            Position position = parse(Integer.parseInt(board[0]), Integer.parseInt(board[1]), board[2]);
+            String params = String.format("%sx%s k=%s %s", board[0], board[0], board[1], board[2]);
+
+            measure("position.moveGen", params, () -> {
+                long sum = 0;
+                for (long empty = position.getEmptyMask(); empty != 0; empty &= empty - 1) {
+                    sum += Long.numberOfTrailingZeros(empty);
+                }
+                return sum;
+            }, false);
+
+            measure("position.makeCheckWinUnmake", params, () -> {
+                long wins = 0;
+                for (long empty = position.getEmptyMask(); empty != 0; empty &= empty - 1) {
+                    int index = Long.numberOfTrailingZeros(empty);
+                    position.makeMove(index);
+                    wins += position.isWon() ? 1 : 0;
+                    position.unmakeMove(index);
+                }
+                return wins;
+            }, false);
+        }
+
+        // one whole 3x3 game in a store already holding a million live games, X wins on the 7th move
+        if ("gameStore.playGame".contains(this.filter)) {
+            GameStore store = new GameStore(1 << 20);
+            while (store.getGameCount() < store.getCapacity() - 1) {
+                store.create(3, 3, GameStore.CLIENT, GameStore.CLIENT);
+            }
+
+            measure("gameStore.playGame", String.format("3x3 %d games %d MB", store.getCapacity(), store.getFootprint() >> 20), () -> {
+                long id = store.create(3, 3, GameStore.CLIENT, GameStore.CLIENT);
+                int state = Game.IN_PROGRESS;
+                for (int index = 0; state == Game.IN_PROGRESS; index++) {
+                    state = store.makeMove(id, index);
+                }
+                store.remove(id);
+                return state;
+            }, false);
+        }
+
+        // ultimate tic-tac-toe: one random game from the empty board, move generation and make included
+        UltimatePosition ultimate = new UltimatePosition();
+        SplittableRandom random = new SplittableRandom(1);
+        measure("ultimate.randomGame", "9 boards", () -> {
+            ultimate.clear();
+            while (ultimate.getState() == Game.IN_PROGRESS) {
+                ultimate.makeMove(ultimate.getRandomMove(random));
+            }
+            return ultimate.getPly();
+        }, false);
+
+        // the ultimate robot at a fixed node budget from the empty board
+        UltimateSearch ultimateSearch = new UltimateSearch();
+        ultimateSearch.setNodeLimit(100_000);
+        measure("ultimateSearch.nodeBudget100k", "9 boards empty", () -> {
+            ultimateSearch.clear();
+            ultimate.clear();
+            ultimateSearch.chooseMove(ultimate);
+            return ultimateSearch.getNodeCount();
+        }, true);
+
+        // qubic: one random game on the empty cube, and the robot at a fixed node budget
+        QubicPosition qubic = new QubicPosition();
+        measure("qubic.randomGame", "4x4x4", () -> {
+            qubic.clear();
+            while (qubic.getState() == Game.IN_PROGRESS) {
+                qubic.makeMove(qubic.getRandomMove(random));
+            }
+            return qubic.getPly();
+        }, false);
+
+        QubicSearch qubicSearch = new QubicSearch();
+        qubicSearch.setNodeLimit(1_000_000);
+        measure("qubicSearch.nodeBudget1M", "4x4x4 empty", () -> {
+            qubicSearch.clear();
+            qubic.clear();
+            qubicSearch.chooseMove(qubic);
+            return qubicSearch.getNodeCount();
+        }, true);
+
+        // solved table lookup of the HARD 3x3 robot
+        Position mid = parse(3, 3, MID_3);
+        SolvedTable.getInstance();
+        measure("solvedTable.bestMove", "3x3 " + MID_3, () -> SolvedTable.getInstance().getBestMove(mid), false);
+
+        // full searches from a cold table
+        for (String board : new String[]{EMPTY_3, MID_3, NEAR_END_3}) {
+            Position position = parse(3, 3, board);
+            Search search = new Search();
+
+            measure("search.fullCold", "3x3 " + board, () -> {
+                search.clear();
+                search.getNextBestMove(position);
+                return search.getNodeCount();
+            }, true);
+        }
+
+        // budgeted searches on larger boards, per move latency at a fixed node budget
+        for (String[] board : new String[][]{{"4", "4", "________________"}, {"5", "4", MID_5}, {"7", "5", MID_7}}) {
+            Position position = parse(Integer.parseInt(board[0]), Integer.parseInt(board[1]), board[2]);
+            Search search = new Search();
+            search.setNodeLimit(100_000);
+
+            measure("search.nodeBudget100k", String.format("%sx%s k=%s %s", board[0], board[0], board[1], board[2]), () -> {
+                search.clear();
+                search.getNextBestMove(position);
+                return search.getNodeCount();
+            }, true);
+        }
+
+        // monte carlo tree search from a fresh tree, playouts count as nodes
+        Position mid7 = parse(7, 5, MID_7);
+        MctsSearch mcts = new MctsSearch(1, MctsSearch.DEFAULT_CAPACITY, 1);
+        mcts.setPlayoutLimit(10_000);
+
+        measure("mcts.playouts10k", "7x7 k=5 " + MID_7, () -> {
+            mcts.clear();
+            mcts.chooseMove(mid7);
+            return mcts.getPlayoutCount();
+        }, true);
+
+        // parallel search, time to a fixed depth by thread count
+        Position position = parse(5, 4, MID_5);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ParallelSearch search = new ParallelSearch(threads);
+            search.setDepthLimit(8);
+
+            measure("parallelSearch.depth8", String.format("5x5 k=4 %s threads=%d", MID_5, threads), () -> {
+                search.clear();
+                search.getNextBestMove(position);
+                return search.getNodeCount();
+            }, true);
+        }
+    }
+
+    /**
+     * warm up and measure one benchmark
+     *
+     * @param name benchmark name
+     * @param params description of the benchmark parameters
+     * @param operation one operation, returns the nodes it searched or any value to keep alive
+     * @param countsNodes true if the operation returns a node count
+     */
+    private void measure(String name, String params, LongSupplier operation, boolean countsNodes) {
+        if (!name.contains(this.filter)) {
+            return;
+        }
+
+        // warm up as long as one measurement, reading the clock after every operation,
+        // then batch cheap operations so the measurement does not time System.nanoTime
+        long[] warmup = runIteration(operation, 1);
+        int batch = (int) Math.max(1, Math.min(1024, 10_000 * warmup[0] / warmup[1]));
+
+        double[] nanosPerOp = new double[this.iterations];
+        long ops = 0;
+        long nanos = 0;
+        long nodes = 0;
+        long bytes = 0;
+
+        for (int i = 0; i < this.iterations; i++) {
+            long[] iteration = runIteration(operation, batch);
+
+            nanosPerOp[i] = (double) iteration[1] / iteration[0];
+            ops += iteration[0];
+            nanos += iteration[1];
+            nodes += iteration[2];
+            bytes += iteration[3];
+        }
+
+        double mean = (double) nanos / ops;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double error = this.iterations > 1 ? Math.sqrt(variance / (this.iterations - 1)) : 0;
+
+        double nodesPerSec = countsNodes ? nodes / (nanos / 1e9) : 0;
+        double bytesPerOp = (double) bytes / ops;
+        double bytesPerNode = countsNodes && nodes > 0 ? (double) bytes / nodes : 0;
+
+        System.out.printf("%-30s %-50s %14.1f +- %10.1f ns/op %14.0f nodes/s %12.1f B/op%n",
+                name, params, mean, error, nodesPerSec, bytesPerOp);
+
+        if (bytesPerNode > ALLOC_BYTES_PER_NODE) {
+            this.allocFailures.add(String.format(Locale.ROOT, "%s %s: %.3f B/node", name, params, bytesPerNode));
+        }
+
+        this.results.add(String.format(Locale.ROOT,
+                "  {\"benchmark\": \"%s\", \"params\": \"%s\", \"mode\": \"avgt\", \"unit\": \"ns/op\", "
+                        + "\"score\": %.3f, \"error\": %.3f, \"nodesPerSec\": %.1f, \"allocBytesPerOp\": %.3f, "
+                        + "\"allocBytesPerNode\": %.5f, \"iterations\": %d, \"ops\": %d}",
+                name, params, mean, error, nodesPerSec, bytesPerOp, bytesPerNode, this.iterations, ops));
+    }
+
+    /**
+     * run the operation for one iteration time
+     *
+     * @param batch operations between two clock reads
+     * @return {operations, nanoseconds, nodes, allocated bytes}
+     */
+    private long[] runIteration(LongSupplier operation, int batch) {
+        long threadId = Thread.currentThread().getId();
+        long ops = 0;
+        long nodes = 0;
+        long sink = 0;
+
+        long bytesBefore = this.threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long end = start + this.iterationMillis * 1_000_000;
+        long now;
+
+        do {
+            for (int i = 0; i < batch; i++) {
+                long result = operation.getAsLong();
+                nodes += result;
+                sink ^= result;
+            }
+            ops += batch;
+            now = System.nanoTime();
+        } while (now < end);
+
+        long bytes = this.threadBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+        blackhole = sink;
+
+        return new long[]{ops, now - start, nodes, bytes};
+    }
+
+    /**
+     * build a position from its cells, row by row from the top left
+     *
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     * @param cells 'X', 'O' or '_' per cell
+     * @return the position
+     */
+    static Position parse(int size, int winLength, String cells) {
+        Position position = new Position(size, winLength);
+
+        for (int i = 0; i < cells.length(); i++) {
+            switch (cells.charAt(i)) {
+                case 'X':
+                    position.makeMove(i, Game.CELL_X);
+                    break;
+                case 'O':
+                    position.makeMove(i, Game.CELL_O);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return position;
+    }
+}
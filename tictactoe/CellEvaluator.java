@@ -0,0 +1,306 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Minimax value of every empty cell of a position, for the evaluation overlay.
+ *
+ * Every cell is scored for the side to move by a negamax search with mate distances: a win or a
+ * loss counts the plies from the move into the cell to the end, so a quick win and a slow one
+ * differ. The search deepens iteratively and reports each completed iteration, a time budget or
+ * a stop signal ends it. At the horizon positions are scored heuristically as in Search, a draw is
+ * only proven by an iteration reaching the end of the game.
+ *
+ * Earlier work is kept twice: the transposition table holds the subtrees, so after a move most of
+ * the new position is found already searched, and the last evaluations are cached per position,
+ * so a position seen again is shown at once and a solved one is never searched again.
+ * An evaluator is not thread-safe.
+ */
+class CellEvaluator {
+    // a win in p plies scores MATE - p and a loss -(MATE - p), heuristic scores stay below SCORE_WIN
+    final static int MATE = Game.SCORE_WIN + LineTable.MAX_CELLS + 1;
+
+    // score of an occupied cell
+    final static int NO_SCORE = Game.SCORE_MIN;
+
+    private final static int CACHE_SIZE = 4096;
+
+    private final TranspositionTable table;
+    private final Map<Long, Evaluation> cache;
+    private LineTable lines;    // board of the cached evaluations and of the table entries
+
+    // state of the running evaluation
+    private long nodeCount;
+    private long deadline;
+    private AtomicBoolean stopSignal;
+    private boolean aborted;
+
+    public CellEvaluator() {
+        this.table = new TranspositionTable(1 << 20, TranspositionTable.REPLACE_DEPTH);
+
+        // least recently shown positions are dropped first
+        this.cache = new LinkedHashMap<Long, Evaluation>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Evaluation> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * @return nodes visited by the last evaluate
+     */
+    public long getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * score every empty cell, deepening until the position is solved, the time is up or the stop signal is raised
+     *
+     * @param position game position in progress, restored before returning
+     * @param timeLimitMillis milliseconds of search, 0 for no limit
+     * @param stopSignal raised by another thread to stop, or null
+     * @param progress receives the cached evaluation first, if any, then every deeper one; or null
+     * @return the deepest evaluation, null if not even the first iteration completed
+     */
+    public Evaluation evaluate(Position position, long timeLimitMillis, AtomicBoolean stopSignal, Consumer<Evaluation> progress) {
+        // the hashes don't tell the boards apart, the empty board of every size hashes to 0
+        if (position.getLines() != this.lines) {
+            this.lines = position.getLines();
+            this.cache.clear();
+            this.table.clear();
+        }
+
+        long key = position.getHash(0);
+        Evaluation evaluation = this.cache.get(key);
+
+        this.nodeCount = 0;
+        if (evaluation != null) {
+            if (progress != null) {
+                progress.accept(evaluation);
+            }
+            if (evaluation.isComplete()) {
+                return evaluation;
+            }
+        }
+
+        this.deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1_000_000 : Long.MAX_VALUE;
+        this.stopSignal = stopSignal;
+        this.aborted = false;
+
+        long empty = position.getEmptyMask();
+        int depthToEnd = Long.bitCount(empty);
+        int[] scores = new int[position.getCellCount()];
+
+        for (int horizon = evaluation == null ? 1 : evaluation.getDepth() + 1; horizon <= depthToEnd; horizon++) {
+            Arrays.fill(scores, NO_SCORE);
+            boolean proven = true;
+
+            // every cell gets its exact score, so no cell is cut off by the best one
+            for (long bits = empty; bits != 0 && !this.aborted; bits &= bits - 1) {
+                int index = Long.numberOfTrailingZeros(bits);
+
+                position.makeMove(index);
+                scores[index] = fromChild(negamax(position, horizon - 1, -MATE - 1, MATE + 1));
+                position.unmakeMove(index);
+
+                proven &= isWin(scores[index]) || isLoss(scores[index]);
+            }
+
+            if (this.aborted) {
+                break;
+            }
+
+            // a proven win or loss stays the same at any depth
+            evaluation = new Evaluation(scores.clone(), horizon, proven || horizon == depthToEnd);
+            this.cache.put(key, evaluation);
+
+            if (progress != null) {
+                progress.accept(evaluation);
+            }
+            if (evaluation.isComplete()) {
+                break;
+            }
+        }
+
+        return evaluation;
+    }
+
+    /**
+     * @param depth plies left to the horizon
+     * @return score for the side to move, mate distances counted from this position
+     */
+    private int negamax(Position position, int depth, int alpha, int beta) {
+        this.nodeCount++;
+
+        // the side that just moved is the only one who can have won
+        if (position.isWon()) {
+            return -MATE;
+        }
+
+        long empty = position.getEmptyMask();
+        if (empty == 0 || position.isDeadDraw()) {
+            return Game.SCORE_DRAW;
+        }
+
+        if (isOverBudget()) {
+            this.aborted = true;
+            return Game.SCORE_DRAW;
+        }
+
+        if (depth == 0) {
+            return Search.evaluate(position, position.getSideToMove());
+        }
+
+        LineTable lines = position.getLines();
+        int symmetry = position.getCanonicalSymmetry();
+        long key = position.getHash(symmetry);
+
+        int hashMove = -1;
+        int entry = this.table.probe(key);
+        if (entry != 0) {
+            int move = TranspositionTable.getMove(entry);
+            if (move != TranspositionTable.NO_MOVE) {
+                hashMove = lines.getInverseSymmetry(symmetry, move);
+            }
+
+            // a win or loss found at any draft is proven, the heuristic never reaches those scores
+            int score = TranspositionTable.getScore(entry);
+            if (TranspositionTable.getDraft(entry) >= depth || score > Game.SCORE_WIN || score < Game.SCORE_LOSS) {
+                int bound = TranspositionTable.getBound(entry);
+
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+                        || (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int alphaOrig = alpha;
+        int best = -MATE - 1;
+        int bestIndex = -1;
+        int[] moveOrder = lines.getMoveOrder();
+
+        for (int i = -1; i < moveOrder.length; i++) {
+            int index = i < 0 ? hashMove : moveOrder[i];
+            if (index < 0 || (empty & (1L << index)) == 0 || (i >= 0 && index == hashMove)) {
+                continue;
+            }
+
+            // the child's window, seen one ply further from the result
+            position.makeMove(index);
+            int score = fromChild(negamax(position, depth - 1, toChild(beta), toChild(alpha)));
+            position.unmakeMove(index);
+
+            if (this.aborted) {
+                return Game.SCORE_DRAW;     // the iteration is thrown away, store nothing
+            }
+
+            if (score > best) {
+                best = score;
+                bestIndex = index;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        int bound = best <= alphaOrig ? TranspositionTable.UPPER_BOUND
+                : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        this.table.store(key, best, bound, depth, lines.getSymmetry(symmetry, bestIndex));
+
+        return best;
+    }
+
+    /**
+     * @param childScore score of the position after a move, for its side to move
+     * @return the score before the move, a mate one ply further away
+     */
+    private static int fromChild(int childScore) {
+        int score = -childScore;
+        return score > Game.SCORE_WIN ? score - 1 : score < Game.SCORE_LOSS ? score + 1 : score;
+    }
+
+    /**
+     * inverse of fromChild, for the bounds of the window
+     */
+    private static int toChild(int score) {
+        return score > Game.SCORE_WIN ? -(score + 1) : score < Game.SCORE_LOSS ? -(score - 1) : -score;
+    }
+
+    /**
+     * check the clock and the stop signal only every 1024 nodes
+     */
+    private boolean isOverBudget() {
+        return (this.nodeCount & 1023) == 0
+                && (System.nanoTime() > this.deadline || (this.stopSignal != null && this.stopSignal.get()));
+    }
+
+    static boolean isWin(int score) {
+        return score > Game.SCORE_WIN && score != NO_SCORE;
+    }
+
+    static boolean isLoss(int score) {
+        return score < Game.SCORE_LOSS && score != NO_SCORE;
+    }
+
+    /**
+     * @param score a win or loss score
+     * @return plies from the move into the cell to the end of the game
+     */
+    static int getDistance(int score) {
+        return MATE - Math.abs(score);
+    }
+
+    /**
+     * scores of the empty cells of one position after one completed iteration
+     */
+    static class Evaluation {
+        private final int[] scores;
+        private final int depth;
+        private final boolean complete;
+
+        Evaluation(int[] scores, int depth, boolean complete) {
+            this.scores = scores;
+            this.depth = depth;
+            this.complete = complete;
+        }
+
+        /**
+         * @param index cell index
+         * @return score for the side to move of playing the cell, NO_SCORE if it is taken
+         */
+        public int getScore(int index) {
+            return this.scores[index];
+        }
+
+        /**
+         * @return cells of the evaluated board
+         */
+        public int getCellCount() {
+            return this.scores.length;
+        }
+
+        /**
+         * @return plies searched from the position
+         */
+        public int getDepth() {
+            return this.depth;
+        }
+
+        /**
+         * @return true if every score is final, a draw score then is a proven draw
+         */
+        public boolean isComplete() {
+            return this.complete;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * One-pass statistics over a recorded GameLog.
+ *
+ * Streams the log with GameLogReader and reports the win rates by first move, the game length
+ * histogram and the blunders measured against the HARD engine: a move is a blunder when it turns
+ * a won position into a draw or a loss, or a drawn one into a loss. On 3x3 the solved table is
+ * exact, on larger boards every move is checked by a search within the node budget, so only
+ * results proven inside the budget count. Usage:
+ *
+ *   java tictactoe.CorpusAnalyzer --log games.tttlog --blunders true --nodes 20000
+ *
+ * With --game (and optionally --ply) it prints one position found through the keyframe index.
+ */
+public class CorpusAnalyzer {
+    // game-theoretic classes of a score, ordered from the mover's worst to best
+    private final static int CLASS_LOSS = 0;
+    private final static int CLASS_OPEN = 1;     // a draw, or not proven within the budget
+    private final static int CLASS_WIN = 2;
+
+    private final GameLogReader reader;
+    private final boolean countBlunders;
+    private final Search search;
+
+    // results by first move, [cell][X_WIN, DRAW, O_WIN]
+    private final long[][] firstMoves;
+    private final long[] lengths;
+    private final long[] blunders;      // by the side that blundered, indexed by cell type
+    private long games;
+    private long moves;
+    private long gamesWithBlunders;
+
+    /**
+     * @param reader log to analyze
+     * @param countBlunders true to check every move against the HARD engine
+     * @param nodeLimit nodes per checked move on boards without a solved table
+     */
+    public CorpusAnalyzer(GameLogReader reader, boolean countBlunders, long nodeLimit) {
+        int cells = reader.getSize() * reader.getSize();
+
+        this.reader = reader;
+        this.countBlunders = countBlunders;
+        this.firstMoves = new long[cells][3];
+        this.lengths = new long[cells + 1];
+        this.blunders = new long[3];
+
+        // every root move needs an exact score to be compared with the best one
+        this.search = new Search();
+        this.search.setNodeLimit(nodeLimit);
+        this.search.setRootMargin(2 * Game.SCORE_MAX);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = SimulationRunner.parseOptions(args);
+
+        String log = options.get("log");
+        if (log == null) {
+            throw new IllegalArgumentException("missing --log");
+        }
+
+        try (GameLogReader reader = new GameLogReader(Paths.get(log))) {
+            System.out.printf("log        %s, %dx%d, %d in a row, X=%s O=%s%n", log, reader.getSize(), reader.getSize(),
+                    reader.getWinLength(), SimulationRunner.playerName(reader.getPlayerX()),
+                    SimulationRunner.playerName(reader.getPlayerO()));
+
+            if (options.containsKey("game")) {
+                printPosition(reader, Long.parseLong(options.get("game")), options.get("ply"));
+                return;
+            }
+
+            CorpusAnalyzer analyzer = new CorpusAnalyzer(reader,
+                    Boolean.parseBoolean(options.getOrDefault("blunders", "true")),
+                    Long.parseLong(options.getOrDefault("nodes", "20000")));
+
+            long start = System.nanoTime();
+            analyzer.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            analyzer.print();
+            System.out.printf("analyzed   %d games in %.3f s, %.0f games/sec%n", analyzer.games, seconds, analyzer.games / seconds);
+        }
+    }
+
+    /**
+     * seek one game through the keyframe index and print a position of it
+     */
+    private static void printPosition(GameLogReader reader, long game, String ply) throws IOException {
+        reader.seek(game);
+
+        int plies = ply == null ? reader.getPlies() : Math.min(Integer.parseInt(ply), reader.getPlies());
+        Position position = new Position(reader.getSize(), reader.getWinLength());
+        reader.replay(position, plies);
+
+        System.out.printf("game %d, %d of %d moves%n", game, plies, reader.getPlies());
+        for (int row = 0; row < reader.getSize(); row++) {
+            System.out.println(position.toString().substring(row * reader.getSize(), (row + 1) * reader.getSize()));
+        }
+    }
+
+    /**
+     * read the whole log once
+     *
+     * @throws IOException if the log can't be read
+     */
+    public void run() throws IOException {
+        Position position = new Position(this.reader.getSize(), this.reader.getWinLength());
+
+        this.reader.rewind();
+        while (this.reader.next()) {
+            int plies = this.reader.getPlies();
+            int state = this.reader.getState();
+
+            this.games++;
+            this.moves += plies;
+            this.lengths[plies]++;
+            this.firstMoves[this.reader.getMove(0)][state == Game.X_WIN ? 0 : state == Game.DRAW ? 1 : 2]++;
+
+            if (this.countBlunders) {
+                countBlunders(position, plies);
+            }
+        }
+    }
+
+    /**
+     * replay the current game and check every move
+     */
+    private void countBlunders(Position position, int plies) throws IOException {
+        boolean blundered = false;
+        position.clear();
+
+        for (int ply = 0; ply < plies; ply++) {
+            int move = this.reader.getMove(ply);
+            int side = position.getSideToMove();
+
+            if (isBlunder(position, move)) {
+                this.blunders[side]++;
+                blundered = true;
+            }
+
+            position.makeMove(move);
+        }
+
+        if (blundered) {
+            this.gamesWithBlunders++;
+        }
+    }
+
+    /**
+     * @param position position before the move, restored before returning
+     * @param move cell index of the played move
+     * @return true if the move gives away the value of the position
+     */
+    private boolean isBlunder(Position position, int move) {
+        if (SolvedTable.covers(position)) {
+            SolvedTable table = SolvedTable.getInstance();
+            int before = table.getValue(position);
+
+            position.makeMove(move);
+            int after = position.isWon() ? SolvedTable.VALUE_WIN
+                    : position.isFull() ? SolvedTable.VALUE_DRAW
+                    : SolvedTable.VALUE_WIN + SolvedTable.VALUE_LOSS - table.getValue(position);  // the opponent's view
+            position.unmakeMove(move);
+
+            return after < before;
+        }
+
+        this.search.getNextBestMove(position);
+        int played = this.search.getRootScore(move);
+
+        if (this.search.getCompletedDepth() == 0 || played == Game.SCORE_MIN) {
+            return false;
+        }
+
+        return classOf(played) < classOf(this.search.getScore());
+    }
+
+    private static int classOf(int score) {
+        return score >= Game.SCORE_WIN ? CLASS_WIN : score <= Game.SCORE_LOSS ? CLASS_LOSS : CLASS_OPEN;
+    }
+
+    public void print() {
+        long xWins = 0;
+        long draws = 0;
+        long oWins = 0;
+        for (long[] results : this.firstMoves) {
+            xWins += results[0];
+            draws += results[1];
+            oWins += results[2];
+        }
+
+        System.out.printf("games      %d, X wins %.2f%%, draws %.2f%%, O wins %.2f%%%n", this.games,
+                100.0 * xWins / this.games, 100.0 * draws / this.games, 100.0 * oWins / this.games);
+
+        System.out.println("first move          games     X win      draw     O win");
+        int size = this.reader.getSize();
+        for (int cell = 0; cell < this.firstMoves.length; cell++) {
+            long[] results = this.firstMoves[cell];
+            long count = results[0] + results[1] + results[2];
+            if (count == 0) {
+                continue;
+            }
+
+            System.out.printf("  %c%-4d  %14d  %7.2f%%  %7.2f%%  %7.2f%%%n", (char) ('A' + cell % size), size - cell / size, count,
+                    100.0 * results[0] / count, 100.0 * results[1] / count, 100.0 * results[2] / count);
+        }
+
+        System.out.println("length              games");
+        long maxLength = 0;
+        for (long count : this.lengths) {
+            maxLength = Math.max(maxLength, count);
+        }
+        for (int plies = 0; plies < this.lengths.length; plies++) {
+            if (this.lengths[plies] > 0) {
+                System.out.printf("  %-4d  %14d  %s%n", plies, this.lengths[plies], "#".repeat((int) (40 * this.lengths[plies] / maxLength)));
+            }
+        }
+
+        if (this.countBlunders) {
+            long total = this.blunders[Game.CELL_X] + this.blunders[Game.CELL_O];
+            System.out.printf("blunders   %d in %d moves (X %d, O %d), %d games with a blunder%n",
+                    total, this.moves, this.blunders[Game.CELL_X], this.blunders[Game.CELL_O], this.gamesWithBlunders);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline generator of the EndgameTable of a board of up to 16 cells, by retrograde analysis.
+ *
+ * A move adds one stone, so the positions with n stones only lead to positions with n + 1. The
+ * generator solves the layers from the full board down to the empty one: a position of layer n
+ * is decided by its own lines, else by the already solved entries of its children in layer n + 1.
+ * No position is searched twice and nothing but the two layers is touched, each mapped from the
+ * file, so the heap stays small and the operating system writes the finished layers back.
+ *
+ * The positions of a layer are independent of each other: worker threads take chunks of the
+ * layer from a shared counter. When a layer is done it is forced to disk, then the header records
+ * it as the lowest solved layer and is forced in turn. An interrupted run started again with the
+ * same options continues below the last recorded layer. Usage:
+ *
+ *   java tictactoe.EndgameGenerator --size 4 --k 4
+ *
+ * Options: --size, --k, --threads and --out (the database file, by default the one EndgameTable
+ * looks for in Game.ENDGAME_DIR).
+ */
+public class EndgameGenerator {
+    // positions a worker takes at once
+    private final static int CHUNK = 1 << 14;
+
+    private final LineTable lines;
+    private final EndgameIndex index;
+    private final int threads;
+
+    public EndgameGenerator(int size, int winLength, int threads) {
+        if (size * size > EndgameIndex.MAX_CELLS) {
+            throw new IllegalArgumentException("endgame databases cover boards of up to " + EndgameIndex.MAX_CELLS + " cells");
+        }
+
+        this.lines = LineTable.get(size, winLength);
+        this.index = new EndgameIndex(size * size);
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = SimulationRunner.parseOptions(args);
+
+        int size = Integer.parseInt(options.getOrDefault("size", "4"));
+        int winLength = Integer.parseInt(options.getOrDefault("k", String.valueOf(size)));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        String out = options.get("out");
+        Path path = out != null ? Paths.get(out) : EndgameTable.getPath(size, winLength);
+
+        EndgameGenerator generator = new EndgameGenerator(size, winLength, threads);
+
+        System.out.printf("board      %dx%d, %d in a row%n", size, size, winLength);
+        System.out.printf("positions  %d, %d bytes to %s%n", generator.index.getPositionCount(),
+                EndgameTable.HEADER_SIZE + generator.index.getPositionCount(), path);
+        System.out.printf("threads    %d%n", threads);
+
+        long start = System.nanoTime();
+        generator.generate(path);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        EndgameTable table = EndgameTable.open(path);
+        int entry = table.getEntry(new Position(size, winLength));
+        System.out.printf("solved     in %.3f s, the first player %s in %d plies%n", seconds,
+                valueName(EndgameTable.getValue(entry)), EndgameTable.getDistance(entry));
+    }
+
+    /**
+     * solve the board into the file, or finish the layers an interrupted run left
+     *
+     * @param path database file
+     * @throws IOException if the file can't be written, or belongs to another board
+     */
+    public void generate(Path path) throws IOException, InterruptedException {
+        int cells = this.index.getCellCount();
+        long positions = this.index.getPositionCount();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer found = ByteBuffer.allocate(EndgameTable.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (found.hasRemaining() && channel.read(found) >= 0) {
+                // read the whole header
+            }
+
+            int solved;
+            if (channel.size() == EndgameTable.HEADER_SIZE + positions && found.getInt(0) == EndgameTable.MAGIC) {
+                if (found.get(4) != EndgameTable.VERSION || found.get(EndgameTable.OFFSET_SIZE) != this.lines.getSize()
+                        || found.get(EndgameTable.OFFSET_WIN_LENGTH) != this.lines.getWinLength()) {
+                    throw new IOException(path + " is the endgame database of another board");
+                }
+                solved = found.get(EndgameTable.OFFSET_SOLVED_LAYER);
+                if (solved <= cells) {
+                    System.out.printf("resuming   below layer %d%n", solved);
+                }
+            } else {
+                // a new file, or a foreign one the run overwrites; the entries are filled layer by layer
+                solved = cells + 1;
+                channel.truncate(0);
+                channel.write(ByteBuffer.allocate(1), EndgameTable.HEADER_SIZE + positions - 1);
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, EndgameTable.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (solved > cells) {
+                header.putInt(0, EndgameTable.MAGIC);
+                header.put(4, (byte) EndgameTable.VERSION);
+                header.put(EndgameTable.OFFSET_SIZE, (byte) this.lines.getSize());
+                header.put(EndgameTable.OFFSET_WIN_LENGTH, (byte) this.lines.getWinLength());
+                header.put(EndgameTable.OFFSET_SOLVED_LAYER, (byte) solved);
+                header.putLong(EndgameTable.OFFSET_POSITIONS, positions);
+                header.force();
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+            try {
+                MappedByteBuffer next = solved <= cells ? mapLayer(channel, solved) : null;
+
+                for (int stones = solved - 1; stones >= 0; stones--) {
+                    long start = System.nanoTime();
+                    MappedByteBuffer layer = mapLayer(channel, stones);
+
+                    solveLayer(executor, stones, layer, next);
+
+                    // the entries must be on disk before the header claims them
+                    layer.force();
+                    header.put(EndgameTable.OFFSET_SOLVED_LAYER, (byte) stones);
+                    header.force();
+
+                    System.out.printf("layer %2d   %9d positions in %.3f s%n", stones, this.index.getLayerSize(stones),
+                            (System.nanoTime() - start) / 1e9);
+                    next = layer;
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private MappedByteBuffer mapLayer(FileChannel channel, int stones) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, EndgameTable.HEADER_SIZE + this.index.getLayerStart(stones),
+                this.index.getLayerSize(stones));
+    }
+
+    private void solveLayer(ExecutorService executor, int stones, ByteBuffer layer, ByteBuffer next)
+            throws IOException, InterruptedException {
+        int layerSize = this.index.getLayerSize(stones);
+        AtomicLong nextChunk = new AtomicLong();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < this.threads; t++) {
+            // every worker reads and writes through its own view of the mappings
+            ByteBuffer layerView = layer.duplicate();
+            ByteBuffer nextView = next != null ? next.duplicate() : null;
+
+            futures.add(executor.submit(() -> {
+                long[] masks = new long[2];
+                for (long from; (from = nextChunk.getAndAdd(CHUNK)) < layerSize; ) {
+                    int to = (int) Math.min(from + CHUNK, layerSize);
+                    for (int rank = (int) from; rank < to; rank++) {
+                        this.index.positionOf(stones, rank, masks);
+                        layerView.put(rank, (byte) solve(stones, masks[0], masks[1], nextView));
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("solving layer " + stones + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * @param next entries of the layer with one stone more, null for the full board
+     * @return the entry of the position for the side to move
+     */
+    private int solve(int stones, long maskX, long maskO, ByteBuffer next) {
+        boolean xToMove = (stones & 1) == 0;
+        long own = xToMove ? maskX : maskO;
+        long other = xToMove ? maskO : maskX;
+
+        // the side to move cannot have a line, the game would have ended before its turn
+        if (hasLine(own)) {
+            return EndgameTable.toEntry(SolvedTable.VALUE_NONE, 0);
+        }
+        if (hasLine(other)) {
+            return EndgameTable.toEntry(SolvedTable.VALUE_LOSS, 0);
+        }
+        if (stones == this.index.getCellCount()) {
+            return EndgameTable.toEntry(SolvedTable.VALUE_DRAW, 0);
+        }
+
+        int best = -1;
+        for (long empty = ~(maskX | maskO) & this.lines.getFullMask(); empty != 0; empty &= empty - 1) {
+            int cell = Long.numberOfTrailingZeros(empty);
+            long after = own | (1L << cell);
+
+            if (EndgameTable.isWon(this.lines, after, cell)) {
+                // nothing beats a win on the spot
+                return EndgameTable.toEntry(SolvedTable.VALUE_WIN, 1);
+            }
+
+            long child = xToMove ? this.index.indexOf(after, other) : this.index.indexOf(other, after);
+            int entry = EndgameTable.fromChild(next.get((int) (child - this.index.getLayerStart(stones + 1))) & 0xFF);
+            if (best < 0 || EndgameTable.isBetter(entry, best)) {
+                best = entry;
+            }
+        }
+
+        return best;
+    }
+
+    private boolean hasLine(long stones) {
+        for (int line = 0; line < this.lines.getLineCount(); line++) {
+            long mask = this.lines.getLine(line);
+            if ((stones & mask) == mask) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String valueName(int value) {
+        switch (value) {
+            case SolvedTable.VALUE_WIN:
+                return "wins";
+            case SolvedTable.VALUE_LOSS:
+                return "loses";
+            default:
+                return "draws";
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package tictactoe;
+
+/**
+ * Perfect index of the positions of a small board, for the endgame database.
+ *
+ * X moves first, so a position with n stones holds ceil(n / 2) X and floor(n / 2) O. The positions
+ * are grouped by n into layers, layer n numbers its positions by two ranks in the combinatorial
+ * number system: the rank of the occupied cells among all n-subsets of the cells, times the number
+ * of ways to place the X stones, plus the rank of the X stones among the occupied cells. Every
+ * position with legal stone counts gets exactly one index and every index one position, so the
+ * table has no holes: 10,165,779 positions on 4x4 where the base-3 encoding has 43,046,721.
+ *
+ * Ranking and unranking are a walk over the stones with a binomial table, no search and no map.
+ * The index is immutable and safe to share between threads.
+ */
+class EndgameIndex {
+    // cells of the largest board indexed, the layers of 4x4 fit an int
+    final static int MAX_CELLS = 16;
+
+    // BINOMIAL[n][k] = n choose k
+    private final static int[][] BINOMIAL = new int[MAX_CELLS + 1][MAX_CELLS + 1];
+
+    static {
+        for (int n = 0; n <= MAX_CELLS; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + (k <= n - 1 ? BINOMIAL[n - 1][k] : 0);
+            }
+        }
+    }
+
+    private final int cells;
+    private final long[] layerStart;    // index of the first position of each layer, layerStart[cells + 1] is the count
+
+    /**
+     * @param cells cells of the board, at most MAX_CELLS
+     */
+    public EndgameIndex(int cells) {
+        if (cells < 1 || cells > MAX_CELLS) {
+            throw new IllegalArgumentException("the endgame index covers boards of 1 to " + MAX_CELLS + " cells: " + cells);
+        }
+
+        this.cells = cells;
+        this.layerStart = new long[cells + 2];
+        for (int stones = 0; stones <= cells; stones++) {
+            this.layerStart[stones + 1] = this.layerStart[stones] + getLayerSize(stones);
+        }
+    }
+
+    public int getCellCount() {
+        return this.cells;
+    }
+
+    /**
+     * @return positions over all layers
+     */
+    public long getPositionCount() {
+        return this.layerStart[this.cells + 1];
+    }
+
+    /**
+     * @param stones stones on the board
+     * @return index of the first position of the layer
+     */
+    public long getLayerStart(int stones) {
+        return this.layerStart[stones];
+    }
+
+    /**
+     * @param stones stones on the board
+     * @return positions with that many stones
+     */
+    public int getLayerSize(int stones) {
+        return BINOMIAL[this.cells][stones] * BINOMIAL[stones][(stones + 1) / 2];
+    }
+
+    /**
+     * @param maskX cells of X
+     * @param maskO cells of O, with as many stones as X or one less
+     * @return the index of the position
+     */
+    public long indexOf(long maskX, long maskO) {
+        long occupied = maskX | maskO;
+        int stones = Long.bitCount(occupied);
+
+        int occupiedRank = 0;
+        int xRank = 0;
+        int i = 0;
+        int x = 0;
+        for (long bits = occupied; bits != 0; bits &= bits - 1, i++) {
+            int cell = Long.numberOfTrailingZeros(bits);
+            occupiedRank += BINOMIAL[cell][i + 1];
+
+            if ((maskX & (1L << cell)) != 0) {
+                xRank += BINOMIAL[i][++x];
+            }
+        }
+
+        return this.layerStart[stones] + (long) occupiedRank * BINOMIAL[stones][(stones + 1) / 2] + xRank;
+    }
+
+    /**
+     * @param stones stones on the board
+     * @param rank index of the position within its layer
+     * @param masks receives the cells of X at 0 and of O at 1
+     */
+    public void positionOf(int stones, int rank, long[] masks) {
+        int xCount = (stones + 1) / 2;
+        int placements = BINOMIAL[stones][xCount];
+        int occupiedRank = rank / placements;
+        int xRank = rank % placements;
+
+        // from the last stone down, the i-th one is on the largest cell c with BINOMIAL[c][i] <= rank
+        long occupied = 0;
+        int cell = this.cells;
+        for (int i = stones; i > 0; i--) {
+            do {
+                cell--;
+            } while (BINOMIAL[cell][i] > occupiedRank);
+            occupied |= 1L << cell;
+            occupiedRank -= BINOMIAL[cell][i];
+        }
+
+        // the same for the X stones, numbered by their place among the occupied cells
+        int xPlaces = 0;
+        int place = stones;
+        for (int k = xCount; k > 0; k--) {
+            do {
+                place--;
+            } while (BINOMIAL[place][k] > xRank);
+            xPlaces |= 1 << place;
+            xRank -= BINOMIAL[place][k];
+        }
+
+        long maskX = 0;
+        long maskO = 0;
+        int i = 0;
+        for (long bits = occupied; bits != 0; bits &= bits - 1, i++) {
+            long bit = bits & -bits;
+            if ((xPlaces & (1 << i)) != 0) {
+                maskX |= bit;
+            } else {
+                maskO |= bit;
+            }
+        }
+
+        masks[0] = maskX;
+        masks[1] = maskO;
+    }
+}
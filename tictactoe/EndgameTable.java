@@ -0,0 +1,247 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Endgame database of a small board, read through a memory mapping.
+ *
+ * EndgameGenerator solves every position of a board of up to 16 cells offline and writes one byte
+ * per position, at the position's EndgameIndex: the game value for the side to move in the upper
+ * two bits, SolvedTable's VALUE_LOSS, VALUE_DRAW or VALUE_WIN, and the plies to the end of the
+ * game in the lower six. The HARD robot plays a board with a complete database from it: every move
+ * is looked up, and the quickest win, else a draw, else the slowest loss is played. The file is
+ * mapped read-only, so the operating system pages in only the positions the games reach and
+ * every process playing the board shares the pages.
+ *
+ * File layout, little endian:
+ *
+ *   0   int    MAGIC
+ *   4   byte   VERSION
+ *   5   byte   board size
+ *   6   byte   win length
+ *   7   byte   stones of the lowest layer solved, cells + 1 until the generator solved the full board
+ *   8   long   positions
+ *   32         one byte per position, value << 6 | distance
+ */
+class EndgameTable {
+    final static int MAGIC = 0x54545445;    // "TTTE"
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 32;
+
+    // header offsets
+    final static int OFFSET_SIZE = 5;
+    final static int OFFSET_WIN_LENGTH = 6;
+    final static int OFFSET_SOLVED_LAYER = 7;
+    final static int OFFSET_POSITIONS = 8;
+
+    final static int DISTANCE_MASK = 0x3F;
+
+    // tables opened so far by board, null for a board without a complete database
+    private final static Map<Integer, EndgameTable> TABLES = new HashMap<>();
+
+    private final int size;
+    private final int winLength;
+    private final EndgameIndex index;
+    private final MappedByteBuffer entries;
+
+    private EndgameTable(int size, int winLength, MappedByteBuffer entries) {
+        this.size = size;
+        this.winLength = winLength;
+        this.index = new EndgameIndex(size * size);
+        this.entries = entries;
+    }
+
+    /**
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     * @return the database file of the board in the Game.ENDGAME_DIR directory
+     */
+    public static Path getPath(int size, int winLength) {
+        return Paths.get(Game.ENDGAME_DIR, String.format("endgame-%dx%d-k%d.db", size, size, winLength));
+    }
+
+    /**
+     * get the database of the position's board, mapping it on the first call
+     *
+     * @param position game position
+     * @return the table, or null if the board has no complete database file
+     */
+    public static synchronized EndgameTable find(Position position) {
+        int size = position.getSize();
+        int winLength = position.getWinLength();
+        int key = size * 100 + winLength;
+
+        if (!TABLES.containsKey(key)) {
+            EndgameTable table = null;
+            Path path = getPath(size, winLength);
+
+            // a missing, foreign or unfinished file leaves the board to the search
+            if (size * size <= EndgameIndex.MAX_CELLS && Files.isRegularFile(path)) {
+                try {
+                    table = open(path);
+                } catch (IOException e) {
+                    table = null;
+                }
+            }
+            TABLES.put(key, table);
+        }
+
+        return TABLES.get(key);
+    }
+
+    /**
+     * map a complete database file
+     *
+     * @param path database file
+     * @return the table
+     * @throws IOException if the file can't be read, is no database or is not fully solved
+     */
+    public static EndgameTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+
+            int size = header.get(OFFSET_SIZE);
+            if (header.getInt(0) != MAGIC || header.get(4) != VERSION || size < 1 || size * size > EndgameIndex.MAX_CELLS) {
+                throw new IOException(path + " is not a version " + VERSION + " endgame database");
+            }
+
+            long positions = new EndgameIndex(size * size).getPositionCount();
+            if (header.get(OFFSET_SOLVED_LAYER) != 0 || header.getLong(OFFSET_POSITIONS) != positions
+                    || channel.size() < HEADER_SIZE + positions) {
+                throw new IOException(path + " is not fully solved");
+            }
+
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, positions);
+            return new EndgameTable(size, header.get(OFFSET_WIN_LENGTH), entries);
+        }
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getWinLength() {
+        return this.winLength;
+    }
+
+    /**
+     * @param position game position on the table's board
+     * @return the entry of the position, value << 6 | distance
+     */
+    public int getEntry(Position position) {
+        return getEntry(position.getMask(Game.CELL_X), position.getMask(Game.CELL_O));
+    }
+
+    private int getEntry(long maskX, long maskO) {
+        return this.entries.get((int) this.index.indexOf(maskX, maskO)) & 0xFF;
+    }
+
+    /**
+     * @param entry a table entry
+     * @return VALUE_WIN, VALUE_DRAW or VALUE_LOSS for the side to move, VALUE_NONE if no game reaches the position
+     */
+    public static int getValue(int entry) {
+        return entry >>> 6;
+    }
+
+    /**
+     * @param entry a table entry
+     * @return plies to the end of the game with perfect play
+     */
+    public static int getDistance(int entry) {
+        return entry & DISTANCE_MASK;
+    }
+
+    /**
+     * the quickest win, else the first drawing move, else the slowest loss
+     *
+     * @param position game position in progress, not changed
+     * @return index of the best cell, or -1 if the game is over
+     */
+    public int getBestMove(Position position) {
+        if (position.getState() != Game.IN_PROGRESS) {
+            return -1;
+        }
+
+        int side = position.getSideToMove();
+        long own = position.getMask(side);
+        long other = position.getMask(side == Game.CELL_X ? Game.CELL_O : Game.CELL_X);
+        LineTable lines = position.getLines();
+
+        int bestMove = -1;
+        int bestEntry = 0;
+        for (long empty = position.getEmptyMask() & lines.getFullMask(); empty != 0; empty &= empty - 1) {
+            int cell = Long.numberOfTrailingZeros(empty);
+            long after = own | (1L << cell);
+
+            int entry = isWon(lines, after, cell) ? toEntry(SolvedTable.VALUE_WIN, 1)
+                    : fromChild(side == Game.CELL_X ? getEntry(after, other) : getEntry(other, after));
+
+            if (bestMove < 0 || isBetter(entry, bestEntry)) {
+                bestMove = cell;
+                bestEntry = entry;
+            }
+        }
+
+        return bestMove;
+    }
+
+    static int toEntry(int value, int distance) {
+        return value << 6 | distance;
+    }
+
+    /**
+     * @param childEntry entry of the position after a move, for the opponent
+     * @return the entry of the move for the side that played it, one ply further from the end
+     */
+    static int fromChild(int childEntry) {
+        int value = getValue(childEntry);
+        int distance = getDistance(childEntry) + 1;
+
+        return value == SolvedTable.VALUE_LOSS ? toEntry(SolvedTable.VALUE_WIN, distance)
+                : value == SolvedTable.VALUE_WIN ? toEntry(SolvedTable.VALUE_LOSS, distance)
+                : toEntry(SolvedTable.VALUE_DRAW, distance);
+    }
+
+    /**
+     * a win beats a draw beats a loss, a quicker win and a slower loss are better; a draw is a draw
+     */
+    static boolean isBetter(int entry, int than) {
+        int value = getValue(entry);
+        int thanValue = getValue(than);
+
+        if (value != thanValue) {
+            return value > thanValue;
+        }
+        return value == SolvedTable.VALUE_WIN ? getDistance(entry) < getDistance(than)
+                : value == SolvedTable.VALUE_LOSS && getDistance(entry) > getDistance(than);
+    }
+
+    /**
+     * @param stones stones of one side, cell included
+     * @return true if a line through the cell is full
+     */
+    static boolean isWon(LineTable lines, long stones, int cell) {
+        for (int i = lines.getCellLineStart(cell); i < lines.getCellLineEnd(cell); i++) {
+            long line = lines.getLine(lines.getCellLine(i));
+            if ((stones & line) == line) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
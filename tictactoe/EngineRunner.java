@@ -0,0 +1,302 @@
+package tictactoe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Headless engine speaking a line protocol over stdin and stdout, for scripts and other bots.
+ *
+ * Uses no AWT or Swing classes and registers no MBeans, the engine answers its first command as
+ * soon as the JVM is up. Every command gets exactly one reply line, in order, so a client may
+ * write many commands before reading. The replies of the commands already waiting in the input
+ * are written together, the output is flushed once the input runs dry. Usage:
+ *
+ *   java tictactoe.EngineRunner --threads 1
+ *   java tictactoe.ApplicationRunner --engine
+ *
+ * Commands, one per line, cells are indexes row * size + col:
+ *
+ *   SIZE size k         start an empty size x size board, k in a row wins; 3x3, k=3 at start
+ *   POSITION cells      set the board, X, O and _ row by row; the side to move follows from the counts
+ *   MOVE cell           play a move for the side to move
+ *   LEVEL level         robot level of GO, easy, medium, hard (the default) or mcts
+ *   GO [millis]         choose a move within the time, Game.MOVE_TIME_MILLIS by default, 0 for no limit
+ *   EVAL [millis]       score the position for the side to move with the hard robot
+ *   BOARD               show the board
+ *   QUIT                end the engine, without a reply
+ *
+ * Replies: "OK", "BESTMOVE cell", "EVAL score" where SCORE_WIN and SCORE_LOSS are proven and a
+ * solved draw is 0, "BOARD cells", "END X_WIN|O_WIN|DRAW" for GO or EVAL on a finished game,
+ * "ERR message".
+ */
+public class EngineRunner {
+    private final BufferedReader input;
+    private final PrintWriter output;
+    private final int threads;
+
+    private Position position;
+    private int level;
+    private RobotEngine engine;     // robot of the level, created by the first GO
+    private RobotEngine evaluator;  // hard robot of EVAL, the engine itself at the HARD level
+
+    public EngineRunner(BufferedReader input, PrintWriter output, int threads) {
+        this.input = input;
+        this.output = output;
+        this.threads = threads;
+        this.position = new Position(Game.SIZE, Game.WIN_LENGTH);
+        this.level = Game.HARD;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = SimulationRunner.parseOptions(args);
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Game.SEARCH_THREADS)));
+
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII), 1 << 16);
+        PrintWriter output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII), 1 << 16));
+
+        new EngineRunner(input, output, threads).run();
+    }
+
+    /**
+     * answer commands until QUIT or the end of the input
+     */
+    public void run() throws IOException {
+        String line;
+
+        while ((line = this.input.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!handle(line)) {
+                break;
+            }
+
+            // pipelined commands are answered in one write
+            if (!this.input.ready()) {
+                this.output.flush();
+            }
+        }
+
+        this.output.flush();
+    }
+
+    /**
+     * @return false after QUIT
+     */
+    private boolean handle(String line) {
+        String[] words = line.split("\\s+");
+
+        try {
+            switch (words[0].toUpperCase(Locale.ROOT)) {
+                case "SIZE":
+                    setSize(words);
+                    break;
+                case "POSITION":
+                    setPosition(words);
+                    break;
+                case "MOVE":
+                    move(words);
+                    break;
+                case "LEVEL":
+                    setLevel(words);
+                    break;
+                case "GO":
+                    go(words);
+                    break;
+                case "EVAL":
+                    eval(words);
+                    break;
+                case "BOARD":
+                    this.output.println("BOARD " + this.position);
+                    break;
+                case "QUIT":
+                    return false;
+                default:
+                    this.output.println("ERR unknown command " + words[0]);
+                    break;
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            this.output.println("ERR " + e.getMessage());
+        }
+
+        return true;
+    }
+
+    /**
+     * SIZE size k
+     */
+    private void setSize(String[] words) {
+        if (words.length != 3) {
+            throw new IllegalArgumentException("usage: SIZE size k");
+        }
+
+        this.position = new Position(LineTable.get(Integer.parseInt(words[1]), Integer.parseInt(words[2])));
+        this.output.println("OK");
+    }
+
+    /**
+     * POSITION cells
+     */
+    private void setPosition(String[] words) {
+        if (words.length != 2) {
+            throw new IllegalArgumentException("usage: POSITION cells");
+        }
+
+        String cells = words[1].toUpperCase(Locale.ROOT);
+        int cellCount = this.position.getCellCount();
+        if (cells.length() != cellCount) {
+            throw new IllegalArgumentException("expected " + cellCount + " cells, got " + cells.length());
+        }
+
+        // checked on a copy, a rejected position leaves the current one
+        Position next = new Position(this.position.getLines());
+        for (int i = 0; i < cellCount; i++) {
+            switch (cells.charAt(i)) {
+                case 'X':
+                    next.makeMove(i, Game.CELL_X);
+                    break;
+                case 'O':
+                    next.makeMove(i, Game.CELL_O);
+                    break;
+                case '_':
+                    break;
+                default:
+                    throw new IllegalArgumentException("cells are X, O or _: " + cells.charAt(i));
+            }
+        }
+
+        int stonesX = Long.bitCount(next.getMask(Game.CELL_X));
+        int stonesO = Long.bitCount(next.getMask(Game.CELL_O));
+        if (stonesX != stonesO && stonesX != stonesO + 1) {
+            throw new IllegalArgumentException("X moves first, X has " + stonesX + " stones and O " + stonesO);
+        }
+        if ((next.checkWin(Game.CELL_X) && stonesX == stonesO) || (next.checkWin(Game.CELL_O) && stonesX > stonesO)) {
+            throw new IllegalArgumentException("only the side that moved last can have a line");
+        }
+
+        this.position = next;
+        this.output.println("OK");
+    }
+
+    /**
+     * MOVE cell
+     */
+    private void move(String[] words) {
+        if (words.length != 2) {
+            throw new IllegalArgumentException("usage: MOVE cell");
+        }
+
+        int index = Integer.parseInt(words[1]);
+        if (this.position.getState() != Game.IN_PROGRESS) {
+            throw new IllegalStateException("the game is over");
+        }
+        if (index < 0 || index >= this.position.getCellCount()) {
+            throw new IllegalArgumentException("no cell " + index + " on the board");
+        }
+        if (this.position.getCellType(index) != Game.CELL_EMPTY) {
+            throw new IllegalArgumentException("cell " + index + " is not empty");
+        }
+
+        this.position.makeMove(index);
+        this.output.println("OK");
+    }
+
+    /**
+     * LEVEL level
+     */
+    private void setLevel(String[] words) {
+        if (words.length != 2) {
+            throw new IllegalArgumentException("usage: LEVEL level");
+        }
+
+        int level = SimulationRunner.parsePlayer(words[1].toLowerCase(Locale.ROOT));
+        if (level == SimulationRunner.RANDOM) {
+            throw new IllegalArgumentException("robot level is easy, medium, hard or mcts");
+        }
+
+        if (level != this.level) {
+            this.level = level;
+            this.engine = null;
+        }
+        this.output.println("OK");
+    }
+
+    /**
+     * GO [millis]
+     */
+    private void go(String[] words) {
+        long timeLimitMillis = parseTime(words, "GO");
+        if (printEnd()) {
+            return;
+        }
+
+        if (this.engine == null) {
+            this.engine = this.level == Game.HARD ? getEvaluator() : new RobotEngine(this.level, this.threads);
+        }
+        this.engine.setTimeLimit(timeLimitMillis);
+
+        this.output.println("BESTMOVE " + this.engine.chooseMove(this.position));
+    }
+
+    /**
+     * EVAL [millis]
+     */
+    private void eval(String[] words) {
+        long timeLimitMillis = parseTime(words, "EVAL");
+        if (printEnd()) {
+            return;
+        }
+
+        RobotEngine evaluator = getEvaluator();
+        evaluator.setTimeLimit(timeLimitMillis);
+        evaluator.chooseMove(this.position);
+
+        this.output.println("EVAL " + evaluator.getScore());
+    }
+
+    private RobotEngine getEvaluator() {
+        if (this.evaluator == null) {
+            this.evaluator = new RobotEngine(Game.HARD, this.threads);
+        }
+        return this.evaluator;
+    }
+
+    private static long parseTime(String[] words, String command) {
+        if (words.length > 2) {
+            throw new IllegalArgumentException("usage: " + command + " [millis]");
+        }
+
+        long timeLimitMillis = words.length == 2 ? Long.parseLong(words[1]) : Game.MOVE_TIME_MILLIS;
+        if (timeLimitMillis < 0) {
+            throw new IllegalArgumentException("time must not be negative: " + timeLimitMillis);
+        }
+        return timeLimitMillis;
+    }
+
+    /**
+     * @return true if the game is over and its result was printed
+     */
+    private boolean printEnd() {
+        switch (this.position.getState()) {
+            case Game.X_WIN:
+                this.output.println("END X_WIN");
+                return true;
+            case Game.O_WIN:
+                this.output.println("END O_WIN");
+                return true;
+            case Game.DRAW:
+                this.output.println("END DRAW");
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package tictactoe;
+
+class Game {
+    /**
+     * constants definition
+     */
+
+    // number of cells in a row on a squared board
+    final static int SIZE = 3;
+
+    // number of stones in a row that wins
+    final static int WIN_LENGTH = 3;
+
+    // board sizes offered in the board menu as {size, win length}
+    final static int[][] BOARD_SIZES = {{3, 3}, {4, 4}, {5, 4}, {7, 5}};
+
+    // game state
+    final static int NOT_STARTED = 0;
+    final static int IN_PROGRESS = 1;
+    final static int X_WIN = 2;
+    final static int O_WIN = 3;
+    final static int DRAW = 4;
+    final static int GAME_OVER = 5;
+
+    final static String STR_NOT_STARTED = "Game is not started";
+    final static String STR_DRAW = "Draw";
+    final static String STR_GAME_OVER = "Game over";
+
+    // cell type at the position
+    final static int CELL_EMPTY = 0;
+    final static int CELL_X = 1;
+    final static int CELL_O = 2;
+
+    final static String STR_CELL_EMPTY = " ";
+    final static String STR_CELL_X = "X";
+    final static String STR_CELL_O = "O";
+
+    // who is playing
+    final static int ROBOT = 1;
+    final static int HUMAN = 2;
+
+    // String for human and computer
+    final static String STR_HUMAN = "Human";
+    final static String STR_COMPUTER = "Robot";
+
+    // robot level
+    final static int EASY = 0;
+    final static int MEDIUM = 1;
+    final static int HARD = 2;
+    final static int MCTS = 3;      // Monte Carlo tree search, for the large boards
+
+    final static String STR_EASY = "Easy";
+    final static String STR_MEDIUM = "Medium";
+    final static String STR_HARD = "Hard";
+    final static String STR_MCTS = "MCTS";
+
+    // String for start or reset the game
+    final static String STR_START = "Start";
+    final static String STR_RESET = "Reset";
+
+    // score for the minimax function, heuristic scores at the search horizon lie in between
+    final static int SCORE_WIN = 1000;
+    final static int SCORE_LOSS = -1000;
+    final static int SCORE_DRAW = 0;
+    final static int SCORE_MAX = 10000;
+    final static int SCORE_MIN = -10000;
+
+    // delay before a robot move by speed, turbo plays as fast as the robots think
+    final static int SPEED_TURBO = 0;
+    final static int SPEED_FAST = 1;
+    final static int SPEED_NORMAL = 2;
+    final static int SPEED_SLOW = 3;
+
+    final static int[] MOVE_DELAYS_MILLIS = {0, 250, 1000, 2500};
+    final static String[] STR_SPEEDS = {"Turbo", "Fast", "Normal", "Slow"};
+
+    // time the robot may think about one move on boards it can't solve
+    final static long MOVE_TIME_MILLIS = 1000;
+
+    // time the analysis mode and the evaluation overlay may think about one position
+    final static long ANALYSIS_TIME_MILLIS = 5000;
+
+    // threads searching one robot move, -Dtictactoe.searchThreads=1 for a deterministic robot
+    final static int SEARCH_THREADS = Integer.getInteger("tictactoe.searchThreads", Runtime.getRuntime().availableProcessors());
+
+    // directory of the endgame databases written by EndgameGenerator, the HARD robot plays their boards from them
+    final static String ENDGAME_DIR = System.getProperty("tictactoe.endgameDir", ".");
+
+    // search and game counters exposed over JMX, -Dtictactoe.stats=false removes them from the hot paths
+    final static boolean STATS_ENABLED = Boolean.parseBoolean(System.getProperty("tictactoe.stats", "true"));
+}
@@ -0,0 +1,253 @@
+package tictactoe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Append-only, memory-mapped log of GameRecords of one board and player configuration.
+ *
+ * Any number of threads may append at once: a writer reserves its bytes with one atomic add on
+ * the tail and fills them through the shared mapping, without locks. The file is mapped in
+ * segments of SEGMENT_SIZE bytes. A record never crosses a segment, a writer whose reservation
+ * would cross one leaves it as zero padding and reserves again. A second counter holds the end
+ * of the complete prefix: a writer finishing the reservation at that end moves it on, one
+ * finishing ahead of it parks its reservation until the writers before it are done. Only that
+ * end is written to the header, so a reader never meets a half written record, and a flush
+ * never waits for the appends in flight.
+ *
+ * File layout, little endian:
+ *
+ *   0   int    MAGIC
+ *   4   byte   VERSION
+ *   5   byte   board size
+ *   6   byte   win length
+ *   7   byte   player X, RANDOM, EASY, MEDIUM, HARD or MCTS
+ *   8   byte   player O
+ *   16  long   end of the records, written by flush and close
+ *   24  int    segment size
+ *   32         records
+ */
+class GameLog implements Closeable {
+    final static int MAGIC = 0x54545452;    // "TTTR"
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 32;
+    final static int SEGMENT_SIZE = 1 << 26;
+
+    // header offsets
+    private final static int OFFSET_SIZE = 5;
+    private final static int OFFSET_WIN_LENGTH = 6;
+    private final static int OFFSET_PLAYER_X = 7;
+    private final static int OFFSET_PLAYER_O = 8;
+    private final static int OFFSET_END = 16;
+    private final static int OFFSET_SEGMENT_SIZE = 24;
+
+    // enough segments for 128 GB of records
+    private final static int MAX_SEGMENTS = 2048;
+
+    private final FileChannel channel;
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+    private final AtomicLong tail;
+    private final AtomicLong completed;     // end of the complete prefix of the records
+    private final ConcurrentSkipListMap<Long, Long> finished;  // start to end of the reservations done past it
+    private final AtomicLong gameCount;
+
+    private final int size;
+    private final int winLength;
+    private final int playerX;
+    private final int playerO;
+    private final int bitsPerMove;
+
+    /**
+     * open a log for appending, it is created if the file is missing or empty
+     *
+     * @param path log file
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     * @param playerX player of X, RANDOM or a robot level
+     * @param playerO player of O
+     * @throws IOException if the file can't be opened or belongs to another configuration
+     */
+    public GameLog(Path path, int size, int winLength, int playerX, int playerO) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+        this.finished = new ConcurrentSkipListMap<>();
+        this.gameCount = new AtomicLong();
+
+        this.size = size;
+        this.winLength = winLength;
+        this.playerX = playerX;
+        this.playerO = playerO;
+        this.bitsPerMove = GameRecord.getBitsPerMove(size * size);
+
+        try {
+            ByteBuffer header = getSegment(0);
+
+            if (header.getInt(0) == 0) {
+                header.putInt(0, MAGIC);
+                header.put(4, (byte) VERSION);
+                header.put(OFFSET_SIZE, (byte) size);
+                header.put(OFFSET_WIN_LENGTH, (byte) winLength);
+                header.put(OFFSET_PLAYER_X, (byte) playerX);
+                header.put(OFFSET_PLAYER_O, (byte) playerO);
+                header.putLong(OFFSET_END, HEADER_SIZE);
+                header.putInt(OFFSET_SEGMENT_SIZE, SEGMENT_SIZE);
+            } else if (header.getInt(0) != MAGIC || header.get(4) != VERSION
+                    || header.getInt(OFFSET_SEGMENT_SIZE) != SEGMENT_SIZE) {
+                throw new IOException(path + " is not a version " + VERSION + " game log");
+            } else if (header.get(OFFSET_SIZE) != size || header.get(OFFSET_WIN_LENGTH) != winLength
+                    || header.get(OFFSET_PLAYER_X) != playerX || header.get(OFFSET_PLAYER_O) != playerO) {
+                throw new IOException(path + " records another board or other players");
+            }
+
+            this.tail = new AtomicLong(header.getLong(OFFSET_END));
+            this.completed = new AtomicLong(this.tail.get());
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getWinLength() {
+        return this.winLength;
+    }
+
+    public int getPlayerX() {
+        return this.playerX;
+    }
+
+    public int getPlayerO() {
+        return this.playerO;
+    }
+
+    /**
+     * @return games appended through this instance
+     */
+    public long getGameCount() {
+        return this.gameCount.get();
+    }
+
+    /**
+     * @return end of the records reserved so far
+     */
+    public long getEnd() {
+        return this.tail.get();
+    }
+
+    /**
+     * append one game, safe to call from any number of threads
+     *
+     * @param moves cell indexes in play order
+     * @param plies number of moves
+     * @param state X_WIN, O_WIN or DRAW of the Game constants
+     * @throws IOException if the file can't grow
+     */
+    public void append(int[] moves, int plies, int state) throws IOException {
+        int length = GameRecord.getLength(plies, this.bitsPerMove);
+        int result = GameRecord.fromState(state);
+
+        long start = this.tail.getAndAdd(length);
+        while (start % SEGMENT_SIZE + length > SEGMENT_SIZE) {
+            // crosses a segment, stays padding and counts as written
+            complete(start, length);
+            start = this.tail.getAndAdd(length);
+        }
+
+        try {
+            ByteBuffer segment = getSegment((int) (start / SEGMENT_SIZE));
+            GameRecord.write(segment, (int) (start % SEGMENT_SIZE), moves, plies, result, this.bitsPerMove);
+        } finally {
+            // a failed write leaves padding, the prefix must not stop at it forever
+            complete(start, length);
+        }
+
+        this.gameCount.incrementAndGet();
+    }
+
+    /**
+     * mark a reservation written and move the complete prefix over every finished one it reaches
+     */
+    private void complete(long start, int length) {
+        if (!this.completed.compareAndSet(start, start + length)) {
+            // writers before it are still busy, the last of them moves the prefix over it
+            this.finished.put(start, start + length);
+        }
+
+        // only the thread removing the reservation at the prefix end moves it; a reservation parked
+        // after another thread's last look is seen by its own writer, who reads the moved end
+        while (true) {
+            Long end = this.finished.remove(this.completed.get());
+            if (end == null) {
+                return;
+            }
+            this.completed.set(end);
+        }
+    }
+
+    /**
+     * map a segment on first use, the file grows with it
+     */
+    private MappedByteBuffer getSegment(int index) throws IOException {
+        MappedByteBuffer segment = this.segments.get(index);
+        if (segment != null) {
+            return segment;
+        }
+
+        synchronized (this.segments) {
+            segment = this.segments.get(index);
+            if (segment == null) {
+                segment = this.channel.map(FileChannel.MapMode.READ_WRITE, (long) index * SEGMENT_SIZE, SEGMENT_SIZE);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                this.segments.set(index, segment);
+            }
+        }
+
+        return segment;
+    }
+
+    /**
+     * record the end of the log and write the mapped pages to the disk; safe while appends are in
+     * flight, the recorded end stops before the first record not yet written
+     *
+     * @throws IOException if the header can't be mapped
+     */
+    public void flush() throws IOException {
+        getSegment(0).putLong(OFFSET_END, this.completed.get());
+
+        for (int i = 0; i < MAX_SEGMENTS && this.segments.get(i) != null; i++) {
+            this.segments.get(i).force();
+        }
+    }
+
+    /**
+     * flush and cut the file at the end of the records, all appends must be finished
+     *
+     * @throws IOException if the log can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+
+            // some platforms can't truncate a mapped file, the header still knows the end
+            try {
+                this.channel.truncate(this.tail.get());
+            } catch (IOException ignored) {
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package tictactoe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of a GameLog.
+ *
+ * The file is mapped one segment at a time and read record by record, only the current game is
+ * decoded. next() walks the log in order; seek(game) jumps to any game through a sparse keyframe
+ * index holding the offset of every KEYFRAME_INTERVAL-th game, so a seek decodes at most
+ * KEYFRAME_INTERVAL - 1 header bytes. The index is built by one header-only pass on first use.
+ * Any move of the current game is then reached with replay(position, plies).
+ */
+class GameLogReader implements Closeable {
+    final static int KEYFRAME_INTERVAL = 256;
+
+    private final FileChannel channel;
+    private final long end;
+    private final int size;
+    private final int winLength;
+    private final int playerX;
+    private final int playerO;
+    private final int bitsPerMove;
+
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+
+    // the current game
+    private long game;
+    private long offset;
+    private int plies;
+    private int result;
+    private final int[] moves;
+    private boolean decoded;    // moves are decoded on first access only
+
+    // offsets of the games 0, KEYFRAME_INTERVAL, 2 * KEYFRAME_INTERVAL...
+    private long[] keyframes;
+    private long gameCount;
+
+    /**
+     * @param path log file written by GameLog
+     * @throws IOException if the file can't be read or is no game log
+     */
+    public GameLogReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.moves = new int[GameRecord.MAX_PLIES];
+        this.segmentIndex = -1;
+
+        try {
+            long fileSize = this.channel.size();
+            if (fileSize < GameLog.HEADER_SIZE) {
+                throw new IOException(path + " is not a game log");
+            }
+
+            loadSegment(0);
+            if (this.segment.getInt(0) != GameLog.MAGIC || this.segment.get(4) != GameLog.VERSION
+                    || this.segment.getInt(24) != GameLog.SEGMENT_SIZE) {
+                throw new IOException(path + " is not a version " + GameLog.VERSION + " game log");
+            }
+
+            this.size = this.segment.get(5);
+            this.winLength = this.segment.get(6);
+            this.playerX = this.segment.get(7);
+            this.playerO = this.segment.get(8);
+            this.end = Math.min(this.segment.getLong(16), fileSize);
+            this.bitsPerMove = GameRecord.getBitsPerMove(this.size * this.size);
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+
+        rewind();
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getWinLength() {
+        return this.winLength;
+    }
+
+    public int getPlayerX() {
+        return this.playerX;
+    }
+
+    public int getPlayerO() {
+        return this.playerO;
+    }
+
+    /**
+     * map the segment holding the given offset, the previous one is released to the garbage collector
+     */
+    private void loadSegment(int index) throws IOException {
+        if (index == this.segmentIndex) {
+            return;
+        }
+
+        long start = (long) index * GameLog.SEGMENT_SIZE;
+        long length = Math.min(GameLog.SEGMENT_SIZE, this.channel.size() - start);
+
+        this.segment = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        this.segment.order(ByteOrder.LITTLE_ENDIAN);
+        this.segmentIndex = index;
+    }
+
+    /**
+     * position the reader before the first game
+     */
+    public void rewind() {
+        this.game = -1;
+        this.offset = GameLog.HEADER_SIZE;
+        this.plies = 0;
+    }
+
+    /**
+     * advance to the next game
+     *
+     * @return false at the end of the log
+     * @throws IOException if the file can't be mapped
+     */
+    public boolean next() throws IOException {
+        long next = this.offset + (this.plies > 0 ? GameRecord.getLength(this.plies, this.bitsPerMove) : 0);
+
+        // skip the padding, a record always starts with a nonzero byte
+        while (next < this.end) {
+            loadSegment((int) (next / GameLog.SEGMENT_SIZE));
+            int index = (int) (next % GameLog.SEGMENT_SIZE);
+
+            if (this.segment.get(index) != GameRecord.PADDING) {
+                this.game++;
+                this.offset = next;
+                this.result = GameRecord.getResult(this.segment.get(index));
+                this.plies = GameRecord.getPlies(this.segment.get(index));
+                this.decoded = false;
+                return true;
+            }
+
+            next++;
+        }
+
+        this.offset = this.end;
+        this.plies = 0;
+        return false;
+    }
+
+    /**
+     * @return number of the current game, counted from 0
+     */
+    public long getGame() {
+        return this.game;
+    }
+
+    public int getPlies() {
+        return this.plies;
+    }
+
+    /**
+     * @return X_WIN, O_WIN or DRAW of the Game constants
+     */
+    public int getState() {
+        return GameRecord.toState(this.result);
+    }
+
+    /**
+     * @param ply number of the move, counted from 0
+     * @return cell index of the move
+     * @throws IOException if the file can't be mapped
+     */
+    public int getMove(int ply) throws IOException {
+        decode();
+        return this.moves[ply];
+    }
+
+    private void decode() throws IOException {
+        if (!this.decoded) {
+            loadSegment((int) (this.offset / GameLog.SEGMENT_SIZE));
+            GameRecord.readMoves(this.segment, (int) (this.offset % GameLog.SEGMENT_SIZE), this.bitsPerMove, this.moves);
+            this.decoded = true;
+        }
+    }
+
+    /**
+     * set up a position of the current game
+     *
+     * @param position position on the log's board, cleared first
+     * @param plies number of moves to play, at most getPlies()
+     * @throws IOException if the file can't be mapped
+     */
+    public void replay(Position position, int plies) throws IOException {
+        decode();
+        position.clear();
+
+        for (int i = 0; i < plies; i++) {
+            position.makeMove(this.moves[i]);
+        }
+    }
+
+    /**
+     * @return number of games in the log, building the keyframe index on the first call
+     * @throws IOException if the file can't be mapped
+     */
+    public long getGameCount() throws IOException {
+        buildIndex();
+        return this.gameCount;
+    }
+
+    /**
+     * make the given game the current one
+     *
+     * @param game number of the game, counted from 0
+     * @throws IOException if the file can't be mapped
+     */
+    public void seek(long game) throws IOException {
+        buildIndex();
+        if (game < 0 || game >= this.gameCount) {
+            throw new IllegalArgumentException("no game " + game + " in a log of " + this.gameCount);
+        }
+
+        // stand just before the keyframe, then step over the games in between
+        this.game = game / KEYFRAME_INTERVAL * KEYFRAME_INTERVAL - 1;
+        this.offset = this.keyframes[(int) (game / KEYFRAME_INTERVAL)];
+        this.plies = 0;
+
+        while (this.game < game) {
+            next();
+        }
+    }
+
+    /**
+     * one pass over the record headers, noting every KEYFRAME_INTERVAL-th offset
+     */
+    private void buildIndex() throws IOException {
+        if (this.keyframes != null) {
+            return;
+        }
+
+        long savedGame = this.game;
+        long savedOffset = this.offset;
+        int savedPlies = this.plies;
+
+        long[] keyframes = new long[16];
+        long count = 0;
+
+        rewind();
+        while (next()) {
+            if (count % KEYFRAME_INTERVAL == 0) {
+                int keyframe = (int) (count / KEYFRAME_INTERVAL);
+                if (keyframe == keyframes.length) {
+                    keyframes = Arrays.copyOf(keyframes, keyframe * 2);
+                }
+                keyframes[keyframe] = this.offset;
+            }
+            count++;
+        }
+
+        this.keyframes = keyframes;
+        this.gameCount = count;
+
+        // restore the current game
+        this.game = savedGame;
+        this.offset = savedOffset;
+        this.plies = 0;
+        if (savedPlies > 0) {
+            this.game--;
+            next();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,150 @@
+package tictactoe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary format of one finished game.
+ *
+ * A record is one header byte followed by the moves bit-packed in play order:
+ *
+ *   header   result << 6 | (plies - 1), result is X_WIN, O_WIN or DRAW below
+ *   moves    plies cell indexes of getBitsPerMove(cells) bits each, low bits first
+ *
+ * A full 3x3 game takes 1 + 5 bytes. A zero byte is never a header, it is one byte of padding.
+ * Board size, win length and players are stored once in the GameLog header.
+ */
+class GameRecord {
+    // results stored in the header byte, 0 marks padding
+    final static int PADDING = 0;
+    final static int X_WIN = 1;
+    final static int O_WIN = 2;
+    final static int DRAW = 3;
+
+    final static int MAX_PLIES = 64;
+
+    /**
+     * @param cellCount number of cells on the board
+     * @return bits needed for one cell index
+     */
+    static int getBitsPerMove(int cellCount) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(cellCount - 1));
+    }
+
+    /**
+     * @param plies number of moves of the game
+     * @param bitsPerMove bits of one cell index
+     * @return bytes of the record, header included
+     */
+    static int getLength(int plies, int bitsPerMove) {
+        return 1 + (plies * bitsPerMove + 7) / 8;
+    }
+
+    /**
+     * @param state X_WIN, O_WIN or DRAW of the Game constants
+     * @return the record result
+     */
+    static int fromState(int state) {
+        switch (state) {
+            case Game.X_WIN:
+                return X_WIN;
+            case Game.O_WIN:
+                return O_WIN;
+            case Game.DRAW:
+                return DRAW;
+            default:
+                throw new IllegalArgumentException("game is not over: " + state);
+        }
+    }
+
+    /**
+     * @param result X_WIN, O_WIN or DRAW of the record
+     * @return the game state of the Game constants
+     */
+    static int toState(int result) {
+        switch (result) {
+            case X_WIN:
+                return Game.X_WIN;
+            case O_WIN:
+                return Game.O_WIN;
+            default:
+                return Game.DRAW;
+        }
+    }
+
+    static int getResult(byte header) {
+        return (header & 0xFF) >>> 6;
+    }
+
+    static int getPlies(byte header) {
+        return (header & 0x3F) + 1;
+    }
+
+    /**
+     * write a record at an absolute offset, the header byte last; a reader only goes up to an end
+     * GameLog published once the records before it were complete
+     *
+     * @param buffer destination, its position is not changed
+     * @param offset index of the header byte
+     * @param moves cell indexes in play order
+     * @param plies number of moves
+     * @param result X_WIN, O_WIN or DRAW
+     * @param bitsPerMove bits of one cell index
+     */
+    static void write(ByteBuffer buffer, int offset, int[] moves, int plies, int result, int bitsPerMove) {
+        if (plies < 1 || plies > MAX_PLIES) {
+            throw new IllegalArgumentException("plies out of range: " + plies);
+        }
+
+        int index = offset + 1;
+        long bits = 0;
+        int bitCount = 0;
+
+        for (int i = 0; i < plies; i++) {
+            bits |= (long) moves[i] << bitCount;
+            bitCount += bitsPerMove;
+
+            while (bitCount >= 8) {
+                buffer.put(index++, (byte) bits);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        if (bitCount > 0) {
+            buffer.put(index, (byte) bits);
+        }
+
+        buffer.put(offset, (byte) (result << 6 | (plies - 1)));
+    }
+
+    /**
+     * read the moves of a record
+     *
+     * @param buffer source, its position is not changed
+     * @param offset index of the header byte
+     * @param bitsPerMove bits of one cell index
+     * @param moves receives the cell indexes in play order
+     * @return number of moves
+     */
+    static int readMoves(ByteBuffer buffer, int offset, int bitsPerMove, int[] moves) {
+        int plies = getPlies(buffer.get(offset));
+        int mask = (1 << bitsPerMove) - 1;
+
+        int index = offset + 1;
+        long bits = 0;
+        int bitCount = 0;
+
+        for (int i = 0; i < plies; i++) {
+            while (bitCount < bitsPerMove) {
+                bits |= (long) (buffer.get(index++) & 0xFF) << bitCount;
+                bitCount += 8;
+            }
+
+            moves[i] = (int) bits & mask;
+            bits >>>= bitsPerMove;
+            bitCount -= bitsPerMove;
+        }
+
+        return plies;
+    }
+}
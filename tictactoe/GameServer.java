@@ -0,0 +1,632 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless game server speaking a line protocol over TCP.
+ *
+ * One selector thread owns every connection and every game, so the game state needs no locks.
+ * Robot moves are searched on one shared, bounded pool of worker threads, each with its own
+ * engines, and the chosen cell is handed back to the selector thread. When the pool's queue is
+ * full the request waits in a backlog on the selector thread. The games themselves are packed
+ * records of a GameStore, a session costs two small buffers and its socket, so tens of thousands
+ * of them fit in one process. Usage:
+ *
+ *   java tictactoe.GameServer --host 127.0.0.1 --port 7777 --robot-threads 4 --time 100 --games 65536
+ *
+ * Commands, one per line, cells are indexes row * size + col:
+ *
+ *   ROBOT level side [size k]   play the robot (easy, medium, hard, mcts) as side X or O
+ *   SEEK [size k]               play the next client seeking the same board, the first one is X
+ *   MOVE cell                   play a move
+ *   BOARD                       show the board
+ *   RESIGN                      give up the game
+ *   QUIT                        close the connection
+ *
+ * Replies: "GAME id size k side", "WAITING", "MOVE cell" for the opponent's move,
+ * "BOARD cells" with X, O and _ row by row, "END X_WIN|O_WIN|DRAW [RESIGN]", "ERR message".
+ */
+public class GameServer {
+    final static int DEFAULT_PORT = 7777;
+
+    private final static int MAX_LINE = 256;
+    private final static int MAX_PENDING_REPLIES = 1024;   // a client reading slower is dropped
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ThreadPoolExecutor robots;
+    private final ThreadLocal<RobotEngine[]> engines;
+    private final GameStore store;
+
+    // robot moves finished by the workers, and requests waiting for room in the pool's queue
+    private final ConcurrentLinkedQueue<RobotMove> robotMoves;
+    private final ArrayDeque<Match> robotBacklog;
+
+    // sessions waiting for an opponent, by board
+    private final Map<Integer, Session> seeking;
+
+    private int sessionCount;
+    private volatile boolean running;
+
+    /**
+     * @param address address to listen on
+     * @param robotThreads threads searching robot moves, shared by all games
+     * @param robotQueue robot moves queued at most for the threads
+     * @param robotTimeMillis milliseconds per robot move
+     * @param maxGames games played at most at once
+     * @throws IOException if the port can't be opened
+     */
+    public GameServer(InetSocketAddress address, int robotThreads, int robotQueue, long robotTimeMillis, int maxGames) throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.bind(address, 1024);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        this.robots = new ThreadPoolExecutor(robotThreads, robotThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(robotQueue), runnable -> {
+            Thread thread = new Thread(runnable, "robot-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // one engine per level and worker, an engine is not thread-safe
+        this.engines = ThreadLocal.withInitial(() -> {
+            RobotEngine[] levels = new RobotEngine[Game.MCTS + 1];
+            for (int level = Game.EASY; level <= Game.MCTS; level++) {
+                levels[level] = new RobotEngine(level, 1);
+                levels[level].setTimeLimit(robotTimeMillis);
+            }
+            return levels;
+        });
+
+        this.store = new GameStore(maxGames);
+        this.robotMoves = new ConcurrentLinkedQueue<>();
+        this.robotBacklog = new ArrayDeque<>();
+        this.seeking = new HashMap<>();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = SimulationRunner.parseOptions(args);
+
+        InetSocketAddress address = new InetSocketAddress(options.getOrDefault("host", "127.0.0.1"),
+                Integer.parseInt(options.getOrDefault("port", String.valueOf(DEFAULT_PORT))));
+
+        GameServer server = new GameServer(address,
+                Integer.parseInt(options.getOrDefault("robot-threads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(options.getOrDefault("queue", "4096")),
+                Long.parseLong(options.getOrDefault("time", "100")),
+                Integer.parseInt(options.getOrDefault("games", "65536")));
+
+        if (Game.STATS_ENABLED) {
+            SearchStats.register();
+            GameStats.register();
+        }
+
+        SolvedTable.getInstance();
+        System.out.println("listening on " + server.getAddress());
+        server.run();
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) this.serverChannel.getLocalAddress();
+    }
+
+    public int getSessionCount() {
+        return this.sessionCount;
+    }
+
+    /**
+     * serve until stop is called
+     *
+     * @throws IOException if the selector fails
+     */
+    public void run() throws IOException {
+        this.running = true;
+
+        try {
+            while (this.running) {
+                // a backlog is retried even if no socket gets ready
+                this.selector.select(this.robotBacklog.isEmpty() ? 0 : 10);
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    // a session closed while handling an earlier key
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Session session = (Session) key.attachment();
+                            if (key.isReadable()) {
+                                read(session);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush(session);
+                            }
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null) {
+                            close((Session) key.attachment());
+                        }
+                    }
+                }
+
+                for (RobotMove move = this.robotMoves.poll(); move != null; move = this.robotMoves.poll()) {
+                    playRobotMove(move);
+                }
+
+                while (!this.robotBacklog.isEmpty() && submitRobotMove(this.robotBacklog.peek())) {
+                    this.robotBacklog.poll();
+                }
+            }
+        } finally {
+            for (SelectionKey key : this.selector.keys()) {
+                key.channel().close();
+            }
+            this.selector.close();
+            this.robots.shutdownNow();
+        }
+    }
+
+    /**
+     * stop serving, may be called from any thread
+     */
+    public void stop() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = this.serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Session session = new Session(channel);
+            session.key = channel.register(this.selector, SelectionKey.OP_READ, session);
+            this.sessionCount++;
+        }
+    }
+
+    /**
+     * read what arrived and handle every complete line
+     */
+    private void read(Session session) throws IOException {
+        ByteBuffer input = session.input;
+
+        if (session.channel.read(input) < 0) {
+            close(session);
+            return;
+        }
+
+        input.flip();
+        int start = 0;
+        for (int i = 0; i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                String line = new String(input.array(), start, i - start, StandardCharsets.US_ASCII).trim();
+                start = i + 1;
+
+                if (!line.isEmpty()) {
+                    handle(session, line);
+                }
+                if (!session.channel.isOpen()) {
+                    return;
+                }
+            }
+        }
+
+        input.position(start);
+        input.compact();
+
+        if (!input.hasRemaining()) {
+            send(session, "ERR line longer than " + MAX_LINE + " bytes");
+            close(session);
+        }
+    }
+
+    private void handle(Session session, String line) {
+        String[] words = line.split("\\s+");
+
+        try {
+            switch (words[0].toUpperCase(Locale.ROOT)) {
+                case "ROBOT":
+                    startRobotGame(session, words);
+                    break;
+                case "SEEK":
+                    seek(session, words);
+                    break;
+                case "MOVE":
+                    move(session, words);
+                    break;
+                case "BOARD":
+                    send(session, session.match == null ? "ERR no game" : "BOARD " + this.store.load(session.match.id));
+                    break;
+                case "RESIGN":
+                    resign(session);
+                    break;
+                case "QUIT":
+                    close(session);
+                    break;
+                default:
+                    send(session, "ERR unknown command " + words[0]);
+                    break;
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            send(session, "ERR " + e.getMessage());
+        }
+    }
+
+    /**
+     * ROBOT level side [size k]
+     */
+    private void startRobotGame(Session session, String[] words) {
+        if (words.length != 3 && words.length != 5) {
+            throw new IllegalArgumentException("usage: ROBOT level side [size k]");
+        }
+
+        int level = SimulationRunner.parsePlayer(words[1].toLowerCase(Locale.ROOT));
+        if (level == SimulationRunner.RANDOM) {
+            throw new IllegalArgumentException("robot level is easy, medium, hard or mcts");
+        }
+
+        int side = parseSide(words[2]);
+        LineTable lines = parseBoard(words, 3);
+
+        leaveGame(session);
+        long id = this.store.create(lines.getSize(), lines.getWinLength(),
+                side == Game.CELL_X ? GameStore.CLIENT : level, side == Game.CELL_O ? GameStore.CLIENT : level);
+        Match match = new Match(id);
+        match.robotLevel = level;
+        match.players[side] = session;
+        session.match = match;
+        session.side = side;
+
+        send(session, String.format("GAME %d %d %d %s", match.id, lines.getSize(), lines.getWinLength(), sideName(side)));
+        recordStart();
+
+        if (side == Game.CELL_O) {
+            requestRobotMove(match);
+        }
+    }
+
+    /**
+     * SEEK [size k]
+     */
+    private void seek(Session session, String[] words) {
+        if (words.length != 1 && words.length != 3) {
+            throw new IllegalArgumentException("usage: SEEK [size k]");
+        }
+
+        LineTable lines = parseBoard(words, 1);
+        int board = lines.getSize() * 100 + lines.getWinLength();
+
+        leaveGame(session);
+        Session opponent = this.seeking.remove(board);
+        if (opponent == null || opponent == session) {
+            this.seeking.put(board, session);
+            session.seeking = board;
+            send(session, "WAITING");
+            return;
+        }
+
+        long id;
+        try {
+            id = this.store.create(lines.getSize(), lines.getWinLength(), GameStore.CLIENT, GameStore.CLIENT);
+        } catch (IllegalStateException e) {
+            this.seeking.put(board, opponent);     // the opponent keeps waiting
+            throw e;
+        }
+
+        opponent.seeking = 0;
+        Match match = new Match(id);
+        match.players[Game.CELL_X] = opponent;
+        match.players[Game.CELL_O] = session;
+        opponent.match = match;
+        opponent.side = Game.CELL_X;
+        session.match = match;
+        session.side = Game.CELL_O;
+
+        for (int side = Game.CELL_X; side <= Game.CELL_O; side++) {
+            send(match.players[side], String.format("GAME %d %d %d %s", match.id, lines.getSize(), lines.getWinLength(), sideName(side)));
+        }
+        recordStart();
+    }
+
+    /**
+     * MOVE cell
+     */
+    private void move(Session session, String[] words) {
+        Match match = session.match;
+        if (match == null) {
+            throw new IllegalArgumentException("no game");
+        }
+        if (words.length != 2) {
+            throw new IllegalArgumentException("usage: MOVE cell");
+        }
+        if (match.robotThinking || this.store.getSideToMove(match.id) != session.side) {
+            throw new IllegalArgumentException("not your turn");
+        }
+
+        int index = Integer.parseInt(words[1]);
+        int state = this.store.makeMove(match.id, index);
+
+        Session opponent = match.players[3 - session.side];
+        if (opponent != null) {
+            send(opponent, "MOVE " + index);
+        }
+
+        if (!checkEnd(match, state) && match.robotLevel >= 0) {
+            requestRobotMove(match);
+        }
+    }
+
+    private void resign(Session session) {
+        Match match = session.match;
+        if (match == null) {
+            throw new IllegalArgumentException("no game");
+        }
+
+        endGame(match, session.side == Game.CELL_X ? Game.O_WIN : Game.X_WIN, " RESIGN");
+    }
+
+    /**
+     * hand the position to the robot pool, or to the backlog if its queue is full
+     */
+    private void requestRobotMove(Match match) {
+        match.robotThinking = true;
+
+        if (!this.robotBacklog.isEmpty() || !submitRobotMove(match)) {
+            this.robotBacklog.add(match);
+        }
+    }
+
+    private boolean submitRobotMove(Match match) {
+        if (match.ended) {
+            return true;    // the game ended meanwhile, nothing to submit
+        }
+
+        Position position = this.store.load(match.id);
+        int level = match.robotLevel;
+
+        try {
+            this.robots.execute(() -> {
+                int index = this.engines.get()[level].chooseMove(position);
+                this.robotMoves.add(new RobotMove(match, index));
+                this.selector.wakeup();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * back on the selector thread: play the robot move if its game is still on
+     */
+    private void playRobotMove(RobotMove move) {
+        Match match = move.match;
+        if (!match.robotThinking || match.ended) {
+            return;
+        }
+
+        match.robotThinking = false;
+        int state = this.store.makeMove(match.id, move.index);
+
+        for (Session player : match.players) {
+            if (player != null) {
+                send(player, "MOVE " + move.index);
+            }
+        }
+
+        checkEnd(match, state);
+    }
+
+    /**
+     * @param state state after the last move, a dead draw counts as DRAW
+     * @return true if the game is over, the players are told so
+     */
+    private boolean checkEnd(Match match, int state) {
+        if (state == Game.IN_PROGRESS) {
+            return false;
+        }
+
+        endGame(match, state, "");
+        return true;
+    }
+
+    private void endGame(Match match, int state, String reason) {
+        match.ended = true;
+        match.robotThinking = false;
+        this.store.remove(match.id);
+
+        String result = state == Game.X_WIN ? "X_WIN" : state == Game.O_WIN ? "O_WIN" : "DRAW";
+        for (Session player : match.players) {
+            if (player != null) {
+                send(player, "END " + result + reason);
+                player.match = null;
+            }
+        }
+
+        if (Game.STATS_ENABLED) {
+            GameStats.INSTANCE.recordEnd(state);
+        }
+    }
+
+    private static void recordStart() {
+        if (Game.STATS_ENABLED) {
+            GameStats.INSTANCE.recordStart();
+        }
+    }
+
+    /**
+     * a new command abandons the current game or seek of the session
+     */
+    private void leaveGame(Session session) {
+        if (session.seeking != 0) {
+            this.seeking.remove(session.seeking, session);
+            session.seeking = 0;
+        }
+
+        if (session.match != null) {
+            resign(session);
+        }
+    }
+
+    /**
+     * queue a reply, written at once if the socket takes it
+     */
+    private void send(Session session, String line) {
+        if (!session.channel.isOpen()) {
+            return;
+        }
+
+        session.output.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII)));
+
+        try {
+            flush(session);
+        } catch (IOException e) {
+            close(session);
+            return;
+        }
+
+        if (session.output.size() > MAX_PENDING_REPLIES) {
+            close(session);
+        }
+    }
+
+    private void flush(Session session) throws IOException {
+        while (!session.output.isEmpty()) {
+            ByteBuffer buffer = session.output.peek();
+            session.channel.write(buffer);
+
+            if (buffer.hasRemaining()) {
+                session.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            session.output.poll();
+        }
+
+        session.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void close(Session session) {
+        if (!session.channel.isOpen()) {
+            return;
+        }
+
+        // closed first, so the game end below sends nothing to this session
+        session.key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException ignored) {
+        }
+        this.sessionCount--;
+
+        // the opponent wins a game left by closing the connection
+        try {
+            leaveGame(session);
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * parse the optional "size k" at the given word, the default board otherwise
+     */
+    private static LineTable parseBoard(String[] words, int at) {
+        if (words.length <= at) {
+            return LineTable.get(Game.SIZE, Game.WIN_LENGTH);
+        }
+
+        return LineTable.get(Integer.parseInt(words[at]), Integer.parseInt(words[at + 1]));
+    }
+
+    private static int parseSide(String word) {
+        switch (word.toUpperCase(Locale.ROOT)) {
+            case "X":
+                return Game.CELL_X;
+            case "O":
+                return Game.CELL_O;
+            default:
+                throw new IllegalArgumentException("side is X or O");
+        }
+    }
+
+    private static String sideName(int side) {
+        return side == Game.CELL_X ? Game.STR_CELL_X : Game.STR_CELL_O;
+    }
+
+    /**
+     * one client connection
+     */
+    static class Session {
+        final SocketChannel channel;
+        final ByteBuffer input;
+        final ArrayDeque<ByteBuffer> output;
+        SelectionKey key;
+
+        Match match;          // null between games
+        int side;
+        int seeking;        // board key while waiting for an opponent, 0 otherwise
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+            this.input = ByteBuffer.allocate(MAX_LINE);
+            this.output = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * one game, owned by the selector thread
+     */
+    static class Match {
+        final long id;              // session id in the game store
+        final Session[] players;    // indexed by cell type, null for the robot
+        int robotLevel;             // -1 if both players are clients
+        boolean robotThinking;
+        boolean ended;
+
+        Match(long id) {
+            this.id = id;
+            this.players = new Session[3];
+            this.robotLevel = -1;
+        }
+    }
+
+    /**
+     * a robot move on its way back from a worker
+     */
+    static class RobotMove {
+        final Match match;
+        final int index;
+
+        RobotMove(Match match, int index) {
+            this.match = match;
+            this.index = index;
+        }
+    }
+}
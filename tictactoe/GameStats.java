@@ -0,0 +1,81 @@
+package tictactoe;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the game lifecycle: games started, and finished games by result.
+ *
+ * Like SearchStats, callers only record when Game.STATS_ENABLED is set.
+ */
+class GameStats implements GameStatsMBean {
+    final static GameStats INSTANCE = new GameStats();
+
+    private final LongAdder gamesStarted = new LongAdder();
+    private final LongAdder xWins = new LongAdder();
+    private final LongAdder oWins = new LongAdder();
+    private final LongAdder draws = new LongAdder();
+
+    private GameStats() {
+    }
+
+    /**
+     * register the MBean with the platform server, once
+     */
+    static void register() {
+        SearchStats.registerMBean(INSTANCE, "tictactoe:type=Games");
+    }
+
+    void recordStart() {
+        this.gamesStarted.increment();
+    }
+
+    /**
+     * @param state X_WIN, O_WIN or DRAW
+     */
+    void recordEnd(int state) {
+        switch (state) {
+            case Game.X_WIN:
+                this.xWins.increment();
+                break;
+            case Game.O_WIN:
+                this.oWins.increment();
+                break;
+            default:
+                this.draws.increment();
+                break;
+        }
+    }
+
+    @Override
+    public long getGamesStarted() {
+        return this.gamesStarted.sum();
+    }
+
+    @Override
+    public long getGamesFinished() {
+        return getXWins() + getOWins() + getDraws();
+    }
+
+    @Override
+    public long getXWins() {
+        return this.xWins.sum();
+    }
+
+    @Override
+    public long getOWins() {
+        return this.oWins.sum();
+    }
+
+    @Override
+    public long getDraws() {
+        return this.draws.sum();
+    }
+
+    @Override
+    public void reset() {
+        this.gamesStarted.reset();
+        this.xWins.reset();
+        this.oWins.reset();
+        this.draws.reset();
+    }
+}
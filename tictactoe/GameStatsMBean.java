@@ -0,0 +1,18 @@
+package tictactoe;
+
+/**
+ * JMX view of the game lifecycle, registered as tictactoe:type=Games.
+ */
+public interface GameStatsMBean {
+    long getGamesStarted();
+
+    long getGamesFinished();
+
+    long getXWins();
+
+    long getOWins();
+
+    long getDraws();
+
+    void reset();
+}
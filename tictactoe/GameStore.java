@@ -0,0 +1,370 @@
+package tictactoe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compact store of live games, one packed record per game held in primitive columns.
+ *
+ * A game is two stone masks and one info word, laid out as
+ *
+ *   maskX, maskO   the stones of each side, bit (row * size + col) as in Position
+ *   info           bits 0-7 board, 8-10 state, 11-14 player X + 1, 15-18 player O + 1
+ *
+ * plus a generation and a free list link per slot, 28 bytes a game: a million games take 28 MB
+ * and no object per game. The side to move follows from the stone counts, as in Position. Board
+ * geometries live once in a small table indexed by the board byte.
+ *
+ * A session id is (generation << 32 | slot), looked up in O(1); the generation changes when a
+ * slot is freed, so a stale id is refused instead of reaching the next game in its slot. Slots
+ * are split over STRIPES stripes by their low bits. Every stripe has its own lock and its own
+ * free list, so threads working on different games rarely meet.
+ */
+class GameStore {
+    // a connected client or a human, next to RANDOM and the robot levels
+    final static int CLIENT = 4;
+
+    final static int STRIPES = 64;
+
+    private final static int BOARD_BITS = 0xFF;
+    private final static int STATE_SHIFT = 8;
+    private final static int STATE_BITS = 0x7;
+    private final static int PLAYER_X_SHIFT = 11;
+    private final static int PLAYER_O_SHIFT = 15;
+    private final static int PLAYER_BITS = 0xF;
+
+    private final static int MAX_BOARDS = 256;
+
+    private final int capacity;
+
+    // columns indexed by slot
+    private final long[] masksX;
+    private final long[] masksO;
+    private final int[] infos;
+    private final int[] generations;
+    private final int[] nextFree;     // next free slot of the same stripe, -1 at the end
+
+    // per stripe
+    private final Object[] locks;
+    private final int[] freeHeads;
+    private final int[] counts;
+
+    private final LineTable[] boards;
+    private int boardCount;
+
+    private final AtomicInteger nextStripe;
+
+    /**
+     * @param capacity most games held at once, all columns are allocated up front
+     */
+    public GameStore(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.masksX = new long[capacity];
+        this.masksO = new long[capacity];
+        this.infos = new int[capacity];
+        this.generations = new int[capacity];
+        this.nextFree = new int[capacity];
+
+        this.locks = new Object[STRIPES];
+        this.freeHeads = new int[STRIPES];
+        this.counts = new int[STRIPES];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            this.locks[stripe] = new Object();
+            this.freeHeads[stripe] = stripe < capacity ? stripe : -1;
+        }
+
+        // chain the slots of every stripe in ascending order
+        for (int slot = 0; slot < capacity; slot++) {
+            this.nextFree[slot] = slot + STRIPES < capacity ? slot + STRIPES : -1;
+        }
+
+        this.boards = new LineTable[MAX_BOARDS];
+        this.nextStripe = new AtomicInteger();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return bytes held by the columns
+     */
+    public long getFootprint() {
+        return (long) this.capacity * (8 + 8 + 4 + 4 + 4);
+    }
+
+    /**
+     * @return number of live games, a sum over the stripes taken without locking them
+     */
+    public int getGameCount() {
+        int count = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            count += this.counts[stripe];
+        }
+        return count;
+    }
+
+    /**
+     * start a game on an empty board
+     *
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     * @param playerX RANDOM, a robot level or CLIENT
+     * @param playerO RANDOM, a robot level or CLIENT
+     * @return the session id of the game
+     * @throws IllegalStateException if the store is full
+     */
+    public long create(int size, int winLength, int playerX, int playerO) {
+        int info = getBoard(size, winLength)
+                | Game.IN_PROGRESS << STATE_SHIFT
+                | (playerX + 1) << PLAYER_X_SHIFT
+                | (playerO + 1) << PLAYER_O_SHIFT;
+
+        // start at the next stripe in turn, then look for room in the others
+        int first = this.nextStripe.getAndIncrement();
+        for (int i = 0; i < STRIPES; i++) {
+            int stripe = (first + i) & (STRIPES - 1);
+
+            synchronized (this.locks[stripe]) {
+                int slot = this.freeHeads[stripe];
+                if (slot < 0) {
+                    continue;
+                }
+
+                this.freeHeads[stripe] = this.nextFree[slot];
+                this.counts[stripe]++;
+
+                this.masksX[slot] = 0;
+                this.masksO[slot] = 0;
+                this.infos[slot] = info;
+
+                return (long) this.generations[slot] << 32 | slot;
+            }
+        }
+
+        throw new IllegalStateException("game store is full, " + this.capacity + " games");
+    }
+
+    /**
+     * @return index of the board in the board table, registered on first use
+     */
+    private int getBoard(int size, int winLength) {
+        synchronized (this.boards) {
+            for (int board = 0; board < this.boardCount; board++) {
+                if (this.boards[board].getSize() == size && this.boards[board].getWinLength() == winLength) {
+                    return board;
+                }
+            }
+
+            if (this.boardCount == MAX_BOARDS) {
+                throw new IllegalStateException("too many board geometries");
+            }
+
+            this.boards[this.boardCount] = LineTable.get(size, winLength);
+            return this.boardCount++;
+        }
+    }
+
+    /**
+     * the slot of a live game, the caller holds the slot's stripe lock
+     */
+    private int slotOf(long id) {
+        int slot = (int) id;
+
+        if (slot < 0 || slot >= this.capacity || this.generations[slot] != (int) (id >>> 32) || this.infos[slot] == 0) {
+            throw new IllegalArgumentException("no game " + id);
+        }
+
+        return slot;
+    }
+
+    private Object lockOf(long id) {
+        return this.locks[(int) id & (STRIPES - 1)];
+    }
+
+    /**
+     * put a stone of the side to move on the given cell
+     *
+     * A game also ends as a draw once no line can be completed any more,
+     * the store holds live games only and such a game has nothing left to play.
+     *
+     * @param id session id
+     * @param index cell index
+     * @return the state after the move, IN_PROGRESS, X_WIN, O_WIN or DRAW
+     * @throws IllegalArgumentException if there is no such game, it is over or the cell is taken
+     */
+    public int makeMove(long id, int index) {
+        synchronized (lockOf(id)) {
+            int slot = slotOf(id);
+            int info = this.infos[slot];
+            LineTable lines = this.boards[info & BOARD_BITS];
+
+            if (getState(info) != Game.IN_PROGRESS) {
+                throw new IllegalArgumentException("game is over");
+            }
+
+            long bit = 1L << index;
+            long maskX = this.masksX[slot];
+            long maskO = this.masksO[slot];
+            if (index < 0 || index >= lines.getCellCount() || ((maskX | maskO) & bit) != 0) {
+                throw new IllegalArgumentException("illegal move " + index);
+            }
+
+            boolean xToMove = Long.bitCount(maskX) == Long.bitCount(maskO);
+            long own;
+            if (xToMove) {
+                own = maskX |= bit;
+                this.masksX[slot] = maskX;
+            } else {
+                own = maskO |= bit;
+                this.masksO[slot] = maskO;
+            }
+
+            int state = Game.IN_PROGRESS;
+            for (int i = lines.getCellLineStart(index); i < lines.getCellLineEnd(index); i++) {
+                long line = lines.getLine(lines.getCellLine(i));
+                if ((own & line) == line) {
+                    state = xToMove ? Game.X_WIN : Game.O_WIN;
+                    break;
+                }
+            }
+
+            if (state == Game.IN_PROGRESS && isBlocked(lines, maskX, maskO)) {
+                state = Game.DRAW;
+            }
+
+            this.infos[slot] = info & ~(STATE_BITS << STATE_SHIFT) | state << STATE_SHIFT;
+            return state;
+        }
+    }
+
+    /**
+     * @return true if every line holds stones of both sides, a full board included
+     */
+    private static boolean isBlocked(LineTable lines, long maskX, long maskO) {
+        for (int line = 0; line < lines.getLineCount(); line++) {
+            long bits = lines.getLine(line);
+            if ((maskX & bits) == 0 || (maskO & bits) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * end a game and free its slot, its id is refused from now on
+     *
+     * @param id session id
+     * @return false if there was no such game
+     */
+    public boolean remove(long id) {
+        int stripe = (int) id & (STRIPES - 1);
+
+        synchronized (this.locks[stripe]) {
+            int slot;
+            try {
+                slot = slotOf(id);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+
+            this.infos[slot] = 0;
+            this.generations[slot]++;
+            this.nextFree[slot] = this.freeHeads[stripe];
+            this.freeHeads[stripe] = slot;
+            this.counts[stripe]--;
+            return true;
+        }
+    }
+
+    /**
+     * @param id session id
+     * @return IN_PROGRESS, X_WIN, O_WIN or DRAW
+     */
+    public int getState(long id) {
+        synchronized (lockOf(id)) {
+            return getState(this.infos[slotOf(id)]);
+        }
+    }
+
+    private static int getState(int info) {
+        return info >>> STATE_SHIFT & STATE_BITS;
+    }
+
+    /**
+     * @param id session id
+     * @return the cell type of the side to move
+     */
+    public int getSideToMove(long id) {
+        synchronized (lockOf(id)) {
+            int slot = slotOf(id);
+            return Long.bitCount(this.masksX[slot]) > Long.bitCount(this.masksO[slot]) ? Game.CELL_O : Game.CELL_X;
+        }
+    }
+
+    /**
+     * @param id session id
+     * @param cellType CELL_X or CELL_O
+     * @return RANDOM, a robot level or CLIENT
+     */
+    public int getPlayer(long id, int cellType) {
+        synchronized (lockOf(id)) {
+            int info = this.infos[slotOf(id)];
+            return (info >>> (cellType == Game.CELL_X ? PLAYER_X_SHIFT : PLAYER_O_SHIFT) & PLAYER_BITS) - 1;
+        }
+    }
+
+    /**
+     * @param id session id
+     * @return the board geometry of the game
+     */
+    public LineTable getLines(long id) {
+        synchronized (lockOf(id)) {
+            return this.boards[this.infos[slotOf(id)] & BOARD_BITS];
+        }
+    }
+
+    /**
+     * @param id session id
+     * @param cellType CELL_X or CELL_O
+     * @return the stones of the cell type
+     */
+    public long getMask(long id, int cellType) {
+        synchronized (lockOf(id)) {
+            int slot = slotOf(id);
+            return cellType == Game.CELL_X ? this.masksX[slot] : this.masksO[slot];
+        }
+    }
+
+    /**
+     * set up a Position of the game, for a search or for display
+     *
+     * @param id session id
+     * @return a new position on the game's board
+     */
+    public Position load(long id) {
+        long maskX;
+        long maskO;
+        LineTable lines;
+
+        synchronized (lockOf(id)) {
+            int slot = slotOf(id);
+            maskX = this.masksX[slot];
+            maskO = this.masksO[slot];
+            lines = this.boards[this.infos[slot] & BOARD_BITS];
+        }
+
+        Position position = new Position(lines);
+        for (long bits = maskX; bits != 0; bits &= bits - 1) {
+            position.makeMove(Long.numberOfTrailingZeros(bits), Game.CELL_X);
+        }
+        for (long bits = maskO; bits != 0; bits &= bits - 1) {
+            position.makeMove(Long.numberOfTrailingZeros(bits), Game.CELL_O);
+        }
+
+        return position;
+    }
+}
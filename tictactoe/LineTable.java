@@ -0,0 +1,256 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Precomputed geometry of an N x N board with k-in-a-row.
+ *
+ * Holds every winning line as a bitmask, the lines through each cell, the eight board symmetries
+ * and the zobrist keys. Tables are immutable and shared by all games on the same (N, k), get one
+ * through LineTable.get.
+ */
+class LineTable {
+    // cells are bits of a long
+    final static int MAX_CELLS = 64;
+
+    final static int SYMMETRY_COUNT = 8;
+
+    private final static Map<Integer, LineTable> TABLES = new HashMap<>();
+
+    private final int size;
+    private final int winLength;
+    private final int cellCount;
+
+    private final long[] lines;             // one mask per winning line
+    private final int[] cellLineStart;      // lines through cell i are cellLines[cellLineStart[i] .. cellLineStart[i + 1])
+    private final int[] cellLines;
+    private final int[] moveOrder;          // cells sorted by the number of lines through them
+
+    private final int[][] symmetries;       // cell permutation of each board symmetry
+    private final int[][] inverseSymmetries;
+    private final long[] zobrist;           // keys laid out as [symmetry][cell type - 1][cell]
+
+    private LineTable(int size, int winLength) {
+        this.size = size;
+        this.winLength = winLength;
+        this.cellCount = size * size;
+
+        this.lines = buildLines(size, winLength);
+
+        // index the lines by cell
+        this.cellLineStart = new int[this.cellCount + 1];
+        for (long line : this.lines) {
+            for (long bits = line; bits != 0; bits &= bits - 1) {
+                this.cellLineStart[Long.numberOfTrailingZeros(bits) + 1]++;
+            }
+        }
+        for (int i = 0; i < this.cellCount; i++) {
+            this.cellLineStart[i + 1] += this.cellLineStart[i];
+        }
+
+        this.cellLines = new int[this.cellLineStart[this.cellCount]];
+        int[] fill = Arrays.copyOf(this.cellLineStart, this.cellCount);
+        for (int l = 0; l < this.lines.length; l++) {
+            for (long bits = this.lines[l]; bits != 0; bits &= bits - 1) {
+                this.cellLines[fill[Long.numberOfTrailingZeros(bits)]++] = l;
+            }
+        }
+
+        this.moveOrder = orderByLineCount();
+
+        this.symmetries = buildSymmetries(size);
+        this.inverseSymmetries = new int[SYMMETRY_COUNT][this.cellCount];
+        for (int s = 0; s < SYMMETRY_COUNT; s++) {
+            for (int i = 0; i < this.cellCount; i++) {
+                this.inverseSymmetries[s][this.symmetries[s][i]] = i;
+            }
+        }
+
+        this.zobrist = buildZobrist(this.symmetries, 31L * size + winLength);
+    }
+
+    /**
+     * get the shared table of a board geometry
+     *
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     * @return the table for (size, winLength)
+     */
+    public static synchronized LineTable get(int size, int winLength) {
+        if (size < 1 || size * size > MAX_CELLS || winLength < 1 || winLength > size) {
+            throw new IllegalArgumentException(String.format("unsupported board %dx%d, k=%d", size, size, winLength));
+        }
+
+        return TABLES.computeIfAbsent(size * 100 + winLength, key -> new LineTable(size, winLength));
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getWinLength() {
+        return this.winLength;
+    }
+
+    public int getCellCount() {
+        return this.cellCount;
+    }
+
+    public long getFullMask() {
+        return this.cellCount == 64 ? -1L : (1L << this.cellCount) - 1;
+    }
+
+    public int getLineCount() {
+        return this.lines.length;
+    }
+
+    public long getLine(int line) {
+        return this.lines[line];
+    }
+
+    public int getCellLineStart(int cell) {
+        return this.cellLineStart[cell];
+    }
+
+    public int getCellLineEnd(int cell) {
+        return this.cellLineStart[cell + 1];
+    }
+
+    public int getCellLine(int i) {
+        return this.cellLines[i];
+    }
+
+    public int[] getMoveOrder() {
+        return this.moveOrder;
+    }
+
+    public int getSymmetry(int symmetry, int cell) {
+        return this.symmetries[symmetry][cell];
+    }
+
+    public int getInverseSymmetry(int symmetry, int cell) {
+        return this.inverseSymmetries[symmetry][cell];
+    }
+
+    /**
+     * @param symmetry index of the symmetry
+     * @param cellType CELL_X or CELL_O
+     * @param cell cell index
+     * @return zobrist key of the stone seen through the symmetry
+     */
+    public long getZobrist(int symmetry, int cellType, int cell) {
+        return this.zobrist[(symmetry * 2 + cellType - 1) * this.cellCount + cell];
+    }
+
+    /**
+     * all horizontal, vertical and diagonal runs of winLength cells
+     */
+    private static long[] buildLines(int size, int winLength) {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        long[] lines = new long[4 * size * size];
+        int count = 0;
+
+        for (int[] dir : directions) {
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    int endRow = row + dir[0] * (winLength - 1);
+                    int endCol = col + dir[1] * (winLength - 1);
+                    if (endRow < 0 || endRow >= size || endCol < 0 || endCol >= size) {
+                        continue;
+                    }
+
+                    long line = 0;
+                    for (int i = 0; i < winLength; i++) {
+                        line |= 1L << ((row + dir[0] * i) * size + col + dir[1] * i);
+                    }
+                    lines[count++] = line;
+                }
+            }
+        }
+
+        return Arrays.copyOf(lines, count);
+    }
+
+    /**
+     * sort the cells by the number of winning lines through them, ties keep the index order
+     */
+    private int[] orderByLineCount() {
+        Integer[] cells = new Integer[this.cellCount];
+        for (int i = 0; i < this.cellCount; i++) {
+            cells[i] = i;
+        }
+
+        Arrays.sort(cells, (a, b) -> (this.cellLineStart[b + 1] - this.cellLineStart[b])
+                - (this.cellLineStart[a + 1] - this.cellLineStart[a]));
+
+        int[] order = new int[this.cellCount];
+        for (int i = 0; i < this.cellCount; i++) {
+            order[i] = cells[i];
+        }
+
+        return order;
+    }
+
+    /**
+     * build the cell permutations of the eight symmetries of a square board
+     *
+     * @param size number of cells in a row
+     * @return permutation per symmetry, mapping a cell index to its image
+     */
+    private static int[][] buildSymmetries(int size) {
+        int[][] perms = new int[SYMMETRY_COUNT][size * size];
+        int n = size - 1;
+
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int[] images = {
+                        row * size + col,               // identity
+                        col * size + (n - row),         // rotate 90
+                        (n - row) * size + (n - col),   // rotate 180
+                        (n - col) * size + row,         // rotate 270
+                        row * size + (n - col),         // mirror left-right
+                        (n - row) * size + col,         // mirror top-bottom
+                        col * size + row,               // main diagonal
+                        (n - col) * size + (n - row)    // anti-diagonal
+                };
+
+                for (int s = 0; s < SYMMETRY_COUNT; s++) {
+                    perms[s][row * size + col] = images[s];
+                }
+            }
+        }
+
+        return perms;
+    }
+
+    /**
+     * derive the per symmetry zobrist keys from one random key per cell type and cell
+     *
+     * @param perms cell permutations of the symmetries
+     * @param salt keeps the keys of different geometries apart
+     * @return keys laid out as [symmetry][cell type - 1][cell]
+     */
+    private static long[] buildZobrist(int[][] perms, long salt) {
+        int cells = perms[0].length;
+        long[] base = new long[2 * cells];
+        long[] keys = new long[perms.length * base.length];
+
+        Random random = new Random(0x7A0B215L ^ salt);  // fixed seed, hashes are reproducible between runs
+        for (int i = 0; i < base.length; i++) {
+            base[i] = random.nextLong();
+        }
+
+        for (int s = 0; s < perms.length; s++) {
+            for (int type = 0; type < 2; type++) {
+                for (int i = 0; i < cells; i++) {
+                    keys[(s * 2 + type) * cells + i] = base[type * cells + perms[s][i]];
+                }
+            }
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,532 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Monte Carlo tree search (UCT) for the large k-in-a-row boards.
+ *
+ * Each iteration walks down the tree by the UCB1 rule, expands the leaf with all its moves at
+ * once, plays the game out and backs the result up the path. Playouts are random but lightly
+ * guided: a side completes its own line if the stones around the last moves allow it, and
+ * otherwise blocks a line the opponent could complete. A dead draw ends a playout early.
+ *
+ * The tree lives in preallocated parallel arrays, a node is an index and its children are a
+ * contiguous block, so an iteration allocates nothing. Between consecutive moves of a game the
+ * subtree under the moves played meanwhile becomes the new root and keeps its statistics; the
+ * tree starts afresh once it is more than three quarters full or the position is not a
+ * continuation. When full, it stops growing and the iterations only add playouts.
+ *
+ * Several threads search by root parallelization: every thread grows its own tree from its own
+ * random stream, and the move played is the one with the most visits summed over the trees. The
+ * trees share nothing while they grow, so the threads never wait for each other. With one thread
+ * the search runs on the calling thread only and is reproducible for a given seed, or for the
+ * random source a caller hands to chooseMove.
+ */
+class MctsSearch {
+    // helper threads are shared by all searches and die with the application
+    private final static ExecutorService HELPERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "mcts-helper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // nodes of all trees of one search, split evenly between the threads
+    final static int DEFAULT_CAPACITY = 1 << 20;
+
+    // playouts per thread and move when neither a time nor a playout limit is set
+    final static long DEFAULT_PLAYOUTS = 10_000;
+
+    // exploration constant of UCB1, rewards are in [0, 1]
+    private final static double EXPLORATION = 0.7;
+
+    private final Tree[] trees;     // trees[0] grows on the calling thread
+    private final SplittableRandom random;  // source of the playout streams of chooseMove(Position)
+    private final Future<?>[] futures;
+    private final long[] rootVisits;    // visits of each root move summed over the trees
+
+    private long timeLimitMillis;
+    private long playoutLimit;
+    private volatile boolean cancelled;
+
+    // budget of the running search, read by all threads
+    private volatile long deadline;
+    private volatile boolean stop;
+
+    private long playoutCount;
+
+    public MctsSearch(int threads) {
+        this(threads, DEFAULT_CAPACITY, System.nanoTime());
+    }
+
+    /**
+     * @param threads threads searching one move, one tree each
+     * @param capacity nodes of all trees together
+     * @param seed seed of the random playouts, every move splits a stream per thread from it
+     */
+    public MctsSearch(int threads, int capacity, long seed) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+
+        this.random = new SplittableRandom(seed);
+
+        this.trees = new Tree[threads];
+        for (int i = 0; i < threads; i++) {
+            this.trees[i] = new Tree(Math.max(LineTable.MAX_CELLS + 1, capacity / threads));
+        }
+        this.futures = new Future<?>[threads - 1];
+        this.rootVisits = new long[LineTable.MAX_CELLS];
+    }
+
+    public int getThreads() {
+        return this.trees.length;
+    }
+
+    /**
+     * @param timeLimitMillis milliseconds per move, 0 for no limit
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    /**
+     * @param playoutLimit playouts per move and thread, 0 for no limit
+     */
+    public void setPlayoutLimit(long playoutLimit) {
+        this.playoutLimit = playoutLimit;
+    }
+
+    /**
+     * stop the running chooseMove soon, until resume is called; may be called from any thread
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * search again after cancel, on the thread calling chooseMove
+     */
+    public void resume() {
+        this.cancelled = false;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * @return playouts of the last chooseMove, summed over the threads
+     */
+    public long getPlayoutCount() {
+        return this.playoutCount;
+    }
+
+    /**
+     * @return nodes in the trees after the last chooseMove
+     */
+    public int getNodeCount() {
+        int nodes = 0;
+        for (Tree tree : this.trees) {
+            nodes += tree.used;
+        }
+        return nodes;
+    }
+
+    /**
+     * forget the trees, for a new game
+     */
+    public void clear() {
+        for (Tree tree : this.trees) {
+            tree.reset();
+        }
+    }
+
+    /**
+     * search the position within the budget, checked every 64 playouts; without a time or playout limit
+     * every thread runs DEFAULT_PLAYOUTS
+     *
+     * @param position game position, not changed
+     * @return the most visited move over all trees, or -1 if there is no move
+     */
+    public int chooseMove(Position position) {
+        return chooseMove(position, this.random);
+    }
+
+    /**
+     * search the position within the budget, checked every 64 playouts; without a time or playout limit
+     * every thread runs DEFAULT_PLAYOUTS
+     *
+     * @param position game position, not changed
+     * @param random source of the playouts, every thread plays from a stream split from it;
+     *               the caller's one makes games reproducible
+     * @return the most visited move over all trees, or -1 if there is no move
+     */
+    public int chooseMove(Position position, SplittableRandom random) {
+        if (position.getState() != Game.IN_PROGRESS || position.isDeadDraw()) {
+            return position.getState() == Game.IN_PROGRESS ? Long.numberOfTrailingZeros(position.getEmptyMask()) : -1;
+        }
+
+        this.deadline = this.timeLimitMillis > 0 ? System.nanoTime() + this.timeLimitMillis * 1_000_000 : Long.MAX_VALUE;
+        this.stop = false;
+
+        for (Tree tree : this.trees) {
+            tree.setRoot(position);
+            tree.random = random.split();
+        }
+
+        for (int i = 1; i < this.trees.length; i++) {
+            Tree tree = this.trees[i];
+            this.futures[i - 1] = HELPERS.submit(tree::grow);
+        }
+
+        try {
+            this.trees[0].grow();
+        } finally {
+            this.stop = true;
+            waitForHelpers();
+        }
+
+        // most visits over all trees
+        long[] visits = this.rootVisits;
+        Arrays.fill(visits, 0);
+        this.playoutCount = 0;
+
+        for (Tree tree : this.trees) {
+            this.playoutCount += tree.playouts;
+
+            int first = tree.firstChild[tree.root];
+            for (int child = first; child < first + tree.childCount[tree.root]; child++) {
+                visits[tree.move[child]] += tree.visits[child];
+            }
+        }
+
+        int best = -1;
+        for (long empty = position.getEmptyMask(); empty != 0; empty &= empty - 1) {
+            int index = Long.numberOfTrailingZeros(empty);
+            if (best < 0 || visits[index] > visits[best]) {
+                best = index;
+            }
+        }
+
+        return best;
+    }
+
+    private void waitForHelpers() {
+        boolean interrupted = false;
+
+        for (int i = 0; i < this.futures.length; i++) {
+            if (this.futures[i] == null) {
+                continue;
+            }
+
+            while (true) {
+                try {
+                    this.futures[i].get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;     // the helper stops soon, its tree must not grow under the next move
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("mcts helper failed", e.getCause());
+                }
+            }
+            this.futures[i] = null;
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isOverBudget(Tree tree) {
+        return this.stop || this.cancelled || System.nanoTime() > this.deadline
+                || (this.playoutLimit > 0 && tree.playouts >= this.playoutLimit)
+                || (this.playoutLimit == 0 && this.timeLimitMillis == 0 && tree.playouts >= DEFAULT_PLAYOUTS);
+    }
+
+    /**
+     * one search tree and the scratch state of the thread growing it
+     */
+    private class Tree {
+        private final int capacity;
+
+        // per node: the move leading to it, the first of its children and their number,
+        // visits and rewards for the side that played the move, two points a win and one a draw
+        private final byte[] move;
+        private final int[] firstChild;
+        private final byte[] childCount;
+        private final int[] visits;
+        private final int[] rewards;
+
+        private int used;
+        private int root;
+        private long playouts;
+
+        // the root position and what is needed to recognize its continuation
+        private Position position;
+        private long rootMaskX;
+        private long rootMaskO;
+
+        private SplittableRandom random;    // playout stream of the running search
+        private final int[] path;           // nodes from the root down, per iteration
+        private final int[] played;         // cells played in the iteration, to take them back
+
+        Tree(int capacity) {
+            this.capacity = capacity;
+            this.move = new byte[capacity];
+            this.firstChild = new int[capacity];
+            this.childCount = new byte[capacity];
+            this.visits = new int[capacity];
+            this.rewards = new int[capacity];
+
+            this.path = new int[LineTable.MAX_CELLS + 1];
+            this.played = new int[LineTable.MAX_CELLS];
+        }
+
+        void reset() {
+            this.used = 0;
+            this.position = null;
+        }
+
+        /**
+         * make the position the root, keeping the subtree under it if it follows the previous root
+         */
+        void setRoot(Position position) {
+            this.playouts = 0;
+
+            int node = this.position != null && this.position.getLines() == position.getLines() && this.used <= this.capacity / 4 * 3
+                    ? findContinuation(position) : -1;
+
+            if (node < 0) {
+                this.used = 0;
+                node = newNode(TranspositionTable.NO_MOVE);
+                this.position = new Position(position);
+            } else {
+                this.position.copyFrom(position);
+            }
+
+            this.root = node;
+            this.rootMaskX = position.getMask(Game.CELL_X);
+            this.rootMaskO = position.getMask(Game.CELL_O);
+        }
+
+        /**
+         * @return the node of the position under the root, or -1 if it was not reached from the root
+         */
+        private int findContinuation(Position position) {
+            long maskX = position.getMask(Game.CELL_X);
+            long maskO = position.getMask(Game.CELL_O);
+            if ((maskX & this.rootMaskX) != this.rootMaskX || (maskO & this.rootMaskO) != this.rootMaskO) {
+                return -1;
+            }
+
+            // at most one new stone a side, played alternately from the side to move at the root;
+            // with more the order is unknown, usually the robot's move and the reply are new
+            long newX = maskX & ~this.rootMaskX;
+            long newO = maskO & ~this.rootMaskO;
+            boolean xFirst = Long.bitCount(this.rootMaskX) == Long.bitCount(this.rootMaskO);
+            long first = xFirst ? newX : newO;
+            long second = xFirst ? newO : newX;
+            if (Long.bitCount(first) > 1 || Long.bitCount(second) > Long.bitCount(first)) {
+                return -1;
+            }
+
+            int node = this.root;
+            if (first != 0) {
+                node = findChild(node, Long.numberOfTrailingZeros(first));
+            }
+            if (second != 0 && node >= 0) {
+                node = findChild(node, Long.numberOfTrailingZeros(second));
+            }
+
+            return node;
+        }
+
+        private int findChild(int node, int cell) {
+            int first = this.firstChild[node];
+            for (int child = first; child < first + this.childCount[node]; child++) {
+                if (this.move[child] == cell) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+
+        private int newNode(int cell) {
+            int node = this.used++;
+            this.move[node] = (byte) cell;
+            this.firstChild[node] = 0;
+            this.childCount[node] = 0;
+            this.visits[node] = 0;
+            this.rewards[node] = 0;
+            return node;
+        }
+
+        /**
+         * run iterations until the budget is spent, checking it every 64 playouts
+         */
+        void grow() {
+            do {
+                for (int i = 0; i < 64; i++) {
+                    iterate();
+                }
+            } while (!isOverBudget(this));
+        }
+
+        /**
+         * select, expand, play out and back up once
+         */
+        private void iterate() {
+            Position position = this.position;
+            int depth = 0;
+            int node = this.root;
+            this.path[0] = node;
+
+            // selection, down to a leaf or a finished game
+            while (this.childCount[node] > 0 && position.getState() == Game.IN_PROGRESS) {
+                node = selectChild(node);
+                position.makeMove(this.move[node]);
+                this.played[depth] = this.move[node];
+                this.path[++depth] = node;
+            }
+
+            // expansion, all moves at once while there is room
+            if (position.getState() == Game.IN_PROGRESS && !position.isDeadDraw() && this.visits[node] > 0) {
+                long empty = position.getEmptyMask();
+                int count = Long.bitCount(empty);
+
+                if (this.used + count <= this.capacity) {
+                    this.firstChild[node] = this.used;
+                    this.childCount[node] = (byte) count;
+                    for (; empty != 0; empty &= empty - 1) {
+                        newNode(Long.numberOfTrailingZeros(empty));
+                    }
+
+                    node = this.firstChild[node] + this.random.nextInt(count);
+                    position.makeMove(this.move[node]);
+                    this.played[depth] = this.move[node];
+                    this.path[++depth] = node;
+                }
+            }
+
+            int state = playOut(position, depth);
+            this.playouts++;
+
+            // back up, every node scores for the side that moved into it
+            for (int i = depth; i >= 0; i--) {
+                int n = this.path[i];
+                this.visits[n]++;
+
+                if (state == Game.DRAW) {
+                    this.rewards[n] += 1;
+                } else if (i > 0 && ((state == Game.X_WIN) == (position.getCellType(this.move[n]) == Game.CELL_X))) {
+                    this.rewards[n] += 2;
+                }
+            }
+
+            // back to the root position
+            while (depth > 0) {
+                position.unmakeMove(this.played[--depth]);
+            }
+        }
+
+        /**
+         * @return the child with the best upper confidence bound, an unvisited one first
+         */
+        private int selectChild(int node) {
+            int first = this.firstChild[node];
+            int end = first + this.childCount[node];
+            double logVisits = Math.log(this.visits[node]);
+
+            int best = first;
+            double bestValue = -1;
+
+            for (int child = first; child < end; child++) {
+                int n = this.visits[child];
+                if (n == 0) {
+                    return child;
+                }
+
+                double value = this.rewards[child] / (2.0 * n) + EXPLORATION * Math.sqrt(logVisits / n);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+
+            return best;
+        }
+
+        /**
+         * play the game to its end and take the playout's stones back, the cells are appended to
+         * played from the given depth
+         *
+         * @return X_WIN, O_WIN or DRAW
+         */
+        private int playOut(Position position, int depth) {
+            LineTable lines = position.getLines();
+            int winLength = lines.getWinLength();
+            int lastOwn = depth >= 2 ? this.played[depth - 2] : -1;
+            int lastOpp = depth >= 1 ? this.played[depth - 1] : -1;
+            int start = depth;
+
+            int state;
+            while (true) {
+                state = position.getState();
+                if (state != Game.IN_PROGRESS) {
+                    break;
+                }
+                if (position.isDeadDraw()) {
+                    state = Game.DRAW;
+                    break;
+                }
+
+                int side = position.getSideToMove();
+                int opponent = side == Game.CELL_X ? Game.CELL_O : Game.CELL_X;
+                long empty = position.getEmptyMask();
+
+                // complete an own line, else block the opponent's; only lines through the last moves can have changed
+                int cell = findLine(position, lines, lastOwn, side, opponent, winLength, empty);
+                if (cell < 0) {
+                    cell = findLine(position, lines, lastOpp, opponent, side, winLength, empty);
+                }
+                if (cell < 0) {
+                    cell = position.getRandomMove(this.random);
+                }
+
+                position.makeMove(cell, side);
+                this.played[depth++] = cell;
+                lastOwn = lastOpp;
+                lastOpp = cell;
+            }
+
+            while (depth > start) {
+                position.unmakeMove(this.played[--depth]);
+            }
+            return state;
+        }
+
+        /**
+         * @return the empty cell completing a line of the owner through the given cell, or -1
+         */
+        private int findLine(Position position, LineTable lines, int through, int owner, int other, int winLength, long empty) {
+            if (through < 0) {
+                return -1;
+            }
+
+            for (int i = lines.getCellLineStart(through); i < lines.getCellLineEnd(through); i++) {
+                int line = lines.getCellLine(i);
+                if (position.getLineCount(line, owner) == winLength - 1 && position.getLineCount(line, other) == 0) {
+                    return Long.numberOfTrailingZeros(lines.getLine(line) & empty);
+                }
+            }
+
+            return -1;
+        }
+
+    }
+}
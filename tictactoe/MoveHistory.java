@@ -0,0 +1,119 @@
+package tictactoe;
+
+/**
+ * Undo and redo of the moves played on a Position.
+ *
+ * The moves are kept in play order in one array. Undone moves stay behind the current ply until
+ * a different move is played there, replaying the same move keeps them. Undo, redo and every step
+ * of a jump are one unmake or make on the position, so they cost O(lines through the cell)
+ * whatever the length of the game.
+ */
+class MoveHistory {
+    private final Position position;
+
+    // played moves as index << 2 | cell type
+    private final int[] moves;
+    private int ply;        // moves on the board
+    private int end;        // moves that can be redone up to
+
+    /**
+     * @param position empty position the moves are played on
+     */
+    public MoveHistory(Position position) {
+        this.position = position;
+        this.moves = new int[position.getCellCount()];
+    }
+
+    public Position getPosition() {
+        return this.position;
+    }
+
+    /**
+     * @return number of moves on the board
+     */
+    public int getPly() {
+        return this.ply;
+    }
+
+    /**
+     * @return number of moves recorded, the undone ones included
+     */
+    public int getEnd() {
+        return this.end;
+    }
+
+    public boolean canUndo() {
+        return this.ply > 0;
+    }
+
+    public boolean canRedo() {
+        return this.ply < this.end;
+    }
+
+    /**
+     * @param ply number of the move, counted from 0, below getEnd()
+     * @return cell index of the move
+     */
+    public int getMove(int ply) {
+        return this.moves[ply] >>> 2;
+    }
+
+    /**
+     * put a stone on the position and record it, a different move drops the undone ones
+     *
+     * @param index cell index
+     * @param cellType CELL_X or CELL_O
+     */
+    public void play(int index, int cellType) {
+        int move = index << 2 | cellType;
+
+        if (this.ply == this.end || this.moves[this.ply] != move) {
+            this.moves[this.ply] = move;
+            this.end = this.ply + 1;
+        }
+
+        this.ply++;
+        this.position.makeMove(index, cellType);
+    }
+
+    /**
+     * take back the last move
+     *
+     * @return cell index of the move, or -1 if there is none
+     */
+    public int undo() {
+        if (this.ply == 0) {
+            return -1;
+        }
+
+        int index = this.moves[--this.ply] >>> 2;
+        this.position.unmakeMove(index);
+
+        return index;
+    }
+
+    /**
+     * play the next undone move again
+     *
+     * @return cell index of the move, or -1 if there is none
+     */
+    public int redo() {
+        if (this.ply == this.end) {
+            return -1;
+        }
+
+        int move = this.moves[this.ply++];
+        this.position.makeMove(move >>> 2, move & 3);
+
+        return move >>> 2;
+    }
+
+    /**
+     * clear the position and forget every move
+     */
+    public void clear() {
+        this.position.clear();
+        this.ply = 0;
+        this.end = 0;
+    }
+}
@@ -0,0 +1,244 @@
+package tictactoe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lazy SMP driver around Search.
+ *
+ * Every thread runs its own iterative deepening on a copy of the position, all of them share one
+ * transposition table. Helper threads start at different depths and rotate their root move order,
+ * so they fill the table with results the main thread picks up. With one thread the search runs on
+ * the calling thread only and is fully deterministic.
+ */
+class ParallelSearch {
+    // helper threads are shared by all searches and die with the application
+    private final static ExecutorService HELPERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "search-helper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Search[] workers;     // workers[0] runs on the calling thread
+    private final TranspositionTable table;
+
+    // preallocated per helper thread, so a move only allocates what the executor needs
+    private final Position[] helperPositions;
+    private final List<Callable<Integer>> helperTasks;
+    private final List<Future<Integer>> futures;
+    private final AtomicBoolean stop;
+    private final AtomicBoolean cancelled;  // stop signal of the main thread, raised by cancel
+
+    private long nodeCount;
+    private int score;
+    private int completedDepth;
+
+    public ParallelSearch() {
+        this(Game.SEARCH_THREADS);
+    }
+
+    /**
+     * @param threads number of threads searching one move
+     */
+    public ParallelSearch(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+
+        this.table = new TranspositionTable(threads == 1 ? 1 << 16 : 1 << 20, TranspositionTable.REPLACE_DEPTH);
+        this.workers = new Search[threads];
+
+        this.helperPositions = new Position[threads - 1];
+        this.helperTasks = new ArrayList<>(threads - 1);
+        this.futures = new ArrayList<>(threads - 1);
+        this.stop = new AtomicBoolean(false);
+        this.cancelled = new AtomicBoolean(false);
+
+        for (int i = 0; i < threads; i++) {
+            this.workers[i] = new Search(this.table);
+
+            if (i == 0) {
+                this.workers[i].setStopSignal(this.cancelled);
+            } else {
+                int helper = i - 1;
+                Search worker = this.workers[i];
+
+                worker.setFirstHorizon(1 + i % 2);
+                worker.setRootRotation(i);
+                worker.setStopSignal(this.stop);
+
+                this.helperTasks.add(() -> worker.getNextBestMove(this.helperPositions[helper]));
+            }
+        }
+    }
+
+    public int getThreads() {
+        return this.workers.length;
+    }
+
+    /**
+     * @param timeLimitMillis milliseconds per move, 0 for no limit
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        for (Search worker : this.workers) {
+            worker.setTimeLimit(timeLimitMillis);
+        }
+    }
+
+    /**
+     * @param nodeLimit nodes per move and thread, 0 for no limit
+     */
+    public void setNodeLimit(long nodeLimit) {
+        for (Search worker : this.workers) {
+            worker.setNodeLimit(nodeLimit);
+        }
+    }
+
+    /**
+     * @param depthLimit plies below the root, 0 for no limit
+     */
+    public void setDepthLimit(int depthLimit) {
+        for (Search worker : this.workers) {
+            worker.setDepthLimit(depthLimit);
+        }
+    }
+
+    /**
+     * @param rootMargin root moves scoring at least best - rootMargin get an exact score
+     */
+    public void setRootMargin(int rootMargin) {
+        for (Search worker : this.workers) {
+            worker.setRootMargin(rootMargin);
+        }
+    }
+
+    /**
+     * score of a root move in the last completed iteration of the main thread
+     *
+     * @param index cell index
+     * @return the exact score, or SCORE_MIN if the move scored below best - rootMargin or is illegal
+     */
+    public int getRootScore(int index) {
+        return this.workers[0].getRootScore(index);
+    }
+
+    /**
+     * stop the running search soon and every later one at once, for an abandoned game;
+     * may be called from any thread
+     */
+    public void cancel() {
+        this.cancelled.set(true);
+        this.stop.set(true);
+    }
+
+    /**
+     * let searches run again after cancel, for a game taken back rather than abandoned;
+     * call it on the searching thread, once the cancelled search has returned
+     */
+    public void resume() {
+        this.cancelled.set(false);
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled.get();
+    }
+
+    /**
+     * forget everything learned by previous searches
+     */
+    public void clear() {
+        for (Search worker : this.workers) {
+            worker.clear();
+        }
+    }
+
+    /**
+     * @return nodes visited by all threads during the last search
+     */
+    public long getNodeCount() {
+        return this.nodeCount;
+    }
+
+    public int getScore() {
+        return this.score;
+    }
+
+    public int getCompletedDepth() {
+        return this.completedDepth;
+    }
+
+    public TranspositionTable getTable() {
+        return this.table;
+    }
+
+    /**
+     * Get the next best move for the side to move.
+     *
+     * The result is the move of the thread that completed the deepest iteration,
+     * the main thread wins ties.
+     *
+     * @param position game position, restored before returning
+     * @return index of the best cell, or -1 if there is no move
+     */
+    public int getNextBestMove(Position position) {
+        int helpers = this.workers.length - 1;
+
+        this.stop.set(this.cancelled.get());
+        this.futures.clear();
+
+        for (int i = 0; i < helpers; i++) {
+            // every helper searches its own copy, reused while the board stays the same
+            if (this.helperPositions[i] == null || this.helperPositions[i].getLines() != position.getLines()) {
+                this.helperPositions[i] = new Position(position);
+            } else {
+                this.helperPositions[i].copyFrom(position);
+            }
+
+            this.futures.add(HELPERS.submit(this.helperTasks.get(i)));
+        }
+
+        Search main = this.workers[0];
+        int bestIndex = main.getNextBestMove(position);
+
+        this.nodeCount = main.getNodeCount();
+        this.score = main.getScore();
+        this.completedDepth = main.getCompletedDepth();
+
+        // the main thread is done, collect the helpers
+        this.stop.set(true);
+
+        for (int i = 0; i < helpers; i++) {
+            Search helper = this.workers[i + 1];
+            int index = getResult(this.futures.get(i));
+
+            this.nodeCount += helper.getNodeCount();
+
+            if (helper.getCompletedDepth() > this.completedDepth && index >= 0) {
+                bestIndex = index;
+                this.score = helper.getScore();
+                this.completedDepth = helper.getCompletedDepth();
+            }
+        }
+        this.futures.clear();
+
+        return bestIndex;
+    }
+
+    private static int getResult(Future<Integer> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return -1;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("search helper failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Swing-free game position.
+ *
+ * Each side's stones are kept in one bitmask, bit (row * size + col) is set when the cell is taken.
+ * This is the engine layer: the Swing board only mirrors it for display, and the robot search
+ * runs directly on it with make/unmake.
+ *
+ * Win and draw detection are incremental: every move updates the stone counters of the lines
+ * through its cell only, so the game end is known in O(lines through the cell).
+ */
+class Position {
+    final static int SYMMETRY_COUNT = LineTable.SYMMETRY_COUNT;
+
+    private final LineTable lines;
+    private final long fullMask;
+
+    private long maskX;
+    private long maskO;
+
+    // stones of each side per line, and derived line counts
+    private final byte[] lineCountX;
+    private final byte[] lineCountO;
+    private int completedX;     // lines owned completely by X
+    private int completedO;
+    private int openLines;      // lines still winnable by at least one side
+
+    // incrementally updated zobrist hash of the position under each symmetry
+    private final long[] hashes;
+
+    public Position() {
+        this(LineTable.get(Game.SIZE, Game.WIN_LENGTH));
+    }
+
+    public Position(int size, int winLength) {
+        this(LineTable.get(size, winLength));
+    }
+
+    public Position(LineTable lines) {
+        this.lines = lines;
+        this.fullMask = lines.getFullMask();
+
+        this.lineCountX = new byte[lines.getLineCount()];
+        this.lineCountO = new byte[lines.getLineCount()];
+        this.hashes = new long[SYMMETRY_COUNT];
+
+        clear();
+    }
+
+    public Position(Position other) {
+        this.lines = other.lines;
+        this.fullMask = other.fullMask;
+
+        this.maskX = other.maskX;
+        this.maskO = other.maskO;
+
+        this.lineCountX = other.lineCountX.clone();
+        this.lineCountO = other.lineCountO.clone();
+        this.completedX = other.completedX;
+        this.completedO = other.completedO;
+        this.openLines = other.openLines;
+
+        this.hashes = other.hashes.clone();
+    }
+
+    /**
+     * overwrite this position with another one on the same board, without allocating
+     *
+     * @param other position to copy
+     */
+    public void copyFrom(Position other) {
+        if (other.lines != this.lines) {
+            throw new IllegalArgumentException("positions are on different boards");
+        }
+
+        this.maskX = other.maskX;
+        this.maskO = other.maskO;
+
+        System.arraycopy(other.lineCountX, 0, this.lineCountX, 0, this.lineCountX.length);
+        System.arraycopy(other.lineCountO, 0, this.lineCountO, 0, this.lineCountO.length);
+        this.completedX = other.completedX;
+        this.completedO = other.completedO;
+        this.openLines = other.openLines;
+
+        System.arraycopy(other.hashes, 0, this.hashes, 0, this.hashes.length);
+    }
+
+    public LineTable getLines() {
+        return this.lines;
+    }
+
+    public int getSize() {
+        return this.lines.getSize();
+    }
+
+    public int getWinLength() {
+        return this.lines.getWinLength();
+    }
+
+    public int getCellCount() {
+        return this.lines.getCellCount();
+    }
+
+    public long getMask(int cellType) {
+        return cellType == Game.CELL_X ? this.maskX : this.maskO;
+    }
+
+    /**
+     * move generator
+     *
+     * @return a bitmask with a bit set for each empty cell
+     */
+    public long getEmptyMask() {
+        return ~(this.maskX | this.maskO) & this.fullMask;
+    }
+
+    public int getCellType(int index) {
+        long bit = 1L << index;
+
+        if ((this.maskX & bit) != 0) {
+            return Game.CELL_X;
+        } else if ((this.maskO & bit) != 0) {
+            return Game.CELL_O;
+        }
+
+        return Game.CELL_EMPTY;
+    }
+
+    /**
+     * get the number of stones on the board
+     *
+     * @return number of taken cells
+     */
+    public int getPly() {
+        return Long.bitCount(this.maskX | this.maskO);
+    }
+
+    /**
+     * X always moves first, so the side to move follows from the stone count
+     *
+     * @return the cell type of the side to move
+     */
+    public int getSideToMove() {
+        return Long.bitCount(this.maskX) > Long.bitCount(this.maskO) ? Game.CELL_O : Game.CELL_X;
+    }
+
+    /**
+     * put a stone of the side to move on the given cell
+     *
+     * @param index cell index
+     */
+    public void makeMove(int index) {
+        makeMove(index, getSideToMove());
+    }
+
+    /**
+     * put a stone of the given cell type on the given cell
+     *
+     * @param index cell index
+     * @param cellType CELL_X or CELL_O
+     */
+    public void makeMove(int index, int cellType) {
+        int winLength = this.lines.getWinLength();
+        int end = this.lines.getCellLineEnd(index);
+
+        if (cellType == Game.CELL_X) {
+            this.maskX |= 1L << index;
+
+            for (int i = this.lines.getCellLineStart(index); i < end; i++) {
+                int line = this.lines.getCellLine(i);
+                if (++this.lineCountX[line] == winLength) {
+                    this.completedX++;
+                } else if (this.lineCountX[line] == 1 && this.lineCountO[line] > 0) {
+                    this.openLines--;
+                }
+            }
+        } else {
+            this.maskO |= 1L << index;
+
+            for (int i = this.lines.getCellLineStart(index); i < end; i++) {
+                int line = this.lines.getCellLine(i);
+                if (++this.lineCountO[line] == winLength) {
+                    this.completedO++;
+                } else if (this.lineCountO[line] == 1 && this.lineCountX[line] > 0) {
+                    this.openLines--;
+                }
+            }
+        }
+
+        toggleHashes(index, cellType);
+    }
+
+    /**
+     * take back the stone on the given cell
+     *
+     * @param index cell index
+     */
+    public void unmakeMove(int index) {
+        int cellType = getCellType(index);
+        if (cellType == Game.CELL_EMPTY) {
+            return;
+        }
+
+        int winLength = this.lines.getWinLength();
+        int end = this.lines.getCellLineEnd(index);
+
+        if (cellType == Game.CELL_X) {
+            this.maskX &= ~(1L << index);
+
+            for (int i = this.lines.getCellLineStart(index); i < end; i++) {
+                int line = this.lines.getCellLine(i);
+                if (this.lineCountX[line]-- == winLength) {
+                    this.completedX--;
+                } else if (this.lineCountX[line] == 0 && this.lineCountO[line] > 0) {
+                    this.openLines++;
+                }
+            }
+        } else {
+            this.maskO &= ~(1L << index);
+
+            for (int i = this.lines.getCellLineStart(index); i < end; i++) {
+                int line = this.lines.getCellLine(i);
+                if (this.lineCountO[line]-- == winLength) {
+                    this.completedO--;
+                } else if (this.lineCountO[line] == 0 && this.lineCountX[line] > 0) {
+                    this.openLines++;
+                }
+            }
+        }
+
+        toggleHashes(index, cellType);
+    }
+
+    public void clear() {
+        this.maskX = 0;
+        this.maskO = 0;
+
+        Arrays.fill(this.lineCountX, (byte) 0);
+        Arrays.fill(this.lineCountO, (byte) 0);
+        this.completedX = 0;
+        this.completedO = 0;
+        this.openLines = this.lines.getLineCount();
+
+        Arrays.fill(this.hashes, 0);
+    }
+
+    private void toggleHashes(int index, int cellType) {
+        for (int s = 0; s < SYMMETRY_COUNT; s++) {
+            this.hashes[s] ^= this.lines.getZobrist(s, cellType, index);
+        }
+    }
+
+    /**
+     * the symmetry under which the position has the smallest hash,
+     * all eight images of a position agree on it up to the symmetry itself
+     *
+     * @return index of the symmetry in the line table
+     */
+    public int getCanonicalSymmetry() {
+        int best = 0;
+
+        for (int s = 1; s < SYMMETRY_COUNT; s++) {
+            if (this.hashes[s] < this.hashes[best]) {
+                best = s;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @param symmetry index of the symmetry in the line table
+     * @return zobrist hash of the position seen through the given symmetry
+     */
+    public long getHash(int symmetry) {
+        return this.hashes[symmetry];
+    }
+
+    /**
+     * @return the canonical hash, shared by all symmetric images of the position
+     */
+    public long getHash() {
+        return this.hashes[getCanonicalSymmetry()];
+    }
+
+    /**
+     * check if specified player cell type wins the game
+     *
+     * @param playerCellType player's cell type
+     * @return true if the specified player cell type owns a whole line
+     */
+    public boolean checkWin(int playerCellType) {
+        return (playerCellType == Game.CELL_X ? this.completedX : this.completedO) > 0;
+    }
+
+    /**
+     * @return true if either side owns a whole line
+     */
+    public boolean isWon() {
+        return (this.completedX | this.completedO) != 0;
+    }
+
+    public boolean isFull() {
+        return (this.maskX | this.maskO) == this.fullMask;
+    }
+
+    /**
+     * pick a uniformly random empty cell
+     *
+     * @param random random source of the caller
+     * @return index of the cell
+     */
+    public int getRandomMove(SplittableRandom random) {
+        long empty = getEmptyMask();
+
+        for (int skip = random.nextInt(Long.bitCount(empty)); skip > 0; skip--) {
+            empty &= empty - 1;
+        }
+
+        return Long.numberOfTrailingZeros(empty);
+    }
+
+    /**
+     * a draw is certain once every line holds stones of both sides,
+     * the search stops there even if the board is not full yet
+     *
+     * @return true if neither side can complete a line any more
+     */
+    public boolean isDeadDraw() {
+        return this.openLines == 0 && !isWon();
+    }
+
+    /**
+     * @param line index of the line in the line table
+     * @param cellType CELL_X or CELL_O
+     * @return number of stones of the cell type on the line
+     */
+    public int getLineCount(int line, int cellType) {
+        return cellType == Game.CELL_X ? this.lineCountX[line] : this.lineCountO[line];
+    }
+
+    /**
+     * evaluate the game state of the position
+     *
+     * @return X_WIN, O_WIN, DRAW or IN_PROGRESS
+     */
+    public int getState() {
+        if (this.completedX > 0) {
+            return Game.X_WIN;
+        } else if (this.completedO > 0) {
+            return Game.O_WIN;
+        }
+
+        return isFull() ? Game.DRAW : Game.IN_PROGRESS;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < getCellCount(); i++) {
+            switch (getCellType(i)) {
+                case Game.CELL_X:
+                    sb.append(Game.STR_CELL_X);
+                    break;
+                case Game.CELL_O:
+                    sb.append(Game.STR_CELL_O);
+                    break;
+                default:
+                    sb.append('_');
+                    break;
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,337 @@
+package tictactoe;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Position of Qubic, tic-tac-toe on a 4x4x4 cube: four in a row along any of its 76 lines wins.
+ *
+ * The cube has 64 cells, so each side's stones are one long, bit (layer * 16 + row * 4 + col).
+ * Every line runs in one of 13 directions, and walking a direction from the lowest cell of a line
+ * is a fixed bit distance s, 1 along a row, 4 along a column, 16 across the layers and their sums
+ * for the diagonals. With STARTS_s the lowest cells of the lines in that direction, the lines a
+ * mask fills are (m & m >>> s & m >>> 2s & m >>> 3s & STARTS_s): the win test, the threats and the
+ * open line counts of the evaluation are a few shifts and ands per direction, without a loop over
+ * the lines or a branch per cell. The directions are written out one by one with constant masks,
+ * so the compiler folds the shifts.
+ *
+ * Like Position it is not thread-safe, a search works on its own copy.
+ */
+class QubicPosition implements VariantPosition {
+    final static int SIZE = 4;
+    final static int CELLS = SIZE * SIZE * SIZE;
+    final static int LINE_COUNT = 76;
+
+    // lowest cell of every line of a direction, by the bit distance s of its {col, row, layer} step
+    final static long STARTS_1 = getStarts(1, 0, 0);
+    final static long STARTS_4 = getStarts(0, 1, 0);
+    final static long STARTS_16 = getStarts(0, 0, 1);
+    final static long STARTS_5 = getStarts(1, 1, 0);
+    final static long STARTS_3 = getStarts(-1, 1, 0);
+    final static long STARTS_17 = getStarts(1, 0, 1);
+    final static long STARTS_15 = getStarts(-1, 0, 1);
+    final static long STARTS_20 = getStarts(0, 1, 1);
+    final static long STARTS_12 = getStarts(0, -1, 1);
+    final static long STARTS_21 = getStarts(1, 1, 1);
+    final static long STARTS_19 = getStarts(-1, 1, 1);
+    final static long STARTS_13 = getStarts(1, -1, 1);
+    final static long STARTS_11 = getStarts(-1, -1, 1);
+
+    // every line as a mask
+    final static long[] LINES = new long[LINE_COUNT];
+
+    private final static long[][] ZOBRIST = new long[3][CELLS];
+
+    static {
+        int[] deltas = {1, 4, 16, 5, 3, 17, 15, 20, 12, 21, 19, 13, 11};
+        long[] starts = {STARTS_1, STARTS_4, STARTS_16, STARTS_5, STARTS_3, STARTS_17, STARTS_15,
+                STARTS_20, STARTS_12, STARTS_21, STARTS_19, STARTS_13, STARTS_11};
+        int count = 0;
+
+        for (int d = 0; d < deltas.length; d++) {
+            for (long bits = starts[d]; bits != 0; bits &= bits - 1) {
+                int cell = Long.numberOfTrailingZeros(bits);
+                for (int i = 0; i < SIZE; i++) {
+                    LINES[count] |= 1L << (cell + i * deltas[d]);
+                }
+                count++;
+            }
+        }
+
+        Random random = new Random(0x9B1C5L ^ CELLS);  // fixed seed, hashes are reproducible between runs
+        for (int cellType = Game.CELL_X; cellType <= Game.CELL_O; cellType++) {
+            for (int cell = 0; cell < CELLS; cell++) {
+                ZOBRIST[cellType][cell] = random.nextLong();
+            }
+        }
+    }
+
+    /**
+     * @return the cells from which SIZE steps stay inside the cube
+     */
+    private static long getStarts(int stepCol, int stepRow, int stepLayer) {
+        long starts = 0;
+
+        for (int cell = 0; cell < CELLS; cell++) {
+            int endCol = cell % SIZE + stepCol * (SIZE - 1);
+            int endRow = cell / SIZE % SIZE + stepRow * (SIZE - 1);
+            int endLayer = cell / (SIZE * SIZE) + stepLayer * (SIZE - 1);
+
+            if (endCol >= 0 && endCol < SIZE && endRow >= 0 && endRow < SIZE && endLayer >= 0 && endLayer < SIZE) {
+                starts |= 1L << cell;
+            }
+        }
+
+        return starts;
+    }
+
+    private long maskX;
+    private long maskO;
+    private int state;
+    private int ply;
+    private long hash;
+
+    // played cells, for unmakeMove
+    private final int[] moves;
+
+    public QubicPosition() {
+        this.moves = new int[CELLS];
+        clear();
+    }
+
+    public QubicPosition(QubicPosition other) {
+        this();
+        copyFrom(other);
+    }
+
+    /**
+     * make this position a copy of another one, without allocating
+     */
+    public void copyFrom(QubicPosition other) {
+        System.arraycopy(other.moves, 0, this.moves, 0, other.ply);
+
+        this.maskX = other.maskX;
+        this.maskO = other.maskO;
+        this.state = other.state;
+        this.ply = other.ply;
+        this.hash = other.hash;
+    }
+
+    public void clear() {
+        this.maskX = 0;
+        this.maskO = 0;
+        this.state = Game.IN_PROGRESS;
+        this.ply = 0;
+        this.hash = 0;
+    }
+
+    /**
+     * @return IN_PROGRESS, X_WIN, O_WIN or DRAW
+     */
+    public int getState() {
+        return this.state;
+    }
+
+    public int getPly() {
+        return this.ply;
+    }
+
+    /**
+     * @return CELL_X or CELL_O, X moves first
+     */
+    public int getSideToMove() {
+        return (this.ply & 1) == 0 ? Game.CELL_X : Game.CELL_O;
+    }
+
+    /**
+     * @param cell layer * 16 + row * 4 + col
+     * @return CELL_EMPTY, CELL_X or CELL_O
+     */
+    public int getCellType(int cell) {
+        long bit = 1L << cell;
+        return (this.maskX & bit) != 0 ? Game.CELL_X : (this.maskO & bit) != 0 ? Game.CELL_O : Game.CELL_EMPTY;
+    }
+
+    /**
+     * @param cellType CELL_X or CELL_O
+     * @return the stones of the side
+     */
+    public long getMask(int cellType) {
+        return cellType == Game.CELL_X ? this.maskX : this.maskO;
+    }
+
+    public long getEmptyMask() {
+        return ~(this.maskX | this.maskO);
+    }
+
+    /**
+     * @return the 64-bit hash of the stones, the side to move follows from their number
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * @param cell layer * 16 + row * 4 + col
+     * @return true if the side to move may put a stone on the cell
+     */
+    public boolean isLegal(int cell) {
+        return this.state == Game.IN_PROGRESS && cell >= 0 && cell < CELLS && (getEmptyMask() & (1L << cell)) != 0;
+    }
+
+    /**
+     * play a legal move for the side to move
+     *
+     * @param cell layer * 16 + row * 4 + col
+     */
+    public void makeMove(int cell) {
+        int cellType = getSideToMove();
+
+        this.moves[this.ply++] = cell;
+        this.hash ^= ZOBRIST[cellType][cell];
+
+        long own;
+        if (cellType == Game.CELL_X) {
+            own = this.maskX |= 1L << cell;
+        } else {
+            own = this.maskO |= 1L << cell;
+        }
+
+        if (isWon(own)) {
+            this.state = cellType == Game.CELL_X ? Game.X_WIN : Game.O_WIN;
+        } else if (this.ply == CELLS) {
+            this.state = Game.DRAW;
+        }
+    }
+
+    /**
+     * pick a uniformly random empty cell of the cube
+     *
+     * @param random random source of the caller
+     * @return the cell
+     */
+    public int getRandomMove(SplittableRandom random) {
+        long empty = getEmptyMask();
+
+        for (int skip = random.nextInt(Long.bitCount(empty)); skip > 0; skip--) {
+            empty &= empty - 1;
+        }
+
+        return Long.numberOfTrailingZeros(empty);
+    }
+
+    /**
+     * take back the last move
+     */
+    public void unmakeMove() {
+        int cell = this.moves[--this.ply];
+        int cellType = getSideToMove();
+
+        if (cellType == Game.CELL_X) {
+            this.maskX &= ~(1L << cell);
+        } else {
+            this.maskO &= ~(1L << cell);
+        }
+
+        this.hash ^= ZOBRIST[cellType][cell];
+        this.state = Game.IN_PROGRESS;
+    }
+
+    /**
+     * @param ply number of the move, counted from 0, below getPly()
+     * @return the cell
+     */
+    public int getMove(int ply) {
+        return this.moves[ply];
+    }
+
+    /**
+     * @return true if every line holds stones of both sides, so nobody can win any more
+     */
+    public boolean isDeadDraw() {
+        return !hasOpenLine(this.maskO) && !hasOpenLine(this.maskX);
+    }
+
+    /**
+     * @param mask stones of one side
+     * @return true if they fill a line
+     */
+    static boolean isWon(long mask) {
+        return (getFull(mask, 1, STARTS_1) | getFull(mask, 4, STARTS_4) | getFull(mask, 16, STARTS_16)
+                | getFull(mask, 5, STARTS_5) | getFull(mask, 3, STARTS_3) | getFull(mask, 17, STARTS_17)
+                | getFull(mask, 15, STARTS_15) | getFull(mask, 20, STARTS_20) | getFull(mask, 12, STARTS_12)
+                | getFull(mask, 21, STARTS_21) | getFull(mask, 19, STARTS_19) | getFull(mask, 13, STARTS_13)
+                | getFull(mask, 11, STARTS_11)) != 0;
+    }
+
+    private static long getFull(long mask, int s, long starts) {
+        return mask & mask >>> s & mask >>> 2 * s & mask >>> 3 * s & starts;
+    }
+
+    /**
+     * @param own stones of one side
+     * @param empty empty cells
+     * @return the empty cells that complete a line of the side, each in a line holding three of its stones
+     */
+    static long getThreats(long own, long empty) {
+        return getThreats(own, empty, 1, STARTS_1) | getThreats(own, empty, 4, STARTS_4)
+                | getThreats(own, empty, 16, STARTS_16) | getThreats(own, empty, 5, STARTS_5)
+                | getThreats(own, empty, 3, STARTS_3) | getThreats(own, empty, 17, STARTS_17)
+                | getThreats(own, empty, 15, STARTS_15) | getThreats(own, empty, 20, STARTS_20)
+                | getThreats(own, empty, 12, STARTS_12) | getThreats(own, empty, 21, STARTS_21)
+                | getThreats(own, empty, 19, STARTS_19) | getThreats(own, empty, 13, STARTS_13)
+                | getThreats(own, empty, 11, STARTS_11);
+    }
+
+    /**
+     * the threats of one direction: the four cells of every line are shifted onto its lowest cell,
+     * and the empty one of a line holding three stones is shifted back to its place
+     */
+    private static long getThreats(long own, long empty, int s, long starts) {
+        long a = own & starts;
+        long b = own >>> s & starts;
+        long c = own >>> 2 * s & starts;
+        long d = own >>> 3 * s & starts;
+
+        return (empty & b & c & d)
+                | (a & empty >>> s & c & d) << s
+                | (a & b & empty >>> 2 * s & d) << 2 * s
+                | (a & b & c & empty >>> 3 * s) << 3 * s;
+    }
+
+    /**
+     * @param blocker stones of the other side
+     * @return true if a line holds none of the blocker's stones
+     */
+    static boolean hasOpenLine(long blocker) {
+        return (getOpen(blocker, 1, STARTS_1) | getOpen(blocker, 4, STARTS_4) | getOpen(blocker, 16, STARTS_16)
+                | getOpen(blocker, 5, STARTS_5) | getOpen(blocker, 3, STARTS_3) | getOpen(blocker, 17, STARTS_17)
+                | getOpen(blocker, 15, STARTS_15) | getOpen(blocker, 20, STARTS_20) | getOpen(blocker, 12, STARTS_12)
+                | getOpen(blocker, 21, STARTS_21) | getOpen(blocker, 19, STARTS_19) | getOpen(blocker, 13, STARTS_13)
+                | getOpen(blocker, 11, STARTS_11)) != 0;
+    }
+
+    /**
+     * @return lines of the direction holding none of the blocker's stones, marked on their lowest cell
+     */
+    static long getOpen(long blocker, int s, long starts) {
+        return ~(blocker | blocker >>> s | blocker >>> 2 * s | blocker >>> 3 * s) & starts;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+
+        for (int row = 0; row < SIZE; row++) {
+            for (int layer = 0; layer < SIZE; layer++) {
+                for (int col = 0; col < SIZE; col++) {
+                    int cellType = getCellType(layer * SIZE * SIZE + row * SIZE + col);
+                    builder.append(cellType == Game.CELL_X ? 'X' : cellType == Game.CELL_O ? 'O' : '_');
+                }
+                builder.append(layer < SIZE - 1 ? ' ' : '\n');
+            }
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,192 @@
+package tictactoe;
+
+/**
+ * Robot search for Qubic, playing within a time budget per move.
+ *
+ * The iterative deepening of VariantSearch over the empty cells, cells on more lines first. Qubic
+ * is a game of forcing moves, so every node first looks at the threats, the empty cells completing
+ * a line of three: a threat of the side to move wins at once, two threats of the opponent lose,
+ * and a single one must be blocked. A forced block does not count against
+ * the depth, so forcing sequences are followed past the horizon. Quiet positions at the horizon
+ * are scored by the open lines of each side, weighted by the stones in them.
+ *
+ * All of it works on the two masks of QubicPosition with the shift tests of its line directions.
+ */
+class QubicSearch extends VariantSearch<QubicPosition> {
+    // search bounds per level, indexed by EASY, MEDIUM, HARD and MCTS; 0 means unlimited,
+    // the MCTS robot plays the cube with this search like HARD
+    final static int[] DEPTH_LIMITS = {1, 3, 0, 0};
+
+    // weights of an open line by the stones of its owner in it, three in a line is a threat and never reaches the evaluation
+    private final static int WEIGHT_ONE = 1;
+    private final static int WEIGHT_TWO = 6;
+
+    // cells on seven lines first, the eight corners and the eight center cells, then the others
+    private final static int[] MOVE_ORDER = new int[QubicPosition.CELLS];
+
+    static {
+        int count = 0;
+        for (int lines = 7; lines >= 4; lines--) {
+            for (int cell = 0; cell < QubicPosition.CELLS; cell++) {
+                int through = 0;
+                for (long line : QubicPosition.LINES) {
+                    through += (int) (line >>> cell) & 1;
+                }
+                if (through == lines) {
+                    MOVE_ORDER[count++] = cell;
+                }
+            }
+        }
+    }
+
+    public QubicSearch() {
+        this(Game.HARD);
+    }
+
+    /**
+     * @param level EASY, MEDIUM, HARD or MCTS
+     */
+    public QubicSearch(int level) {
+        super(QubicPosition.CELLS, DEPTH_LIMITS[level]);
+    }
+
+    /**
+     * a win in one needs no search, a threat to block leaves a single move worth searching
+     */
+    @Override
+    protected int chooseForcedMove(QubicPosition position) {
+        int side = position.getSideToMove();
+        long own = position.getMask(side);
+        long opponent = position.getMask(side == Game.CELL_X ? Game.CELL_O : Game.CELL_X);
+        long empty = position.getEmptyMask();
+
+        long wins = QubicPosition.getThreats(own, empty);
+        if (wins != 0) {
+            this.score = SCORE_WIN - 1;
+            return Long.numberOfTrailingZeros(wins);
+        }
+
+        long blocks = QubicPosition.getThreats(opponent, empty);
+        if (blocks != 0) {
+            this.score = Long.bitCount(blocks) > 1 ? -(SCORE_WIN - 2) : this.score;
+            return Long.numberOfTrailingZeros(blocks);
+        }
+
+        return -1;
+    }
+
+    @Override
+    protected int generateMoves(QubicPosition position, int[] moves) {
+        return generateMoves(position.getEmptyMask(), moves);
+    }
+
+    @Override
+    protected int negamax(QubicPosition position, int depth, int ply, int alpha, int beta) {
+        this.nodeCount++;
+
+        // only the side that just moved can have won
+        int state = position.getState();
+        if (state != Game.IN_PROGRESS) {
+            return state == Game.DRAW ? SCORE_DRAW : -(SCORE_WIN - ply);
+        }
+
+        int side = position.getSideToMove();
+        long own = position.getMask(side);
+        long opponent = position.getMask(side == Game.CELL_X ? Game.CELL_O : Game.CELL_X);
+        long empty = position.getEmptyMask();
+
+        if (QubicPosition.getThreats(own, empty) != 0) {
+            return SCORE_WIN - (ply + 1);
+        }
+
+        long blocks = QubicPosition.getThreats(opponent, empty);
+        if ((blocks & (blocks - 1)) != 0) {
+            return -(SCORE_WIN - (ply + 2));     // one of the threats stays open
+        }
+
+        if (isOverBudget()) {
+            return SCORE_DRAW;
+        }
+
+        if (blocks == 0) {
+            if (position.isDeadDraw()) {
+                return SCORE_DRAW;
+            }
+            if (depth <= 0) {
+                return evaluate(own, opponent);
+            }
+        }
+
+        // a forced block past the horizon is not worth a table entry
+        long key = position.getHash();
+        int entry = probe(key, depth);
+        int stored = getCutoffScore(entry, depth, ply, alpha, beta);
+        if (stored != NO_SCORE) {
+            return stored;
+        }
+
+        // a forced block is the only move and extends the search by its ply
+        int[] moves = this.moveLists[ply];
+        if (blocks != 0) {
+            moves[0] = Long.numberOfTrailingZeros(blocks);
+            return searchMoves(position, moves, 1, depth, depth, ply, alpha, beta, key);
+        }
+
+        int count = generateMoves(empty, moves);
+        orderMoves(side, moves, count, ply, getHashMove(entry));
+
+        return searchMoves(position, moves, count, depth, depth - 1, ply, alpha, beta, key);
+    }
+
+    /**
+     * list the empty cells, cells on more lines first
+     *
+     * @return number of moves
+     */
+    private static int generateMoves(long empty, int[] moves) {
+        int count = 0;
+        for (int cell : MOVE_ORDER) {
+            moves[count] = cell;
+            count += (int) (empty >>> cell) & 1;
+        }
+        return count;
+    }
+
+    /**
+     * heuristic score of a quiet position, one without threats, for the side owning own
+     */
+    static int evaluate(long own, long opponent) {
+        return evaluate(own, opponent, 1, QubicPosition.STARTS_1) + evaluate(own, opponent, 4, QubicPosition.STARTS_4)
+                + evaluate(own, opponent, 16, QubicPosition.STARTS_16) + evaluate(own, opponent, 5, QubicPosition.STARTS_5)
+                + evaluate(own, opponent, 3, QubicPosition.STARTS_3) + evaluate(own, opponent, 17, QubicPosition.STARTS_17)
+                + evaluate(own, opponent, 15, QubicPosition.STARTS_15) + evaluate(own, opponent, 20, QubicPosition.STARTS_20)
+                + evaluate(own, opponent, 12, QubicPosition.STARTS_12) + evaluate(own, opponent, 21, QubicPosition.STARTS_21)
+                + evaluate(own, opponent, 19, QubicPosition.STARTS_19) + evaluate(own, opponent, 13, QubicPosition.STARTS_13)
+                + evaluate(own, opponent, 11, QubicPosition.STARTS_11);
+    }
+
+    /**
+     * the open lines of one direction, those of own minus those of the opponent
+     */
+    private static int evaluate(long own, long opponent, int s, long starts) {
+        return score(own, QubicPosition.getOpen(opponent, s, starts), s) - score(opponent, QubicPosition.getOpen(own, s, starts), s);
+    }
+
+    /**
+     * open lines weighted by the stones in them; the four stones of every line are added up bitwise,
+     * for all lines of the direction at once
+     */
+    private static int score(long own, long open, int s) {
+        long a = own;
+        long b = own >>> s;
+        long c = own >>> 2 * s;
+        long d = own >>> 3 * s;
+
+        // stones in a line = 2 * carries + odd; pairs is set for exactly one carry, anyPair for at least one
+        long odd = a ^ b ^ c ^ d;
+        long pairs = (a & b) ^ (c & d) ^ ((a ^ b) & (c ^ d));
+        long anyPair = (a & b) | (c & d) | ((a ^ b) & (c ^ d));
+
+        return WEIGHT_ONE * Long.bitCount(open & odd & ~anyPair) + WEIGHT_TWO * Long.bitCount(open & ~odd & pairs);
+    }
+}
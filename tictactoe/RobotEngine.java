@@ -0,0 +1,205 @@
+package tictactoe;
+
+import java.util.SplittableRandom;
+
+/**
+ * Swing-free move choice of a robot player.
+ *
+ * PlayerRobot uses it to play on the Swing board, headless tools use it directly on a Position.
+ * An engine is not thread-safe, give every thread its own.
+ *
+ * HARD plays the solved table on 3x3, the endgame database of a board EndgameGenerator solved,
+ * and searches within the time budget elsewhere. EASY and
+ * MEDIUM are bounded searches: a small depth and node cap, then a random pick among the root
+ * moves scoring within a margin of the best. A weak robot is also a cheap one. MCTS plays by
+ * Monte Carlo tree search instead of alpha-beta, for the large boards; its node limit is a
+ * playout limit.
+ */
+class RobotEngine {
+    // search bounds per level, indexed by EASY, MEDIUM, HARD and MCTS; 0 means unlimited
+    final static int[] DEPTH_LIMITS = {1, 3, 0, 0};
+    final static long[] NODE_LIMITS = {1_000, 20_000, 0, 0};
+    final static int[] ROOT_MARGINS = {100, 4, 0, 0};
+
+    private final int level;
+    private final ParallelSearch search;
+    private final MctsSearch mcts;      // null unless the level is MCTS
+    private final SplittableRandom random;
+    private boolean fromTable;  // the last move was a solved table lookup
+    private int score;          // score of the position of the last chooseMove
+
+    /**
+     * @param level robot level, EASY, MEDIUM, HARD or MCTS
+     * @param threads threads searching one move at the HARD and MCTS levels
+     */
+    public RobotEngine(int level, int threads) {
+        this(level, threads, System.nanoTime());
+    }
+
+    /**
+     * @param level robot level, EASY, MEDIUM, HARD or MCTS
+     * @param threads threads searching one move at the HARD and MCTS levels
+     * @param seed seed of the random picks of the weaker levels and of the playouts
+     */
+    public RobotEngine(int level, int threads, long seed) {
+        this.level = level;
+        this.random = new SplittableRandom(seed);
+
+        // the weaker levels are cheap enough for one thread, and stay reproducible with it
+        this.search = new ParallelSearch(level == Game.HARD ? threads : 1);
+        this.search.setDepthLimit(DEPTH_LIMITS[level]);
+        this.search.setNodeLimit(NODE_LIMITS[level]);
+        this.search.setRootMargin(ROOT_MARGINS[level]);
+
+        this.mcts = level == Game.MCTS ? new MctsSearch(threads, MctsSearch.DEFAULT_CAPACITY, seed) : null;
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * @param timeLimitMillis milliseconds per move, 0 for no limit
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.search.setTimeLimit(timeLimitMillis);
+        if (this.mcts != null) {
+            this.mcts.setTimeLimit(timeLimitMillis);
+        }
+    }
+
+    /**
+     * the weaker levels keep their own node cap if it is smaller
+     *
+     * @param nodeLimit nodes per move and thread, 0 for no limit
+     */
+    public void setNodeLimit(long nodeLimit) {
+        long levelLimit = NODE_LIMITS[this.level];
+
+        this.search.setNodeLimit(levelLimit == 0 || (nodeLimit > 0 && nodeLimit < levelLimit) ? nodeLimit : levelLimit);
+        if (this.mcts != null) {
+            this.mcts.setPlayoutLimit(nodeLimit);
+        }
+    }
+
+    /**
+     * stop the running chooseMove soon, the engine is not used any more after that;
+     * may be called from any thread
+     */
+    public void cancel() {
+        this.search.cancel();
+        if (this.mcts != null) {
+            this.mcts.cancel();
+        }
+    }
+
+    /**
+     * search again after cancel, on the thread calling chooseMove
+     */
+    public void resume() {
+        this.search.resume();
+        if (this.mcts != null) {
+            this.mcts.resume();
+        }
+    }
+
+    public boolean isCancelled() {
+        return this.mcts != null ? this.mcts.isCancelled() : this.search.isCancelled();
+    }
+
+    /**
+     * number of nodes the last search visited
+     *
+     * @return node count of the last chooseMove, playouts at the MCTS level, 0 if it was answered from the solved table
+     */
+    public long getNodeCount() {
+        return this.fromTable ? 0 : this.mcts != null ? this.mcts.getPlayoutCount() : this.search.getNodeCount();
+    }
+
+    /**
+     * score of the position of the last chooseMove for its side to move, SCORE_WIN or SCORE_LOSS
+     * once proven, as in Search
+     *
+     * @return the score, SCORE_MIN at the MCTS level or if no search iteration completed
+     */
+    public int getScore() {
+        return this.score;
+    }
+
+    /**
+     * choose the move of the side to move
+     *
+     * @param position game position, restored before returning
+     * @return index of the chosen cell, or -1 if there is no move
+     */
+    public int chooseMove(Position position) {
+        return chooseMove(position, this.random);
+    }
+
+    /**
+     * choose the move of the side to move
+     *
+     * @param position game position, restored before returning
+     * @param random random source of the weaker levels and the playouts, the caller's one makes games reproducible
+     * @return index of the chosen cell, or -1 if there is no move
+     */
+    public int chooseMove(Position position, SplittableRandom random) {
+        // the solved 3x3 game and the boards with an endgame database are a table lookup, too cheap to be timed
+        EndgameTable endgame = null;
+        this.fromTable = this.level == Game.HARD
+                && (SolvedTable.covers(position) || (endgame = EndgameTable.find(position)) != null);
+        if (this.fromTable) {
+            if (Game.STATS_ENABLED) {
+                SearchStats.INSTANCE.recordSolvedTable();
+            }
+            if (endgame != null) {
+                this.score = SolvedTable.toScore(EndgameTable.getValue(endgame.getEntry(position)));
+                return endgame.getBestMove(position);
+            }
+            this.score = SolvedTable.toScore(SolvedTable.getInstance().getValue(position));
+            return SolvedTable.getInstance().getBestMove(position);
+        }
+
+        if (!Game.STATS_ENABLED) {
+            return searchMove(position, random);
+        }
+
+        long start = System.nanoTime();
+        int index = searchMove(position, random);
+        if (this.mcts != null) {
+            SearchStats.INSTANCE.recordMcts(getNodeCount(), System.nanoTime() - start);
+        } else {
+            SearchStats.INSTANCE.recordSearch(getNodeCount(), this.search.getCompletedDepth(), System.nanoTime() - start);
+        }
+
+        return index;
+    }
+
+    private int searchMove(Position position, SplittableRandom random) {
+        if (this.mcts != null) {
+            this.score = Game.SCORE_MIN;
+            return this.mcts.chooseMove(position, random);
+        }
+
+        int bestIndex = this.search.getNextBestMove(position);
+        this.score = this.search.getCompletedDepth() > 0 ? this.search.getScore() : Game.SCORE_MIN;
+        if (this.level == Game.HARD || bestIndex < 0 || this.search.getCompletedDepth() == 0) {
+            return bestIndex;
+        }
+
+        // pick uniformly among the moves scoring within the margin of the best one
+        int threshold = this.search.getScore() - ROOT_MARGINS[this.level];
+        int chosen = bestIndex;
+        int candidates = 0;
+
+        for (long empty = position.getEmptyMask(); empty != 0; empty &= empty - 1) {
+            int index = Long.numberOfTrailingZeros(empty);
+
+            if (this.search.getRootScore(index) >= threshold && random.nextInt(++candidates) == 0) {
+                chosen = index;
+            }
+        }
+
+        return chosen;
+    }
+}
@@ -0,0 +1,466 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Swing-free minimax search on a Position.
+ *
+ * The side to move at the root is the maximizing player. The search deepens iteratively one ply
+ * at a time and scores the positions at the horizon heuristically, so a time or node budget per
+ * move can stop it and the best move of the last completed iteration is played.
+ */
+class Search {
+    private final int[] killers;    // best move found at each depth by the previous searches
+    private int previousBest;       // best root move of the previous search
+    private long nodeCount;         // nodes visited by the last search
+    private int score;              // score of the move chosen by the last search
+    private int completedDepth;     // horizon of the last completed iteration
+
+    private final TranspositionTable table;     // shared by consecutive searches
+
+    // per move budget, 0 means unlimited
+    private long timeLimitMillis;
+    private long nodeLimit;
+    private int depthLimit;
+
+    // set by ParallelSearch to diversify its helper threads
+    private AtomicBoolean stopSignal;   // raised when the main thread has finished
+    private int firstHorizon = 1;
+    private int rootRotation;
+
+    // root moves scoring within the margin of the best get an exact score, for the weaker robot levels
+    private int rootMargin;
+    private final int[] iterationScores;    // root scores of the running iteration
+    private final int[] rootScores;         // root scores of the last completed iteration
+
+    // state of the running search
+    private int horizon;            // plies below the root searched by the current iteration
+    private int rootSide;           // cell type of the maximizing player
+    private long deadline;
+    private boolean aborted;
+
+    public Search() {
+        this(new TranspositionTable());
+    }
+
+    public Search(TranspositionTable table) {
+        this.killers = new int[LineTable.MAX_CELLS + 1];
+        this.iterationScores = new int[LineTable.MAX_CELLS];
+        this.rootScores = new int[LineTable.MAX_CELLS];
+        this.previousBest = -1;
+        this.table = table;
+
+        Arrays.fill(this.killers, -1);
+    }
+
+    /**
+     * set a hard time budget per move
+     *
+     * @param timeLimitMillis milliseconds per move, 0 for no limit
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    /**
+     * set a hard node budget per move
+     *
+     * @param nodeLimit nodes per move, 0 for no limit
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * stop deepening after the given horizon
+     *
+     * @param depthLimit plies below the root, 0 for no limit
+     */
+    public void setDepthLimit(int depthLimit) {
+        this.depthLimit = depthLimit;
+    }
+
+    /**
+     * forget everything learned by previous searches
+     */
+    public void clear() {
+        Arrays.fill(this.killers, -1);
+        this.previousBest = -1;
+        this.table.clear();
+    }
+
+    /**
+     * let another thread stop the search
+     *
+     * @param stopSignal checked together with the clock, null for none
+     */
+    public void setStopSignal(AtomicBoolean stopSignal) {
+        this.stopSignal = stopSignal;
+    }
+
+    /**
+     * @param firstHorizon horizon of the first iteration
+     */
+    public void setFirstHorizon(int firstHorizon) {
+        this.firstHorizon = firstHorizon;
+    }
+
+    /**
+     * @param rootRotation number of statically ordered root moves to rotate to the back
+     */
+    public void setRootRotation(int rootRotation) {
+        this.rootRotation = rootRotation;
+    }
+
+    /**
+     * @param rootMargin root moves scoring at least best - rootMargin get an exact score
+     */
+    public void setRootMargin(int rootMargin) {
+        this.rootMargin = rootMargin;
+    }
+
+    /**
+     * score of a root move in the last completed iteration
+     *
+     * @param index cell index
+     * @return the exact score, or SCORE_MIN if the move scored below best - rootMargin or is illegal
+     */
+    public int getRootScore(int index) {
+        return this.completedDepth > 0 ? this.rootScores[index] : Game.SCORE_MIN;
+    }
+
+    public long getNodeCount() {
+        return this.nodeCount;
+    }
+
+    public int getScore() {
+        return this.score;
+    }
+
+    public int getCompletedDepth() {
+        return this.completedDepth;
+    }
+
+    public TranspositionTable getTable() {
+        return this.table;
+    }
+
+    /**
+     * Get the next best move for the side to move.
+     *
+     * Without a budget the last iteration searches to the end of the game, and the choice is the same
+     * as the plain minimax: the lowest index among the best scored cells.
+     *
+     * @param position game position, restored before returning
+     * @return index of the best cell, or -1 if there is no move
+     */
+    public int getNextBestMove(Position position) {
+        long empty = position.getEmptyMask();
+        int depthToEnd = this.depthLimit > 0 ? Math.min(this.depthLimit, Long.bitCount(empty)) : Long.bitCount(empty);
+
+        this.nodeCount = 0;
+        this.completedDepth = 0;
+        this.rootSide = position.getSideToMove();
+        this.deadline = this.timeLimitMillis > 0 ? System.nanoTime() + this.timeLimitMillis * 1_000_000 : Long.MAX_VALUE;
+        this.aborted = false;
+
+        // before the first iteration completes, fall back to the best ordered legal move
+        int bestIndex = -1;
+        int bestScore = Game.SCORE_MIN;
+        for (int index : position.getLines().getMoveOrder()) {
+            if ((empty & (1L << index)) != 0) {
+                bestIndex = index;
+                break;
+            }
+        }
+
+        for (this.horizon = Math.min(this.firstHorizon, depthToEnd); this.horizon <= depthToEnd; this.horizon++) {
+            int index = searchRoot(position);
+            if (this.aborted) {
+                break;
+            }
+
+            bestIndex = index;
+            bestScore = this.score;
+            this.completedDepth = this.horizon;
+            System.arraycopy(this.iterationScores, 0, this.rootScores, 0, this.rootScores.length);
+            this.previousBest = index;  // searched first by the next iteration
+        }
+
+        this.score = bestScore;
+        return bestIndex;
+    }
+
+    /**
+     * search every root move to the current horizon
+     *
+     * @param position game position
+     * @return index of the best cell
+     */
+    private int searchRoot(Position position) {
+        // cells ordered by the number of winning lines through them: centre, corners, then edges
+        int[] moveOrder = position.getLines().getMoveOrder();
+
+        long empty = position.getEmptyMask();
+        int bestIndex = -1;
+        int bestScore = Game.SCORE_MIN;
+
+        Arrays.fill(this.iterationScores, Game.SCORE_MIN);
+
+        for (int i = -1; i < moveOrder.length; i++) {
+            int index = i < 0 ? this.previousBest : moveOrder[(i + this.rootRotation) % moveOrder.length];
+            if (index < 0 || (empty & (1L << index)) == 0 || (i >= 0 && index == this.previousBest)) {
+                continue;
+            }
+
+            // a lower index than the current best also wins ties, so it has to prove a score >= bestScore
+            int alpha = index < bestIndex ? bestScore - 1 : bestScore;
+
+            position.makeMove(index);
+            int score = alphaBeta(position, 1, alpha - this.rootMargin, Game.SCORE_MAX, false);
+            position.unmakeMove(index);
+
+            if (this.aborted) {
+                break;
+            }
+
+            if (score > alpha - this.rootMargin) {
+                this.iterationScores[index] = score;
+            }
+
+            if (score > alpha) {
+                bestScore = score;
+                bestIndex = index;
+            }
+        }
+
+        this.score = bestScore;
+        return bestIndex;
+    }
+
+    /**
+     * alpha-beta pruned minimax with move ordering
+     *
+     * @param position game position
+     * @param depth how many levels down, the search stops at the horizon
+     * @param alpha score the maximizing player is already assured of
+     * @param beta score the minimizing player is already assured of
+     * @param isMaximizing if it's maximizing player moving
+     * @return the score for the current position, exact when it falls inside (alpha, beta)
+     */
+    public int alphaBeta(Position position, int depth, int alpha, int beta, boolean isMaximizing) {
+        this.nodeCount++;
+
+        // the side that just moved is the only one who can have won
+        if (position.isWon()) {
+            return isMaximizing ? Game.SCORE_LOSS : Game.SCORE_WIN;
+        }
+
+        long empty = position.getEmptyMask();
+        if (empty == 0 || position.isDeadDraw()) {
+            return Game.SCORE_DRAW;
+        }
+
+        if (isOverBudget()) {
+            this.aborted = true;
+            return Game.SCORE_DRAW;
+        }
+
+        if (depth >= this.horizon) {
+            return evaluate(position);
+        }
+
+        LineTable lines = position.getLines();
+        int[] moveOrder = lines.getMoveOrder();
+
+        // below the horizon the score depends on the draft, otherwise only on the position
+        int draft = Math.min(this.horizon - depth, Long.bitCount(empty));
+        int symmetry = position.getCanonicalSymmetry();
+        long key = position.getHash(symmetry);
+
+        int hashMove = -1;
+        int entry = this.table.probe(key);
+        if (entry != 0) {
+            int move = TranspositionTable.getMove(entry);
+            if (move != TranspositionTable.NO_MOVE) {
+                hashMove = lines.getInverseSymmetry(symmetry, move);
+            }
+
+            if (TranspositionTable.getDraft(entry) >= draft) {
+                // stored for the side to move, turn it into the maximizing player's view
+                int score = TranspositionTable.getScore(entry);
+                int bound = TranspositionTable.getBound(entry);
+                if (!isMaximizing) {
+                    score = -score;
+                    bound = flipBound(bound);
+                }
+
+                if (bound == TranspositionTable.EXACT) {
+                    return score;
+                } else if (bound == TranspositionTable.LOWER_BOUND) {
+                    alpha = Math.max(alpha, score);
+                } else {
+                    beta = Math.min(beta, score);
+                }
+
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+        }
+
+        int alphaOrig = alpha;
+        int betaOrig = beta;
+
+        int killer = this.killers[depth];
+        int bestEval = isMaximizing ? Game.SCORE_MIN : Game.SCORE_MAX;
+        int bestIndex = -1;
+
+        // try the hash move and the killer move first, then the statically ordered cells
+        for (int i = -2; i < moveOrder.length; i++) {
+            int index = i == -2 ? hashMove : i == -1 ? killer : moveOrder[i];
+            if (index < 0 || (empty & (1L << index)) == 0
+                    || (i >= -1 && index == hashMove) || (i >= 0 && index == killer)) {
+                continue;
+            }
+
+            position.makeMove(index);
+            int eval = alphaBeta(position, depth + 1, alpha, beta, !isMaximizing);
+            position.unmakeMove(index);
+
+            if (this.aborted) {
+                return Game.SCORE_DRAW;     // the iteration is thrown away, store nothing
+            }
+
+            if (isMaximizing ? eval > bestEval : eval < bestEval) {
+                bestEval = eval;
+                bestIndex = index;
+            }
+
+            if (isMaximizing) {
+                alpha = Math.max(alpha, eval);
+            } else {
+                beta = Math.min(beta, eval);
+            }
+
+            if (alpha >= beta) {
+                this.killers[depth] = index;    // remember the refutation for the sibling positions
+                break;
+            }
+        }
+
+        int bound = bestEval <= alphaOrig ? TranspositionTable.UPPER_BOUND
+                : bestEval >= betaOrig ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        int score = bestEval;
+        if (!isMaximizing) {
+            score = -score;
+            bound = flipBound(bound);
+        }
+
+        this.table.store(key, score, bound, draft, lines.getSymmetry(symmetry, bestIndex));
+
+        return bestEval;
+    }
+
+    /**
+     * check the budget, the clock and the stop signal only every 1024 nodes
+     *
+     * @return true if the search has to stop
+     */
+    private boolean isOverBudget() {
+        if (this.nodeLimit > 0 && this.nodeCount > this.nodeLimit) {
+            return true;
+        }
+
+        return (this.nodeCount & 1023) == 0
+                && (System.nanoTime() > this.deadline || (this.stopSignal != null && this.stopSignal.get()));
+    }
+
+    /**
+     * heuristic score at the horizon for the maximizing player.
+     *
+     * Every line still open for only one side counts for that side, growing four times per stone,
+     * the total stays strictly between a loss and a win.
+     *
+     * @param position game position
+     * @return the estimated score
+     */
+    public int evaluate(Position position) {
+        return evaluate(position, this.rootSide);
+    }
+
+    /**
+     * heuristic score at the horizon for the given side, see evaluate(Position)
+     *
+     * @param position game position
+     * @param side CELL_X or CELL_O
+     * @return the estimated score
+     */
+    static int evaluate(Position position, int side) {
+        LineTable lines = position.getLines();
+        int opponent = side == Game.CELL_X ? Game.CELL_O : Game.CELL_X;
+        int eval = 0;
+
+        for (int line = 0; line < lines.getLineCount(); line++) {
+            int own = position.getLineCount(line, side);
+            int opp = position.getLineCount(line, opponent);
+
+            if (opp == 0 && own > 0) {
+                eval += 1 << (2 * own - 2);
+            } else if (own == 0 && opp > 0) {
+                eval -= 1 << (2 * opp - 2);
+            }
+        }
+
+        return Math.max(Game.SCORE_LOSS + 1, Math.min(Game.SCORE_WIN - 1, eval));
+    }
+
+    private static int flipBound(int bound) {
+        switch (bound) {
+            case TranspositionTable.LOWER_BOUND:
+                return TranspositionTable.UPPER_BOUND;
+            case TranspositionTable.UPPER_BOUND:
+                return TranspositionTable.LOWER_BOUND;
+            default:
+                return bound;
+        }
+    }
+
+    /**
+     * plain minimax algorithm implementation, kept as the reference for the pruned search
+     *
+     * @param position game position
+     * @param depth how many levels down
+     * @param isMaximizing if it's maximizing player moving
+     * @return the score for the current position
+     */
+    public int miniMaxMove(Position position, int depth, boolean isMaximizing) {
+        this.nodeCount++;
+
+        // the side that just moved is the only one who can have won
+        if (position.isWon()) {
+            return isMaximizing ? Game.SCORE_LOSS : Game.SCORE_WIN;
+        }
+
+        long empty = position.getEmptyMask();
+        if (empty == 0) {
+            return Game.SCORE_DRAW;
+        }
+
+        int bestEval = isMaximizing ? Game.SCORE_MIN : Game.SCORE_MAX;
+
+        // loop through available spots
+        for (; empty != 0; empty &= empty - 1) {
+            int index = Long.numberOfTrailingZeros(empty);
+
+            position.makeMove(index);
+            int eval = miniMaxMove(position, depth + 1, !isMaximizing);
+            position.unmakeMove(index);
+
+            bestEval = isMaximizing ? Math.max(bestEval, eval) : Math.min(bestEval, eval);
+        }
+
+        return bestEval;
+    }
+}
@@ -0,0 +1,165 @@
+package tictactoe;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers of the robot move choices, one record per chosen move. Searched moves are
+ * timed, solved table lookups are only counted. MCTS moves count playouts instead of nodes and
+ * have no depth, they are kept apart so the search averages stay in one unit.
+ *
+ * The counters are striped LongAdders, so robots on many threads don't contend. Callers only
+ * record when Game.STATS_ENABLED is set; with -Dtictactoe.stats=false the checks are constant
+ * false and the JIT drops them together with the clock reads.
+ */
+class SearchStats implements SearchStatsMBean {
+    final static SearchStats INSTANCE = new SearchStats();
+
+    private final LongAdder moves = new LongAdder();        // searched moves
+    private final LongAdder solvedTableMoves = new LongAdder();
+    private final LongAdder mctsMoves = new LongAdder();
+    private final LongAdder playouts = new LongAdder();
+    private final LongAdder playoutNanos = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder depths = new LongAdder();
+    private final LongAdder thinkNanos = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxThinkNanos = new LongAccumulator(Math::max, 0);
+
+    private SearchStats() {
+    }
+
+    /**
+     * register the MBean with the platform server, once
+     */
+    static void register() {
+        registerMBean(INSTANCE, "tictactoe:type=Search");
+    }
+
+    static void registerMBean(Object mbean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+
+            synchronized (SearchStats.class) {
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(mbean, objectName);
+                }
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("can't register " + name, e);
+        }
+    }
+
+    /**
+     * @param nodes nodes searched for the move
+     * @param depth deepest completed iteration
+     * @param nanos time to choose the move
+     */
+    void recordSearch(long nodes, int depth, long nanos) {
+        this.moves.increment();
+        this.nodes.add(nodes);
+        this.depths.add(depth);
+        this.thinkNanos.add(nanos);
+        this.maxDepth.accumulate(depth);
+        this.maxThinkNanos.accumulate(nanos);
+    }
+
+    /**
+     * @param playouts playouts of the MCTS move
+     * @param nanos time to choose the move
+     */
+    void recordMcts(long playouts, long nanos) {
+        this.mctsMoves.increment();
+        this.playouts.add(playouts);
+        this.playoutNanos.add(nanos);
+        this.maxThinkNanos.accumulate(nanos);
+    }
+
+    void recordSolvedTable() {
+        this.solvedTableMoves.increment();
+    }
+
+    @Override
+    public long getMoves() {
+        return this.moves.sum() + getSolvedTableMoves() + getMctsMoves();
+    }
+
+    @Override
+    public long getSolvedTableMoves() {
+        return this.solvedTableMoves.sum();
+    }
+
+    @Override
+    public long getMctsMoves() {
+        return this.mctsMoves.sum();
+    }
+
+    @Override
+    public long getPlayouts() {
+        return this.playouts.sum();
+    }
+
+    @Override
+    public double getPlayoutsPerSecond() {
+        long nanos = this.playoutNanos.sum();
+        return nanos == 0 ? 0 : getPlayouts() / (nanos / 1e9);
+    }
+
+    @Override
+    public long getNodes() {
+        return this.nodes.sum();
+    }
+
+    @Override
+    public double getAverageNodes() {
+        long searched = this.moves.sum();
+        return searched == 0 ? 0 : (double) getNodes() / searched;
+    }
+
+    @Override
+    public double getAverageDepth() {
+        long searched = this.moves.sum();
+        return searched == 0 ? 0 : (double) this.depths.sum() / searched;
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return (int) this.maxDepth.get();
+    }
+
+    @Override
+    public double getAverageThinkMillis() {
+        long searched = this.moves.sum();
+        return searched == 0 ? 0 : this.thinkNanos.sum() / 1e6 / searched;
+    }
+
+    @Override
+    public double getMaxThinkMillis() {
+        return this.maxThinkNanos.get() / 1e6;
+    }
+
+    @Override
+    public double getNodesPerSecond() {
+        long nanos = this.thinkNanos.sum();
+        return nanos == 0 ? 0 : getNodes() / (nanos / 1e9);
+    }
+
+    @Override
+    public void reset() {
+        this.moves.reset();
+        this.solvedTableMoves.reset();
+        this.mctsMoves.reset();
+        this.playouts.reset();
+        this.playoutNanos.reset();
+        this.nodes.reset();
+        this.depths.reset();
+        this.thinkNanos.reset();
+        this.maxDepth.reset();
+        this.maxThinkNanos.reset();
+    }
+}
@@ -0,0 +1,32 @@
+package tictactoe;
+
+/**
+ * JMX view of the robot move choices, registered as tictactoe:type=Search.
+ */
+public interface SearchStatsMBean {
+    long getMoves();
+
+    long getSolvedTableMoves();
+
+    long getMctsMoves();
+
+    long getPlayouts();
+
+    double getPlayoutsPerSecond();
+
+    long getNodes();
+
+    double getAverageNodes();
+
+    double getAverageDepth();
+
+    int getMaxDepth();
+
+    double getAverageThinkMillis();      // of the searched moves, MCTS moves aside
+
+    double getMaxThinkMillis();
+
+    double getNodesPerSecond();
+
+    void reset();
+}
@@ -0,0 +1,435 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless robot-vs-robot batch runner for regression testing the engine at scale.
+ *
+ * Uses no AWT or Swing classes. Games are spread over all cores, every game gets its own random
+ * seed derived from the base seed, so the random players, the picks of the weaker robots and
+ * the MCTS playouts replay identically whatever the thread count. Usage:
+ *
+ *   java tictactoe.SimulationRunner --games 1000000 --size 3 --k 3 --x hard --o random --seed 1
+ *
+ * Options: --games, --size, --k, --x and --o (random, easy, medium, hard or mcts), --seed, --threads,
+ * --time (milliseconds per robot move), --nodes (nodes per robot move), --record (a GameLog
+ * file every game is appended to) and --variant (standard, ultimate or qubic). Ultimate and
+ * qubic games ignore --size and --k, cannot be recorded, and their robots get VARIANT_NODE_LIMIT
+ * nodes a move if neither --time nor --nodes is given; the run reports the self-play throughput
+ * in moves/sec.
+ *
+ *   java tictactoe.SimulationRunner --variant ultimate --games 200 --x hard --o hard --nodes 20000
+ */
+public class SimulationRunner {
+    // player types besides the robot levels
+    final static int RANDOM = -1;
+
+    // games a worker takes at once
+    private final static int CHUNK = 4096;
+
+    // games played, the size x size board, ultimate tic-tac-toe or the 4x4x4 cube
+    final static int STANDARD = 0;
+    final static int ULTIMATE = 1;
+    final static int QUBIC = 2;
+
+    // budget of an ultimate or qubic robot move without --time or --nodes, a search to the end would never return
+    final static long VARIANT_NODE_LIMIT = 100_000;
+
+    private final int games;
+    private final int size;
+    private final int winLength;
+    private final int playerX;
+    private final int playerO;
+    private final long seed;
+    private final int threads;
+    private final long timeLimitMillis;
+    private final long nodeLimit;
+    private GameLog log;        // null if the games are not recorded
+    private int variant;        // STANDARD, ULTIMATE or QUBIC
+
+    public SimulationRunner(int games, int size, int winLength, int playerX, int playerO, long seed,
+                            int threads, long timeLimitMillis, long nodeLimit) {
+        this.games = games;
+        this.size = size;
+        this.winLength = winLength;
+        this.playerX = playerX;
+        this.playerO = playerO;
+        this.seed = seed;
+        this.threads = threads;
+        this.timeLimitMillis = timeLimitMillis;
+        this.nodeLimit = nodeLimit;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+
+        SimulationRunner runner = new SimulationRunner(
+                Integer.parseInt(options.getOrDefault("games", "100000")),
+                Integer.parseInt(options.getOrDefault("size", String.valueOf(Game.SIZE))),
+                Integer.parseInt(options.getOrDefault("k", String.valueOf(Game.WIN_LENGTH))),
+                parsePlayer(options.getOrDefault("x", "hard")),
+                parsePlayer(options.getOrDefault("o", "random")),
+                Long.parseLong(options.getOrDefault("seed", "1")),
+                Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Long.parseLong(options.getOrDefault("time", "0")),
+                Long.parseLong(options.getOrDefault("nodes", "0")));
+
+        runner.setVariant(parseVariant(options.getOrDefault("variant", "standard")));
+
+        String record = options.get("record");
+        if (record != null && runner.variant != STANDARD) {
+            throw new IllegalArgumentException("ultimate and qubic games cannot be recorded");
+        }
+        if (record != null) {
+            runner.setLog(new GameLog(Paths.get(record), runner.size, runner.winLength, runner.playerX, runner.playerO));
+        }
+
+        if (Game.STATS_ENABLED) {
+            SearchStats.register();
+            GameStats.register();
+        }
+
+        long start = System.nanoTime();
+        Result result = runner.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (runner.log != null) {
+            runner.log.close();
+        }
+
+        if (runner.variant == ULTIMATE) {
+            System.out.println("board      ultimate, 9 boards of 3x3");
+        } else if (runner.variant == QUBIC) {
+            System.out.println("board      qubic, 4x4x4");
+        } else {
+            System.out.printf("board      %dx%d, %d in a row%n", runner.size, runner.size, runner.winLength);
+        }
+        System.out.printf("players    X=%s O=%s, seed %d%n", playerName(runner.playerX), playerName(runner.playerO), runner.seed);
+        System.out.printf("threads    %d%n", runner.threads);
+        System.out.printf("games      %d in %.3f s, %.0f games/sec%n", result.games, seconds, result.games / seconds);
+        System.out.printf("X wins     %d (%.2f%%)%n", result.xWins, 100.0 * result.xWins / result.games);
+        System.out.printf("draws      %d (%.2f%%)%n", result.draws, 100.0 * result.draws / result.games);
+        System.out.printf("O wins     %d (%.2f%%)%n", result.oWins, 100.0 * result.oWins / result.games);
+        System.out.printf("avg plies  %.2f%n", (double) result.plies / result.games);
+        System.out.printf("moves      %d, %.0f moves/sec%n", result.plies, result.plies / seconds);
+
+        if (runner.log != null) {
+            System.out.printf("recorded   %d games to %s, %d bytes%n", runner.log.getGameCount(), record, runner.log.getEnd());
+        }
+    }
+
+    /**
+     * @param log log every played game is appended to, null for none
+     */
+    public void setLog(GameLog log) {
+        this.log = log;
+    }
+
+    /**
+     * @param variant STANDARD, ULTIMATE or QUBIC; the board size and win length only apply to STANDARD
+     */
+    public void setVariant(int variant) {
+        this.variant = variant;
+    }
+
+    /**
+     * play all games on the worker threads
+     *
+     * @return the merged results
+     */
+    public Result run() {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        AtomicLong nextGame = new AtomicLong();
+
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < this.threads; i++) {
+                futures.add(pool.submit(() -> this.variant == ULTIMATE ? playUltimateGames(nextGame)
+                        : this.variant == QUBIC ? playQubicGames(nextGame) : playGames(nextGame)));
+            }
+
+            Result total = new Result();
+            for (Future<Result> future : futures) {
+                total.add(future.get());
+            }
+
+            return total;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("simulation interrupted", ie);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("simulation failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * worker loop, takes chunks of games until all are played
+     */
+    private Result playGames(AtomicLong nextGame) {
+        Position position = new Position(this.size, this.winLength);
+        RobotEngine engineX = createEngine(this.playerX);
+        RobotEngine engineO = createEngine(this.playerO);
+        Result result = new Result();
+        int[] moves = new int[GameRecord.MAX_PLIES];
+
+        for (long first = nextGame.getAndAdd(CHUNK); first < this.games; first = nextGame.getAndAdd(CHUNK)) {
+            long last = Math.min(first + CHUNK, this.games);
+
+            for (long game = first; game < last; game++) {
+                SplittableRandom random = new SplittableRandom(this.seed + game * 0x9E3779B97F4A7C15L);
+                position.clear();
+
+                if (Game.STATS_ENABLED) {
+                    GameStats.INSTANCE.recordStart();
+                }
+
+                while (position.getState() == Game.IN_PROGRESS) {
+                    boolean isX = position.getSideToMove() == Game.CELL_X;
+                    RobotEngine engine = isX ? engineX : engineO;
+
+                    int index = engine == null ? position.getRandomMove(random) : engine.chooseMove(position, random);
+                    moves[position.getPly()] = index;
+                    position.makeMove(index);
+                }
+
+                result.record(position.getState(), position.getPly());
+
+                if (Game.STATS_ENABLED) {
+                    GameStats.INSTANCE.recordEnd(position.getState());
+                }
+
+                if (this.log != null) {
+                    try {
+                        this.log.append(moves, position.getPly(), position.getState());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * worker loop of the ultimate games, takes chunks of games until all are played
+     */
+    private Result playUltimateGames(AtomicLong nextGame) {
+        UltimatePosition position = new UltimatePosition();
+        UltimateSearch searchX = createUltimateSearch(this.playerX);
+        UltimateSearch searchO = createUltimateSearch(this.playerO);
+        Result result = new Result();
+
+        for (long first = nextGame.getAndAdd(CHUNK); first < this.games; first = nextGame.getAndAdd(CHUNK)) {
+            long last = Math.min(first + CHUNK, this.games);
+
+            for (long game = first; game < last; game++) {
+                SplittableRandom random = new SplittableRandom(this.seed + game * 0x9E3779B97F4A7C15L);
+                position.clear();
+
+                if (Game.STATS_ENABLED) {
+                    GameStats.INSTANCE.recordStart();
+                }
+
+                while (position.getState() == Game.IN_PROGRESS) {
+                    UltimateSearch search = position.getSideToMove() == Game.CELL_X ? searchX : searchO;
+                    position.makeMove(search == null ? position.getRandomMove(random) : search.chooseMove(position));
+                }
+
+                result.record(position.getState(), position.getPly());
+
+                if (Game.STATS_ENABLED) {
+                    GameStats.INSTANCE.recordEnd(position.getState());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private UltimateSearch createUltimateSearch(int player) {
+        if (player == RANDOM) {
+            return null;
+        }
+
+        UltimateSearch search = new UltimateSearch(player);
+        search.setTimeLimit(this.timeLimitMillis);
+        search.setNodeLimit(this.timeLimitMillis == 0 && this.nodeLimit == 0 ? VARIANT_NODE_LIMIT : this.nodeLimit);
+
+        return search;
+    }
+
+    /**
+     * worker loop of the qubic games, takes chunks of games until all are played
+     */
+    private Result playQubicGames(AtomicLong nextGame) {
+        QubicPosition position = new QubicPosition();
+        QubicSearch searchX = createQubicSearch(this.playerX);
+        QubicSearch searchO = createQubicSearch(this.playerO);
+        Result result = new Result();
+
+        for (long first = nextGame.getAndAdd(CHUNK); first < this.games; first = nextGame.getAndAdd(CHUNK)) {
+            long last = Math.min(first + CHUNK, this.games);
+
+            for (long game = first; game < last; game++) {
+                SplittableRandom random = new SplittableRandom(this.seed + game * 0x9E3779B97F4A7C15L);
+                position.clear();
+
+                if (Game.STATS_ENABLED) {
+                    GameStats.INSTANCE.recordStart();
+                }
+
+                while (position.getState() == Game.IN_PROGRESS) {
+                    QubicSearch search = position.getSideToMove() == Game.CELL_X ? searchX : searchO;
+                    position.makeMove(search == null ? position.getRandomMove(random) : search.chooseMove(position));
+                }
+
+                result.record(position.getState(), position.getPly());
+
+                if (Game.STATS_ENABLED) {
+                    GameStats.INSTANCE.recordEnd(position.getState());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private QubicSearch createQubicSearch(int player) {
+        if (player == RANDOM) {
+            return null;
+        }
+
+        QubicSearch search = new QubicSearch(player);
+        search.setTimeLimit(this.timeLimitMillis);
+        search.setNodeLimit(this.timeLimitMillis == 0 && this.nodeLimit == 0 ? VARIANT_NODE_LIMIT : this.nodeLimit);
+
+        return search;
+    }
+
+    private RobotEngine createEngine(int player) {
+        if (player == RANDOM) {
+            return null;
+        }
+
+        // the games already keep every core busy, one search thread per robot; the moves draw from the
+        // random source of their game, the seed only covers the engine's own
+        RobotEngine engine = new RobotEngine(player, 1, this.seed + player);
+        engine.setTimeLimit(this.timeLimitMillis);
+        engine.setNodeLimit(this.nodeLimit);
+
+        return engine;
+    }
+
+    /**
+     * parse "--name value" pairs
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("expected --name value, got " + args[i]);
+            }
+
+            options.put(args[i].substring(2), args[++i]);
+        }
+
+        return options;
+    }
+
+    static int parseVariant(String name) {
+        switch (name) {
+            case "standard":
+                return STANDARD;
+            case "ultimate":
+                return ULTIMATE;
+            case "qubic":
+                return QUBIC;
+            default:
+                throw new IllegalArgumentException("unknown variant " + name + ", expected standard, ultimate or qubic");
+        }
+    }
+
+    static int parsePlayer(String name) {
+        switch (name) {
+            case "random":
+                return RANDOM;
+            case "easy":
+                return Game.EASY;
+            case "medium":
+                return Game.MEDIUM;
+            case "hard":
+                return Game.HARD;
+            case "mcts":
+                return Game.MCTS;
+            default:
+                throw new IllegalArgumentException("unknown player " + name + ", expected random, easy, medium, hard or mcts");
+        }
+    }
+
+    static String playerName(int player) {
+        switch (player) {
+            case Game.EASY:
+                return "easy";
+            case Game.MEDIUM:
+                return "medium";
+            case Game.HARD:
+                return "hard";
+            case Game.MCTS:
+                return "mcts";
+            default:
+                return "random";
+        }
+    }
+
+    /**
+     * game outcome counters of one worker, merged at the end
+     */
+    static class Result {
+        long games;
+        long xWins;
+        long oWins;
+        long draws;
+        long plies;
+
+        void record(int state, int ply) {
+            this.games++;
+            this.plies += ply;
+
+            switch (state) {
+                case Game.X_WIN:
+                    this.xWins++;
+                    break;
+                case Game.O_WIN:
+                    this.oWins++;
+                    break;
+                default:
+                    this.draws++;
+                    break;
+            }
+        }
+
+        void add(Result other) {
+            this.games += other.games;
+            this.xWins += other.xWins;
+            this.oWins += other.oWins;
+            this.draws += other.draws;
+            this.plies += other.plies;
+        }
+    }
+}
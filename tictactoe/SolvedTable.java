@@ -0,0 +1,206 @@
+package tictactoe;
+
+/**
+ * Perfect-play table of the 3x3 game.
+ *
+ * Every legal position is indexed by its base-3 encoding (cell i contributes cellType * 3^i) and
+ * maps to one short: the game value for the side to move and the mask of all moves reaching it.
+ * The table is solved once on first use (5,478 positions, a few milliseconds), after that the
+ * HARD robot answers with a single lookup.
+ */
+class SolvedTable {
+    final static int SIZE = 3;
+    final static int CELLS = SIZE * SIZE;
+
+    // value of a position for the side to move, stored above the best move mask
+    final static int VALUE_NONE = 0;    // terminal or unreachable position
+    final static int VALUE_LOSS = 1;
+    final static int VALUE_DRAW = 2;
+    final static int VALUE_WIN = 3;
+
+    private final static int[] POW3 = {1, 3, 9, 27, 81, 243, 729, 2187, 6561, 19683};
+
+    private static SolvedTable instance;
+
+    private final short[] entries;
+    private int positionCount;  // reachable positions, terminal ones included
+
+    private SolvedTable() {
+        this.entries = new short[POW3[CELLS]];
+        this.positionCount = 0;
+
+        boolean[] visited = new boolean[POW3[CELLS]];
+        solve(new Position(SIZE, SIZE), 0, visited);
+    }
+
+    /**
+     * get the table, solving it on the first call
+     *
+     * @return the shared table
+     */
+    public static synchronized SolvedTable getInstance() {
+        if (instance == null) {
+            instance = new SolvedTable();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @param position game position
+     * @return true if the position is on a board the table was solved for
+     */
+    public static boolean covers(Position position) {
+        return position.getSize() == SIZE && position.getWinLength() == SIZE;
+    }
+
+    /**
+     * encode a position as a table index
+     *
+     * @param position game position
+     * @return base-3 index of the position
+     */
+    public static int indexOf(Position position) {
+        int index = 0;
+
+        for (int i = 0; i < CELLS; i++) {
+            index += position.getCellType(i) * POW3[i];
+        }
+
+        return index;
+    }
+
+    /**
+     * @param position game position
+     * @return VALUE_WIN, VALUE_DRAW or VALUE_LOSS for the side to move, VALUE_NONE if the game is over
+     */
+    public int getValue(Position position) {
+        return this.entries[indexOf(position)] >>> CELLS;
+    }
+
+    /**
+     * @param position game position
+     * @return mask of every move that keeps the game value
+     */
+    public int getBestMoves(Position position) {
+        return this.entries[indexOf(position)] & ((1 << CELLS) - 1);
+    }
+
+    /**
+     * the same choice the search makes: the lowest index among the best moves
+     *
+     * @param position game position
+     * @return index of the best cell, or -1 if the game is over
+     */
+    public int getBestMove(Position position) {
+        int moves = getBestMoves(position);
+
+        return moves == 0 ? -1 : Integer.numberOfTrailingZeros(moves);
+    }
+
+    /**
+     * @param value VALUE_WIN, VALUE_DRAW or VALUE_LOSS
+     * @return the minimax score of the value
+     */
+    public static int toScore(int value) {
+        switch (value) {
+            case VALUE_WIN:
+                return Game.SCORE_WIN;
+            case VALUE_LOSS:
+                return Game.SCORE_LOSS;
+            default:
+                return Game.SCORE_DRAW;
+        }
+    }
+
+    public int getPositionCount() {
+        return this.positionCount;
+    }
+
+    /**
+     * solve the position and all positions reachable from it
+     *
+     * @param position game position
+     * @param index base-3 index of the position
+     * @param visited reachable positions already solved
+     * @return the minimax score for the side to move
+     */
+    private int solve(Position position, int index, boolean[] visited) {
+        int state = position.getState();
+
+        if (!visited[index]) {
+            visited[index] = true;
+            this.positionCount++;
+        } else if (state == Game.IN_PROGRESS) {
+            return toScore(this.entries[index] >>> CELLS);
+        }
+
+        // the side that just moved is the only one who can have won
+        if (state == Game.X_WIN || state == Game.O_WIN) {
+            return Game.SCORE_LOSS;
+        } else if (state == Game.DRAW) {
+            return Game.SCORE_DRAW;
+        }
+
+        int sideToMove = position.getSideToMove();
+        int bestScore = Game.SCORE_MIN;
+        int bestMoves = 0;
+
+        for (long empty = position.getEmptyMask(); empty != 0; empty &= empty - 1) {
+            int cell = Long.numberOfTrailingZeros(empty);
+
+            position.makeMove(cell);
+            int score = -solve(position, index + sideToMove * POW3[cell], visited);
+            position.unmakeMove(cell);
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMoves = 1 << cell;
+            } else if (score == bestScore) {
+                bestMoves |= 1 << cell;
+            }
+        }
+
+        int value = bestScore == Game.SCORE_WIN ? VALUE_WIN : bestScore == Game.SCORE_LOSS ? VALUE_LOSS : VALUE_DRAW;
+        this.entries[index] = (short) (value << CELLS | bestMoves);
+
+        return bestScore;
+    }
+
+    /**
+     * verification mode: check every reachable position against the live search,
+     * so the table can't drift from the engine
+     *
+     * @return number of positions where the table and the search disagree
+     */
+    public int verify() {
+        int[] mismatches = {0};
+
+        verify(new Position(SIZE, SIZE), new Search(), new boolean[POW3[CELLS]], mismatches);
+
+        return mismatches[0];
+    }
+
+    private void verify(Position position, Search search, boolean[] visited, int[] mismatches) {
+        int index = indexOf(position);
+        if (visited[index] || position.getState() != Game.IN_PROGRESS) {
+            return;
+        }
+        visited[index] = true;
+
+        int move = search.getNextBestMove(position);
+        if (move != getBestMove(position) || search.getScore() != toScore(getValue(position))) {
+            mismatches[0]++;
+            System.out.printf("table mismatch at %s: table %d (%d), search %d (%d)%n", position,
+                    getBestMove(position), toScore(getValue(position)), move, search.getScore());
+        }
+
+        for (long empty = position.getEmptyMask(); empty != 0; empty &= empty - 1) {
+            int cell = Long.numberOfTrailingZeros(empty);
+
+            position.makeMove(cell);
+            verify(position, search, visited, mismatches);
+            position.unmakeMove(cell);
+        }
+    }
+}
@@ -1,12 +1,32 @@
 package tictactoe;
 
 import javax.swing.*;
+import javax.swing.Timer;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
 import java.util.*;
 
 public class TicTacToe extends JFrame {
+    // robots think here, never on the event dispatch thread
+    private final static ExecutorService ROBOT_THINKER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "robot-thinker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the evaluation overlay has its own thread, so it never delays a robot move
+    private final static ExecutorService EVALUATOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cell-evaluator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * member variables
      */
@@ -22,13 +42,56 @@ public class TicTacToe extends JFrame {
     private JButton buttonPlayer2;
 
     private int state;
-    private final int secondsToSleep;
+    private int robotLevel;     // level of the robots in the next game
+    private boolean endRecorded;    // a game taken back and finished again counts once
+
+    // robot moves are scheduled on a timer, so the window repaints and reacts between them
+    private final Timer moveTimer;
+    private int moveDelayMillis;    // delay before a robot move, 0 in turbo mode
+    private boolean stepMode;       // robots wait for Next Move instead of the timer
+
+    // a recorded game played back on the board, paced like the robot moves
+    private final Timer replayTimer;
+    private int[] replayMoves;      // null when no replay runs
+    private int replayPly;
+    private int replayState;
+    private long replayGame;
+
+    // the robot move in flight, a result is only played if its request is still the current one
+    private Future<?> robotTask;
+    private PlayerRobot thinkingRobot;
+    private int robotRequest;
+
+    // analysis mode: either side moves freely and the engine evaluates every position in the background,
+    // its search keeps the transposition table between positions, so earlier results are reused
+    private boolean analysisMode;
+    private final Search analysis;
+    private AtomicBoolean analysisStop;
+    private int analysisRequest;
+
+    // evaluation overlay: the value of every empty cell painted over it, refreshed after every change of the board;
+    // the evaluator is only used on the evaluator thread, its cache and table carry over from position to position
+    private boolean overlayEnabled;
+    private final CellEvaluator evaluator;
+    private AtomicBoolean overlayStop;
+    private int overlayRequest;
+    private boolean overlayPending;     // a refresh is queued on the event dispatch thread
 
     public TicTacToe() {
         this.playerOne = null;
         this.playerTwo = null;
         this.state = Game.NOT_STARTED;
-        this.secondsToSleep = 1;    // delay between movements
+        this.robotLevel = Game.HARD;
+
+        this.moveDelayMillis = Game.MOVE_DELAYS_MILLIS[Game.SPEED_NORMAL];
+        this.stepMode = false;
+        this.moveTimer = new Timer(this.moveDelayMillis, event -> startRobotSearch());
+        this.moveTimer.setRepeats(false);
+        this.replayTimer = new Timer(this.moveDelayMillis, event -> playReplayMove());
+
+        this.analysis = new Search(new TranspositionTable(1 << 20, TranspositionTable.REPLACE_DEPTH));
+        this.analysis.setTimeLimit(Game.ANALYSIS_TIME_MILLIS);
+        this.evaluator = new CellEvaluator();
 
         initComponents();
 
@@ -84,6 +147,7 @@ public class TicTacToe extends JFrame {
 
         // initialize the board
         this.board = new Board();
+        this.board.setChangeListener(this::boardChanged);
 
         // add the components to the frame
         setLayout(new BorderLayout(0, 0));
@@ -126,11 +190,7 @@ public class TicTacToe extends JFrame {
 
         menuItemRobotHuman.addActionListener(event -> {
             startGameFromMenu(Game.ROBOT, Game.HUMAN);
-
-            currPlayer.MoveNext(board);
-
-            checkGameState();
-            currPlayer = currPlayer == playerOne ? playerTwo : playerOne;
+            requestRobotMove();
         });
 
         // robot vs robot menu item
@@ -138,42 +198,18 @@ public class TicTacToe extends JFrame {
         menuItemRobotRobot.setMnemonic(KeyEvent.VK_O);
         menuItemRobotRobot.setName("MenuRobotRobot");
 
-        menuItemRobotRobot.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent event) {
-                startGameFromMenu(Game.ROBOT, Game.ROBOT);
-
-                try {
-                    startRobotToRobot();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-
-            public void startRobotToRobot() {
-                Runnable robotPlay = () -> {
-
-                    board.enableBoard();
-
-                    // do while loop for computer playing against computer
-                    while (true) {
-                        currPlayer.MoveNext(board);
-                        board.setVisible(true);
-
-                        checkGameState();
-                        pause();
-
-                        if (state == Game.GAME_OVER) {
-                            break; // break out the do while loop
-                        }
+        // the robots take turns through requestRobotMove, every move is painted as it lands
+        menuItemRobotRobot.addActionListener(event -> {
+            startGameFromMenu(Game.ROBOT, Game.ROBOT);
+            requestRobotMove();
+        });
 
-                        currPlayer = currPlayer == playerOne ? playerTwo : playerOne;
-                    }
-                };
+        // replay a recorded game
+        JMenuItem menuItemReplay = new JMenuItem("Replay Game...");
+        menuItemReplay.setMnemonic(KeyEvent.VK_P);
+        menuItemReplay.setName("MenuReplay");
 
-                SwingUtilities.invokeLater(robotPlay);
-            }
-        });
+        menuItemReplay.addActionListener(event -> chooseReplay());
 
         // exit menu item
         JMenuItem menuItemExit = new JMenuItem("Exit");
@@ -187,360 +223,1642 @@ public class TicTacToe extends JFrame {
         menuGame.add(menuItemRobotHuman);
         menuGame.add(menuItemRobotRobot);
 
+        menuGame.addSeparator();
+        menuGame.add(menuItemReplay);
+
         menuGame.addSeparator();
         menuGame.add(menuItemExit);
 
         menuBar.add(menuGame);
+        menuBar.add(initBoardMenu());
+        menuBar.add(initLevelMenu());
+        menuBar.add(initSpeedMenu());
+        menuBar.add(initMovesMenu());
         setJMenuBar(menuBar);
         setVisible(true);
     }
 
     /**
-     * helper function for starting the game from menu
-     * @param playerOneType player one type, human or robot
-     * @param playerTwoType player two type, human or robot
+     * build the menu choosing the board size and the number of stones in a row that wins
+     *
+     * @return the board menu
      */
-    private void startGameFromMenu(int playerOneType, int playerTwoType) {
-        // create player 1
-        if (playerOneType == Game.HUMAN) {
-            this.playerOne = new PlayerHuman();
-        } else {
-            this.playerOne = new PlayerRobot(Game.HARD);
+    private JMenu initBoardMenu() {
+        JMenu menuBoard = new JMenu("Board");
+        menuBoard.setMnemonic(KeyEvent.VK_B);
+        menuBoard.setName("MenuBoard");
+
+        ButtonGroup group = new ButtonGroup();
+
+        for (int[] boardSize : Game.BOARD_SIZES) {
+            int size = boardSize[0];
+            int winLength = boardSize[1];
+
+            JRadioButtonMenuItem menuItemSize = new JRadioButtonMenuItem(String.format("%dx%d, %d in a row", size, size, winLength));
+            menuItemSize.setName(String.format("MenuBoard%dx%d", size, winLength));
+            menuItemSize.setSelected(size == this.board.getBoardSize() && winLength == this.board.getPosition().getWinLength());
+
+            menuItemSize.addActionListener(event -> setBoardSize(size, winLength));
+
+            group.add(menuItemSize);
+            menuBoard.add(menuItemSize);
         }
 
-        // create player 2
-        if (playerTwoType == Game.HUMAN) {
-            playerTwo = new PlayerHuman(false);
-        } else {
-            playerTwo = new PlayerRobot(false, Game.HARD);
+        // nine boards, every move sends the opponent to one of them
+        JRadioButtonMenuItem menuItemUltimate = new JRadioButtonMenuItem("Ultimate, 9 boards");
+        menuItemUltimate.setName("MenuBoardUltimate");
+
+        menuItemUltimate.addActionListener(event -> replaceBoard(new UltimateBoard()));
+
+        // the 4x4x4 cube, shown as its four layers
+        JRadioButtonMenuItem menuItemQubic = new JRadioButtonMenuItem("Qubic, 4x4x4");
+        menuItemQubic.setName("MenuBoardQubic");
+
+        menuItemQubic.addActionListener(event -> replaceBoard(new QubicBoard()));
+
+        group.add(menuItemUltimate);
+        group.add(menuItemQubic);
+        menuBoard.addSeparator();
+        menuBoard.add(menuItemUltimate);
+        menuBoard.add(menuItemQubic);
+
+        return menuBoard;
+    }
+
+    /**
+     * build the menu choosing the robot level, it applies from the next game on
+     *
+     * @return the level menu
+     */
+    private JMenu initLevelMenu() {
+        JMenu menuLevel = new JMenu("Level");
+        menuLevel.setMnemonic(KeyEvent.VK_L);
+        menuLevel.setName("MenuLevel");
+
+        ButtonGroup group = new ButtonGroup();
+        int[] levels = {Game.EASY, Game.MEDIUM, Game.HARD, Game.MCTS};
+        String[] names = {Game.STR_EASY, Game.STR_MEDIUM, Game.STR_HARD, Game.STR_MCTS};
+
+        for (int i = 0; i < levels.length; i++) {
+            int level = levels[i];
+
+            JRadioButtonMenuItem menuItemLevel = new JRadioButtonMenuItem(names[i]);
+            menuItemLevel.setName("MenuLevel" + names[i]);
+            menuItemLevel.setSelected(level == this.robotLevel);
+
+            menuItemLevel.addActionListener(event -> this.robotLevel = level);
+
+            group.add(menuItemLevel);
+            menuLevel.add(menuItemLevel);
         }
 
-        this.buttonPlayer1.setText(playerOneType == Game.HUMAN ? Game.STR_HUMAN : Game.STR_COMPUTER);
-        this.buttonPlayer1.setEnabled(false);
+        return menuLevel;
+    }
 
-        this.buttonPlayer2.setText(playerTwoType == Game.HUMAN ? Game.STR_HUMAN : Game.STR_COMPUTER);
-        this.buttonPlayer2.setEnabled(false);
+    /**
+     * build the menu setting the pace of the robot moves, it applies at once
+     *
+     * @return the speed menu
+     */
+    private JMenu initSpeedMenu() {
+        JMenu menuSpeed = new JMenu("Speed");
+        menuSpeed.setMnemonic(KeyEvent.VK_S);
+        menuSpeed.setName("MenuSpeed");
 
-        this.buttonStartReset.setText(Game.STR_RESET);
+        ButtonGroup group = new ButtonGroup();
 
-        this.state = Game.IN_PROGRESS;
-        board.clear();
-        board.enableBoard();
+        for (int i = 0; i < Game.MOVE_DELAYS_MILLIS.length; i++) {
+            int delay = Game.MOVE_DELAYS_MILLIS[i];
 
-        this.currPlayer = playerOne;
-        this.labelStatus.setText(String.format("The turn of %s Player (%s)", currPlayer.getPlayerTypeStr(), currPlayer.getPlayerCellTypeStr()));
+            JRadioButtonMenuItem menuItemSpeed = new JRadioButtonMenuItem(Game.STR_SPEEDS[i]);
+            menuItemSpeed.setName("MenuSpeed" + Game.STR_SPEEDS[i]);
+            menuItemSpeed.setSelected(delay == this.moveDelayMillis);
+
+            menuItemSpeed.addActionListener(event -> setMoveDelay(delay));
+
+            group.add(menuItemSpeed);
+            menuSpeed.add(menuItemSpeed);
+        }
+
+        menuSpeed.addSeparator();
+
+        // step mode, a robot only moves on Next Move
+        JCheckBoxMenuItem menuItemStep = new JCheckBoxMenuItem("Step Mode");
+        menuItemStep.setMnemonic(KeyEvent.VK_T);
+        menuItemStep.setName("MenuStepMode");
+        menuItemStep.setSelected(this.stepMode);
+
+        menuItemStep.addActionListener(event -> setStepMode(menuItemStep.isSelected()));
+
+        JMenuItem menuItemNext = new JMenuItem("Next Move");
+        menuItemNext.setMnemonic(KeyEvent.VK_N);
+        menuItemNext.setName("MenuNextMove");
+        menuItemNext.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_N, 0));
+
+        menuItemNext.addActionListener(event -> {
+            if (this.replayMoves != null) {
+                playReplayMove();
+            } else {
+                startRobotSearch();
+            }
+        });
+
+        menuSpeed.add(menuItemStep);
+        menuSpeed.add(menuItemNext);
+
+        return menuSpeed;
     }
 
     /**
-     * add a listener for each cell on the field
+     * change the delay before robot moves, a robot waiting for its turn is rescheduled
+     *
+     * @param delayMillis milliseconds before a robot move, 0 for turbo
      */
-    public void actOnCellButton() {
-        int size = this.board.getBoardSize();
-        CellButton[] cells = this.board.getBoard();
+    private void setMoveDelay(int delayMillis) {
+        this.moveDelayMillis = delayMillis;
 
-        for (int i = 0; i < size * size; i++) {
-            CellButton cell = cells[i];
+        if (this.moveTimer.isRunning()) {
+            this.moveTimer.setInitialDelay(delayMillis);
+            this.moveTimer.restart();
+        }
 
-            cell.getCell().setRow(i / size);
-            cell.getCell().setCol(i % size);
+        this.replayTimer.setInitialDelay(delayMillis);
+        this.replayTimer.setDelay(delayMillis);
+    }
 
-            cell.addActionListener(e -> {
-                if (state == Game.NOT_STARTED  || state == Game.GAME_OVER || cell.getIsClicked()) {
-                    return;
-                }
+    /**
+     * switch step mode, leaving it lets a waiting robot move on the timer again
+     *
+     * @param stepMode true if robots wait for Next Move
+     */
+    private void setStepMode(boolean stepMode) {
+        this.stepMode = stepMode;
+
+        if (stepMode) {
+            this.moveTimer.stop();
+            this.replayTimer.stop();
+        } else if (this.replayMoves != null && this.replayPly < this.replayMoves.length) {
+            this.replayTimer.restart();
+        } else {
+            requestRobotMove();
+        }
+    }
 
-                // human make the move
-                if (currPlayer.getPlayerType() == Game.HUMAN) {
+    /**
+     * build the menu taking moves back and forth, and switching the analysis mode
+     *
+     * @return the moves menu
+     */
+    private JMenu initMovesMenu() {
+        JMenu menuMoves = new JMenu("Moves");
+        menuMoves.setMnemonic(KeyEvent.VK_M);
+        menuMoves.setName("MenuMoves");
 
-                    cell.setClicked(true);
+        JMenuItem menuItemUndo = new JMenuItem("Undo");
+        menuItemUndo.setMnemonic(KeyEvent.VK_U);
+        menuItemUndo.setName("MenuUndo");
+        menuItemUndo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
 
-                    if (Objects.equals(cell.getText(), Game.STR_CELL_EMPTY)) {
-                        if (currPlayer.getPlayerCellType() == Game.CELL_X) {
-                            cell.setText(Game.STR_CELL_X);
-                            cell.getCell().setCellType(Game.CELL_X);
-                        } else {
-                            cell.setText(Game.STR_CELL_O);
-                            cell.getCell().setCellType(Game.CELL_O);
-                        }
-                    }
+        menuItemUndo.addActionListener(event -> undoMove());
 
-                    pause();
+        JMenuItem menuItemRedo = new JMenuItem("Redo");
+        menuItemRedo.setMnemonic(KeyEvent.VK_R);
+        menuItemRedo.setName("MenuRedo");
+        menuItemRedo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
 
-                    checkGameState();
-                    if (state == Game.NOT_STARTED  || state == Game.GAME_OVER) {
-                        return;
-                    }
+        menuItemRedo.addActionListener(event -> redoMove());
 
-                    currPlayer = currPlayer == playerOne ? playerTwo : playerOne;
+        JMenuItem menuItemJump = new JMenuItem("Go to Move...");
+        menuItemJump.setMnemonic(KeyEvent.VK_G);
+        menuItemJump.setName("MenuGoToMove");
+        menuItemJump.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G, InputEvent.CTRL_DOWN_MASK));
 
-                    labelStatus.setText(String.format("The turn of %s Player (%s)", currPlayer.getPlayerTypeStr(), currPlayer.getPlayerCellTypeStr()));
+        menuItemJump.addActionListener(event -> chooseMove());
 
-                    // human play against computer
-                    if (currPlayer.getPlayerType() == Game.ROBOT) {
-                        pause();
+        // analysis mode, the robots wait and the engine evaluates the board instead
+        JCheckBoxMenuItem menuItemAnalysis = new JCheckBoxMenuItem("Analysis Mode");
+        menuItemAnalysis.setMnemonic(KeyEvent.VK_A);
+        menuItemAnalysis.setName("MenuAnalysisMode");
+        menuItemAnalysis.setSelected(this.analysisMode);
 
-                        currPlayer.MoveNext(board);
+        menuItemAnalysis.addActionListener(event -> setAnalysisMode(menuItemAnalysis.isSelected()));
 
-                        checkGameState();
+        // the value of every empty cell for the side to move
+        JCheckBoxMenuItem menuItemOverlay = new JCheckBoxMenuItem("Evaluation Overlay");
+        menuItemOverlay.setMnemonic(KeyEvent.VK_E);
+        menuItemOverlay.setName("MenuEvaluationOverlay");
+        menuItemOverlay.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_E, InputEvent.CTRL_DOWN_MASK));
+        menuItemOverlay.setSelected(this.overlayEnabled);
 
-                        currPlayer = currPlayer == playerOne ? playerTwo : playerOne;
-                    }
+        menuItemOverlay.addActionListener(event -> setOverlayEnabled(menuItemOverlay.isSelected()));
 
-                    setVisible(true);
-                }
-            });
+        menuMoves.add(menuItemUndo);
+        menuMoves.add(menuItemRedo);
+        menuMoves.add(menuItemJump);
+        menuMoves.addSeparator();
+        menuMoves.add(menuItemAnalysis);
+        menuMoves.add(menuItemOverlay);
+
+        return menuMoves;
+    }
+
+    /**
+     * take back the last move; against a robot, back to the last position a human was to move in
+     */
+    private void undoMove() {
+        if (isVariant()) {
+            return;
+        }
+
+        if (this.replayMoves != null) {
+            this.replayTimer.stop();
+            if (this.board.undoMove() >= 0) {
+                this.replayPly--;
+            }
+            replayPositionChanged();
+            return;
+        }
+
+        if (this.playerOne == null && !this.analysisMode) {
+            return;
+        }
+
+        cancelRobotMove();
+
+        // the robot's reply goes back together with the human move it answered
+        boolean undone = this.board.undoMove() >= 0;
+        while (undone && isRobotToMove()) {
+            undone = this.board.undoMove() >= 0;
+        }
+
+        positionChanged();
+    }
+
+    /**
+     * play the last taken back move again; against a robot, up to the next position a human is to move in
+     */
+    private void redoMove() {
+        if (isVariant()) {
+            return;
+        }
+
+        if (this.replayMoves != null) {
+            this.replayTimer.stop();
+            playReplayMove();
+            return;
+        }
+
+        if ((this.playerOne == null && !this.analysisMode) || !this.board.getHistory().canRedo()) {
+            return;
+        }
+
+        cancelRobotMove();
+
+        boolean redone = this.board.redoMove() >= 0;
+        while (redone && isRobotToMove()) {
+            redone = this.board.redoMove() >= 0;
         }
+
+        positionChanged();
     }
 
     /**
-     * add delay between movements
+     * ask for a move number and show the position after it
      */
-    private void pause() {
+    private void chooseMove() {
+        if (isVariant()) {
+            return;
+        }
+
+        MoveHistory history = this.board.getHistory();
+        int end = this.replayMoves != null ? this.replayMoves.length : history.getEnd();
+
+        String input = JOptionPane.showInputDialog(this, String.format("Move to go to, 0 to %d", end), history.getPly());
+        if (input == null) {
+            return;
+        }
+
         try {
-            TimeUnit.SECONDS.sleep(secondsToSleep);
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
+            int ply = Integer.parseInt(input.trim());
+            if (ply < 0 || ply > end) {
+                throw new IllegalArgumentException("no move " + ply + ", the game has " + end);
+            }
+
+            jumpToMove(ply);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Go to Move", JOptionPane.ERROR_MESSAGE);
         }
     }
 
     /**
-     * add the listener for reset button
+     * take moves back or play them again until the given number of moves is on the board
+     *
+     * @param ply number of moves, at most the recorded ones
      */
-    public void actOnStartResetButton() {
+    private void jumpToMove(int ply) {
+        if (this.replayMoves != null) {
+            this.replayTimer.stop();
+            while (this.replayPly > ply) {
+                this.board.undoMove();
+                this.replayPly--;
+            }
+            while (this.replayPly < ply) {
+                playReplayMove();
+            }
+            replayPositionChanged();
+            return;
+        }
 
-        this.buttonStartReset.addActionListener(e -> {
+        if (this.playerOne == null && !this.analysisMode) {
+            return;
+        }
 
-            if (state == Game.NOT_STARTED) {
-                state = Game.IN_PROGRESS;
+        cancelRobotMove();
 
-                buttonPlayer1.setEnabled(false);
-                buttonPlayer2.setEnabled(false);
+        MoveHistory history = this.board.getHistory();
+        while (history.getPly() > ply) {
+            this.board.undoMove();
+        }
+        while (history.getPly() < ply && history.canRedo()) {
+            this.board.redoMove();
+        }
 
-                // create player 1
-                if (Objects.equals(buttonPlayer1.getText(), Game.STR_HUMAN)) {
-                    playerOne = new PlayerHuman();
-                } else {
-                    playerOne = new PlayerRobot(Game.HARD);
-                }
+        positionChanged();
+    }
 
-                // create player 2
-                if (Objects.equals(buttonPlayer2.getText(), Game.STR_HUMAN)) {
-                    playerTwo = new PlayerHuman(false);
-                } else {
-                    playerTwo = new PlayerRobot(false, Game.HARD);
-                }
+    /**
+     * @return true if a game against a robot is on and the robot is to move
+     */
+    private boolean isRobotToMove() {
+        if (this.analysisMode || this.playerOne == null || this.board.getState() != Game.IN_PROGRESS
+                || (this.playerOne.getPlayerType() == Game.ROBOT && this.playerTwo.getPlayerType() == Game.ROBOT)) {
+            return false;
+        }
 
-                buttonStartReset.setText(Game.STR_RESET);
-                buttonStartReset.setVisible(true);
+        Player toMove = this.board.getSideToMove() == Game.CELL_X ? this.playerOne : this.playerTwo;
+        return toMove.getPlayerType() == Game.ROBOT;
+    }
 
-                currPlayer = playerOne;
+    /**
+     * moves were taken back or played again: the side to move has the turn and the game goes on from there
+     */
+    private void positionChanged() {
+        if (this.playerOne != null) {
+            this.currPlayer = this.board.getSideToMove() == Game.CELL_X ? this.playerOne : this.playerTwo;
+        }
 
-                labelStatus.setText(String.format("The turn of %s Player (%s)", currPlayer.getPlayerTypeStr(), currPlayer.getPlayerCellTypeStr()));
+        if (this.analysisMode) {
+            analyze();
+            return;
+        }
 
-                labelStatus.setVisible(true);
+        // a finished game taken back is on again
+        this.state = Game.IN_PROGRESS;
+        showGameState();
+        requestRobotMove();
+    }
 
-                setVisible(true);
+    private void replayPositionChanged() {
+        if (this.analysisMode) {
+            analyze();
+        } else {
+            showReplayStatus();
+        }
+    }
 
-                board.enableBoard();
+    /**
+     * switch analysis mode, leaving it goes on with the game from the position on the board
+     *
+     * @param analysisMode true if either side may move and the engine evaluates the board
+     */
+    private void setAnalysisMode(boolean analysisMode) {
+        this.analysisMode = analysisMode;
+        cancelRobotMove();
+        cancelAnalysis();
+
+        if (analysisMode) {
+            this.replayTimer.stop();
+            this.board.enableBoard();
+            analyze();
+        } else if (this.replayMoves != null) {
+            showReplayStatus();
+        } else if (this.playerOne != null) {
+            positionChanged();
+        } else {
+            // no game to go on with, Start plays from the position set up on the board
+            this.labelStatus.setText(this.state == Game.NOT_STARTED ? Game.STR_NOT_STARTED : Game.STR_GAME_OVER);
+        }
+    }
+
+    /**
+     * after the board was replaced or cleared, evaluate it if analysis mode is on
+     */
+    private void refreshAnalysis() {
+        if (this.analysisMode) {
+            this.board.enableBoard();
+            analyze();
+        }
+    }
 
-                pause();
+    /**
+     * evaluate the board position on the robot thread, the result replaces the status line;
+     * the previous evaluation is stopped
+     */
+    private void analyze() {
+        cancelAnalysis();
 
-                // do while loop for computer playing against computer
-                do {
-                    if (currPlayer.getPlayerType() == Game.ROBOT) {
-                        currPlayer.MoveNext(board);
-                    } else {
-                        break;  // if player is human, break out the do while loop
-                    }
+        if (isVariant()) {
+            this.labelStatus.setText(String.format("Analysis: %s to move, no engine analysis of this board",
+                    sideName(this.board.getSideToMove())));
+            return;
+        }
 
-                    board.setVisible(true);
-                    setVisible(true);
-                    pause();
+        Position position = this.board.getPosition();
+        if (position.getState() != Game.IN_PROGRESS) {
+            this.labelStatus.setText("Analysis: " + describeResult(position.getState()));
+            return;
+        }
 
-                    checkGameState();
+        Position copy = new Position(position);
+        AtomicBoolean stop = new AtomicBoolean();
+        int request = ++this.analysisRequest;
+        this.analysisStop = stop;
 
-                    currPlayer = currPlayer == playerOne ? playerTwo : playerOne;
+        this.labelStatus.setText(String.format("Analysis: %s to move, thinking...", sideName(copy.getSideToMove())));
 
-                    if (state == Game.GAME_OVER) {
-                        break;  // break out the do while loop
-                    }
+        ROBOT_THINKER.submit(() -> {
+            this.analysis.setStopSignal(stop);
+            int index = this.analysis.getNextBestMove(copy);
+            int score = this.analysis.getScore();
+            int depth = this.analysis.getCompletedDepth();
+
+            SwingUtilities.invokeLater(() -> showAnalysis(request, copy, index, score, depth));
+        });
+    }
+
+    /**
+     * show an evaluation, unless the board has changed meanwhile
+     *
+     * @param score score for the side to move
+     * @param depth horizon of the last completed iteration
+     */
+    private void showAnalysis(int request, Position position, int index, int score, int depth) {
+        if (request != this.analysisRequest || !this.analysisMode) {
+            return;
+        }
+
+        this.analysisStop = null;
+
+        int side = position.getSideToMove();
+        String value;
+        if (score >= Game.SCORE_WIN) {
+            value = describeResult(side == Game.CELL_X ? Game.X_WIN : Game.O_WIN);
+        } else if (score <= Game.SCORE_LOSS) {
+            value = describeResult(side == Game.CELL_X ? Game.O_WIN : Game.X_WIN);
+        } else if (depth == Long.bitCount(position.getEmptyMask()) || position.isDeadDraw()) {
+            value = describeResult(Game.DRAW);
+        } else {
+            value = String.format("score %+d at depth %d", score, depth);
+        }
+
+        this.labelStatus.setText(String.format("Analysis: %s to move, best %s, %s",
+                sideName(side), index < 0 ? "none" : this.board.getCellName(index), value));
+    }
+
+    private void cancelAnalysis() {
+        this.analysisRequest++;
+
+        if (this.analysisStop != null) {
+            this.analysisStop.set(true);
+            this.analysisStop = null;
+        }
+    }
+
+    /**
+     * show or hide the evaluation overlay
+     */
+    private void setOverlayEnabled(boolean overlayEnabled) {
+        this.overlayEnabled = overlayEnabled;
+        refreshOverlay();
+    }
+
+    /**
+     * the board position changed; moves come in bursts on a jump or a robot reply,
+     * so the overlay is refreshed once after the burst
+     */
+    private void boardChanged() {
+        if (!this.overlayEnabled || this.overlayPending) {
+            return;
+        }
+
+        this.overlayPending = true;
+        SwingUtilities.invokeLater(() -> {
+            this.overlayPending = false;
+            refreshOverlay();
+        });
+    }
+
+    /**
+     * evaluate the cells of the board position on the evaluator thread, every deeper result is painted
+     * as it completes; the previous evaluation is stopped
+     */
+    private void refreshOverlay() {
+        this.overlayRequest++;
+        if (this.overlayStop != null) {
+            this.overlayStop.set(true);
+            this.overlayStop = null;
+        }
+
+        this.board.clearEvaluation();
+
+        // the cell evaluator searches the N x N boards only
+        Position position = this.board.getPosition();
+        if (!this.overlayEnabled || isVariant() || position.getState() != Game.IN_PROGRESS) {
+            return;
+        }
 
-                } while (currPlayer.getPlayerType() == Game.ROBOT);
+        Position copy = new Position(position);
+        AtomicBoolean stop = new AtomicBoolean();
+        int request = this.overlayRequest;
+        this.overlayStop = stop;
 
+        EVALUATOR.submit(() -> {
+            if (!stop.get()) {
+                this.evaluator.evaluate(copy, Game.ANALYSIS_TIME_MILLIS, stop,
+                        evaluation -> SwingUtilities.invokeLater(() -> showOverlay(request, evaluation)));
             }
-            // else if (state == Game.IN_PROGRESS) {
-            // do nothing
-            // pause();
+        });
+    }
 
-            // }
-            else if (state == Game.IN_PROGRESS || state == Game.GAME_OVER) {
-                state = Game.NOT_STARTED;
+    /**
+     * paint an evaluation, unless the board has changed meanwhile
+     */
+    private void showOverlay(int request, CellEvaluator.Evaluation evaluation) {
+        if (request == this.overlayRequest && this.overlayEnabled) {
+            this.board.showEvaluation(evaluation);
+        }
+    }
 
-                playerOne = null;
-                playerTwo = null;
+    /**
+     * @return true if the board plays ultimate tic-tac-toe or Qubic, which keep no move history and have no analysis
+     */
+    private boolean isVariant() {
+        return this.board instanceof UltimateBoard || this.board instanceof QubicBoard;
+    }
 
-                board.clear();
+    private static String describeResult(int state) {
+        return state == Game.X_WIN ? "X wins" : state == Game.O_WIN ? "O wins" : state == Game.DRAW ? "draw" : "in progress";
+    }
 
-                buttonStartReset.setText(Game.STR_START);
+    private static String sideName(int cellType) {
+        return cellType == Game.CELL_X ? Game.STR_CELL_X : Game.STR_CELL_O;
+    }
+
+    /**
+     * ask for a game log and a game in it, then play the game back on the board;
+     * "game:move" starts the replay at the given move
+     */
+    private void chooseReplay() {
+        JFileChooser chooser = new JFileChooser(".");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        try (GameLogReader reader = new GameLogReader(chooser.getSelectedFile().toPath())) {
+            long count = reader.getGameCount();
+
+            String input = JOptionPane.showInputDialog(this,
+                    String.format("Game to replay, 0 to %d (game:move to start at a move)", count - 1), "0");
+            if (input == null) {
+                return;
+            }
+
+            // the keyframe index finds the game without reading the log up to it
+            String[] parts = input.trim().split(":");
+            long game = Long.parseLong(parts[0].trim());
+            reader.seek(game);
+
+            int[] moves = new int[reader.getPlies()];
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] = reader.getMove(i);
+            }
+
+            int startPly = parts.length > 1 ? Math.min(Integer.parseInt(parts[1].trim()), moves.length) : 0;
+
+            startReplay(reader.getSize(), reader.getWinLength(), game, moves, reader.getState(), startPly);
+        } catch (IOException | IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Replay", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * abandon the current game and play a recorded one back
+     *
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     * @param game number of the game in its log
+     * @param moves cell indexes in play order
+     * @param state X_WIN, O_WIN or DRAW
+     * @param startPly moves shown at once
+     */
+    private void startReplay(int size, int winLength, long game, int[] moves, int state, int startPly) {
+        cancelRobotMove();
+        stopReplay();
+
+        if (isVariant() || size != this.board.getBoardSize() || winLength != this.board.getPosition().getWinLength()) {
+            setBoardSize(size, winLength);
+        }
+
+        this.board.clear();
+        this.board.enableBoard();
+
+        // the cells ignore clicks while the game is over, Reset ends the replay
+        this.state = Game.GAME_OVER;
+        this.playerOne = null;
+        this.playerTwo = null;
+        this.buttonPlayer1.setEnabled(false);
+        this.buttonPlayer2.setEnabled(false);
+        this.buttonStartReset.setText(Game.STR_RESET);
+
+        this.replayMoves = moves;
+        this.replayPly = 0;
+        this.replayState = state;
+        this.replayGame = game;
+
+        while (this.replayPly < startPly) {
+            playReplayMove();
+        }
+        replayPositionChanged();
+
+        if (!this.stepMode && !this.analysisMode && this.replayPly < moves.length) {
+            this.replayTimer.setInitialDelay(this.moveDelayMillis);
+            this.replayTimer.setDelay(this.moveDelayMillis);
+            this.replayTimer.start();
+        }
+    }
+
+    /**
+     * put the next recorded stone on the board
+     */
+    private void playReplayMove() {
+        if (this.replayMoves == null || this.replayPly == this.replayMoves.length) {
+            this.replayTimer.stop();
+            return;
+        }
+
+        int index = this.replayMoves[this.replayPly++];
+        this.board.makeMove(index, this.board.getSideToMove());
+        replayPositionChanged();
+
+        if (this.replayPly == this.replayMoves.length) {
+            this.replayTimer.stop();
+        }
+    }
+
+    private void showReplayStatus() {
+        if (this.replayPly < this.replayMoves.length) {
+            this.labelStatus.setText(String.format("Replay of game %d, move %d of %d",
+                    this.replayGame, this.replayPly, this.replayMoves.length));
+        } else {
+            this.labelStatus.setText(String.format("Replay of game %d: %s", this.replayGame,
+                    this.replayState == Game.X_WIN ? "X wins" : this.replayState == Game.O_WIN ? "O wins" : Game.STR_DRAW));
+        }
+    }
+
+    private void stopReplay() {
+        this.replayTimer.stop();
+        this.replayMoves = null;
+    }
+
+    /**
+     * replace the board with a new one of the given geometry, the current game is abandoned
+     *
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     */
+    private void setBoardSize(int size, int winLength) {
+        replaceBoard(new Board(size, winLength));
+    }
+
+    /**
+     * put a new board in place of the current one, the current game is abandoned
+     *
+     * @param board the new board
+     */
+    private void replaceBoard(Board board) {
+        cancelRobotMove();
+        stopReplay();
+        remove(this.board);
+
+        this.board = board;
+        this.board.setChangeListener(this::boardChanged);
+        add(this.board, BorderLayout.CENTER);
+        actOnCellButton();
+
+        this.state = Game.NOT_STARTED;
+        this.playerOne = null;
+        this.playerTwo = null;
+
+        this.buttonStartReset.setText(Game.STR_START);
+        this.labelStatus.setText(Game.STR_NOT_STARTED);
+        this.buttonPlayer1.setEnabled(true);
+        this.buttonPlayer2.setEnabled(true);
+
+        revalidate();
+        repaint();
+
+        refreshAnalysis();
+        refreshOverlay();
+    }
+
+    /**
+     * helper function for starting the game from menu
+     * @param playerOneType player one type, human or robot
+     * @param playerTwoType player two type, human or robot
+     */
+    private void startGameFromMenu(int playerOneType, int playerTwoType) {
+        cancelRobotMove();
+        stopReplay();
+
+        // create player 1
+        if (playerOneType == Game.HUMAN) {
+            this.playerOne = new PlayerHuman();
+        } else {
+            this.playerOne = new PlayerRobot(robotLevel);
+        }
+
+        // create player 2
+        if (playerTwoType == Game.HUMAN) {
+            playerTwo = new PlayerHuman(false);
+        } else {
+            playerTwo = new PlayerRobot(false, robotLevel);
+        }
+
+        this.buttonPlayer1.setText(playerOneType == Game.HUMAN ? Game.STR_HUMAN : Game.STR_COMPUTER);
+        this.buttonPlayer1.setEnabled(false);
+
+        this.buttonPlayer2.setText(playerTwoType == Game.HUMAN ? Game.STR_HUMAN : Game.STR_COMPUTER);
+        this.buttonPlayer2.setEnabled(false);
+
+        this.buttonStartReset.setText(Game.STR_RESET);
+
+        this.state = Game.IN_PROGRESS;
+        board.clear();
+        board.enableBoard();
+
+        if (Game.STATS_ENABLED) {
+            GameStats.INSTANCE.recordStart();
+        }
+        this.endRecorded = false;
+
+        this.currPlayer = playerOne;
+        this.labelStatus.setText(String.format("The turn of %s Player (%s)", currPlayer.getPlayerTypeStr(), currPlayer.getPlayerCellTypeStr()));
+
+        refreshAnalysis();
+    }
+
+    /**
+     * add a listener for each cell on the field
+     */
+    public void actOnCellButton() {
+        CellButton[] cells = this.board.getBoard();
+
+        for (int i = 0; i < cells.length; i++) {
+            CellButton cell = cells[i];
+            final int index = i;
+
+            cell.getCell().setRow(this.board.getCellRow(i));
+            cell.getCell().setCol(this.board.getCellCol(i));
+
+            cell.addActionListener(e -> {
+                // in analysis mode either side moves, whoever plays it
+                if (analysisMode) {
+                    if (board.isLegalMove(index)) {
+                        stopReplay();
+                        board.makeMove(index, board.getSideToMove());
+                        positionChanged();
+                    }
+                    return;
+                }
+
+                // on the ultimate board an empty cell may still be outside the boards open to the move
+                if (state == Game.NOT_STARTED  || state == Game.GAME_OVER || cell.getIsClicked() || !board.isLegalMove(index)) {
+                    return;
+                }
+
+                // human make the move
+                if (currPlayer.getPlayerType() == Game.HUMAN) {
+
+                    if (Objects.equals(cell.getText(), Game.STR_CELL_EMPTY)) {
+                        board.makeMove(index, currPlayer.getPlayerCellType());
+                    }
+
+                    // human play against computer, the robot answers in the background
+                    nextTurn();
+                }
+            });
+        }
+    }
+
+    /**
+     * the current player has moved: end the game or hand the turn to the other player,
+     * a robot starts thinking about its move at once
+     */
+    private void nextTurn() {
+        checkGameState();
+        if (this.state != Game.IN_PROGRESS) {
+            return;
+        }
+
+        this.currPlayer = this.currPlayer == this.playerOne ? this.playerTwo : this.playerOne;
+        this.labelStatus.setText(String.format("The turn of %s Player (%s)",
+                this.currPlayer.getPlayerTypeStr(), this.currPlayer.getPlayerCellTypeStr()));
+
+        requestRobotMove();
+    }
+
+    /**
+     * if the current player is a robot, schedule its move after the move delay;
+     * in step mode it waits for Next Move instead
+     */
+    private void requestRobotMove() {
+        if (this.state != Game.IN_PROGRESS || this.currPlayer.getPlayerType() != Game.ROBOT
+                || this.robotTask != null || this.stepMode || this.analysisMode) {
+            return;
+        }
+
+        this.moveTimer.setInitialDelay(this.moveDelayMillis);
+        this.moveTimer.restart();
+    }
+
+    /**
+     * let the robot to move think on the robot thread, only the chosen cell comes back
+     * to the event dispatch thread
+     */
+    private void startRobotSearch() {
+        this.moveTimer.stop();
+
+        if (this.state != Game.IN_PROGRESS || this.currPlayer.getPlayerType() != Game.ROBOT
+                || this.robotTask != null || this.analysisMode) {
+            return;
+        }
+
+        PlayerRobot robot = (PlayerRobot) this.currPlayer;
+        IntSupplier search = robot.prepareMove(this.board);   // the board is only read here
+        int request = ++this.robotRequest;
+
+        this.thinkingRobot = robot;
+        this.robotTask = ROBOT_THINKER.submit(() -> {
+            // a search cancelled by an undo has returned by now, the robot plays on in the same game;
+            // it searched its own copy of the position, so the new copy was safe to make meanwhile
+            robot.resume();
+            int index = search.getAsInt();
+            SwingUtilities.invokeLater(() -> playRobotMove(request, robot, index));
+        });
+    }
+
+    /**
+     * play the move a robot has chosen, unless its game was reset or replaced meanwhile
+     */
+    private void playRobotMove(int request, PlayerRobot robot, int index) {
+        if (request != this.robotRequest || robot != this.currPlayer || this.state != Game.IN_PROGRESS || index < 0) {
+            return;
+        }
+
+        this.robotTask = null;
+        this.thinkingRobot = null;
+
+        robot.makeMove(this.board, index);
+        nextTurn();
+    }
+
+    /**
+     * drop the robot move in flight: its search stops within a few microseconds and the result is ignored
+     */
+    private void cancelRobotMove() {
+        this.moveTimer.stop();
+        this.robotRequest++;
+
+        if (this.thinkingRobot != null) {
+            this.thinkingRobot.cancel();
+            this.thinkingRobot = null;
+        }
+
+        if (this.robotTask != null) {
+            this.robotTask.cancel(true);
+            this.robotTask = null;
+        }
+    }
+
+    /**
+     * add the listener for reset button
+     */
+    public void actOnStartResetButton() {
+
+        this.buttonStartReset.addActionListener(e -> {
+
+            if (state == Game.NOT_STARTED) {
+                state = Game.IN_PROGRESS;
+
+                if (Game.STATS_ENABLED) {
+                    GameStats.INSTANCE.recordStart();
+                }
+                endRecorded = false;
+
+                buttonPlayer1.setEnabled(false);
+                buttonPlayer2.setEnabled(false);
+
+                // create player 1
+                if (Objects.equals(buttonPlayer1.getText(), Game.STR_HUMAN)) {
+                    playerOne = new PlayerHuman();
+                } else {
+                    playerOne = new PlayerRobot(robotLevel);
+                }
+
+                // create player 2
+                if (Objects.equals(buttonPlayer2.getText(), Game.STR_HUMAN)) {
+                    playerTwo = new PlayerHuman(false);
+                } else {
+                    playerTwo = new PlayerRobot(false, robotLevel);
+                }
+
+                buttonStartReset.setText(Game.STR_RESET);
+                buttonStartReset.setVisible(true);
+
+                // the game starts from the position set up in analysis mode, if any
+                currPlayer = board.getSideToMove() == Game.CELL_X ? playerOne : playerTwo;
+
+                showGameState();
+
+                labelStatus.setVisible(true);
+
+                setVisible(true);
+
+                board.enableBoard();
+
+                // a robot opens the game, the robots keep playing each other through nextTurn
+                requestRobotMove();
+            }
+            // else if (state == Game.IN_PROGRESS) {
+            // do nothing
+            // pause();
+
+            // }
+            else if (state == Game.IN_PROGRESS || state == Game.GAME_OVER) {
+                cancelRobotMove();
+                stopReplay();
+                state = Game.NOT_STARTED;
+
+                playerOne = null;
+                playerTwo = null;
+
+                board.clear();
+
+                buttonStartReset.setText(Game.STR_START);
                 labelStatus.setText(Game.STR_NOT_STARTED);
 
-                buttonPlayer1.setEnabled(true);
-                buttonPlayer2.setEnabled(true);
-            }
-        });
+                buttonPlayer1.setEnabled(true);
+                buttonPlayer2.setEnabled(true);
+
+                refreshAnalysis();
+            }
+        });
+    }
+
+    /**
+     * add the listener for player1 button
+     */
+    public void actOnPlayerOneButton() {
+        this.buttonPlayer1.addActionListener(e -> {
+            if (state == Game.NOT_STARTED) {
+                if (Objects.equals(buttonPlayer1.getText(), Game.STR_HUMAN)) {
+                    buttonPlayer1.setText(Game.STR_COMPUTER);
+                } else {
+                    buttonPlayer1.setText(Game.STR_HUMAN);
+                }
+            }
+        });
+    }
+
+    /**
+     * add the listener for player2 button
+     */
+    public void actOnPlayerTwoButton() {
+        this.buttonPlayer2.addActionListener(e -> {
+            if (state == Game.NOT_STARTED) {
+                if (Objects.equals(buttonPlayer2.getText(), Game.STR_HUMAN)) {
+                    buttonPlayer2.setText(Game.STR_COMPUTER);
+                } else {
+                    buttonPlayer2.setText(Game.STR_HUMAN);
+                }
+            }
+        });
+    }
+
+    /**
+     * check the game state
+     *
+     */
+    private void checkGameState() {
+        int result = this.board.getState();
+
+        if (Game.STATS_ENABLED && result != Game.IN_PROGRESS && !this.endRecorded) {
+            GameStats.INSTANCE.recordEnd(result);
+            this.endRecorded = true;
+        }
+
+        showGameState();
+    }
+
+    /**
+     * set the state from the board position and show it
+     */
+    private void showGameState() {
+        this.state = this.board.getState();
+
+        switch (this.state) {
+            case Game.X_WIN:
+            case Game.O_WIN:
+                Player winner = this.state == Game.X_WIN ? this.playerOne : this.playerTwo;
+                this.labelStatus.setText(String.format("The %s Player (%s) wins",
+                        winner.getPlayerTypeStr(), winner.getPlayerCellTypeStr()));
+                this.state = Game.GAME_OVER;
+                break;
+            case Game.DRAW:
+                this.labelStatus.setText(Game.STR_DRAW);
+                this.state = Game.GAME_OVER;
+                break;
+            case Game.IN_PROGRESS:
+                this.labelStatus.setText(String.format("The turn of %s Player (%s)",
+                        this.currPlayer.getPlayerTypeStr(), this.currPlayer.getPlayerCellTypeStr()));
+                break;
+        }
+    }
+}
+
+class Board extends JPanel{
+    protected int size;
+    protected CellButton[] board;
+    protected Position position;    // the engine position mirrored by the cell buttons
+    protected MoveHistory history;  // the moves played on the position, for undo and redo
+    protected Runnable changeListener;  // told after every change of the position, or null
+
+    public Board() {
+        this(Game.SIZE, Game.WIN_LENGTH);
+    }
+
+    /**
+     * @param size number of cells in a row
+     * @param winLength number of stones in a row that wins
+     */
+    public Board(int size, int winLength) {
+        super();
+
+        this.size = size;
+        this.position = new Position(size, winLength);
+        this.history = new MoveHistory(this.position);
+        this.board = new CellButton[this.size * this.size];
+
+        initComponents();
+
+        setLayout(new GridLayout(this.size, this.size));
+        setVisible(true);
+    }
+
+    /**
+     * keep the cell buttons of another game, without a Position; the subclass lays them out
+     * and overrides the methods reading the position
+     *
+     * @param size number of cells in a row
+     * @param board the cell buttons
+     */
+    protected Board(int size, CellButton[] board) {
+        super();
+
+        this.size = size;
+        this.board = board;
+    }
+
+    /**
+     * initialize the cell buttons, named A3, B3, ... C1 on the 3x3 board
+     */
+    private void initComponents() {
+        String text;
+
+        for (int i = 0; i < this.board.length; i++) {
+            text = getCellName(i);
+
+            this.board[i] = new CellButton(Game.STR_CELL_EMPTY, "Button" + text);
+            this.board[i].getCell().setCellType(Game.CELL_EMPTY);   // initialize to empty cell
+
+            this.board[i].setFocusPainted(false);   // remove the border around the text of the active cell
+
+            // shrink the marks to fit the smaller cells of a large board
+            if (this.size > Game.SIZE) {
+                this.board[i].setFont(this.board[i].getFont().deriveFont(120f / this.size));
+            }
+
+            add(this.board[i]);
+        }
+    }
+
+    public CellButton[] getBoard() {
+        return this.board;
+    }
+
+    public int getBoardSize() {
+        return this.size;
+    }
+
+    public Position getPosition() {
+        return this.position;
+    }
+
+    public MoveHistory getHistory() {
+        return this.history;
+    }
+
+    /**
+     * @return IN_PROGRESS, X_WIN, O_WIN or DRAW
+     */
+    public int getState() {
+        return this.position.getState();
+    }
+
+    /**
+     * @return CELL_X or CELL_O
+     */
+    public int getSideToMove() {
+        return this.position.getSideToMove();
+    }
+
+    /**
+     * @param index cell index
+     * @return true if the side to move may put a stone on the cell
+     */
+    public boolean isLegalMove(int index) {
+        return this.position.getState() == Game.IN_PROGRESS && this.position.getCellType(index) == Game.CELL_EMPTY;
+    }
+
+    /**
+     * @param changeListener run on the event dispatch thread after every move, undo, redo and clear
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    protected void positionChanged() {
+        if (this.changeListener != null) {
+            this.changeListener.run();
+        }
+    }
+
+    /**
+     * @param index cell index
+     * @return column letter and row number of the cell, A3 is the top left cell of the 3x3 board
+     */
+    public String getCellName(int index) {
+        return "" + (char) ('A' + index % this.size) + (this.size - index / this.size);
+    }
+
+    /**
+     * @param index cell index
+     * @return row of the cell on the board, counted from the top
+     */
+    public int getCellRow(int index) {
+        return index / this.size;
+    }
+
+    /**
+     * @param index cell index
+     * @return column of the cell on the board, counted from the left
+     */
+    public int getCellCol(int index) {
+        return index % this.size;
+    }
+
+    /**
+     * put a stone on the engine position and mirror it on the cell button
+     *
+     * @param index cell index
+     * @param cellType CELL_X or CELL_O
+     */
+    public void makeMove(int index, int cellType) {
+        this.history.play(index, cellType);
+        showCell(index);
+        positionChanged();
+    }
+
+    /**
+     * take back the last move
+     *
+     * @return cell index of the move, or -1 if there is none
+     */
+    public int undoMove() {
+        int index = this.history.undo();
+        if (index >= 0) {
+            showCell(index);
+            positionChanged();
+        }
+
+        return index;
+    }
+
+    /**
+     * play the next taken back move again
+     *
+     * @return cell index of the move, or -1 if there is none
+     */
+    public int redoMove() {
+        int index = this.history.redo();
+        if (index >= 0) {
+            showCell(index);
+            positionChanged();
+        }
+
+        return index;
+    }
+
+    /**
+     * mirror one cell of the engine position on its button
+     */
+    private void showCell(int index) {
+        int cellType = this.position.getCellType(index);
+
+        CellButton cellButton = this.board[index];
+        cellButton.getCell().setCellType(cellType);
+        cellButton.setClicked(cellType != Game.CELL_EMPTY);
+        cellButton.setText(cellType == Game.CELL_X ? Game.STR_CELL_X : cellType == Game.CELL_O ? Game.STR_CELL_O : Game.STR_CELL_EMPTY);
+    }
+
+    /**
+     * reset the board for a new game
+     *
+     */
+    public void clear() {
+        this.history.clear();
+
+        for (CellButton cellButton : this.board) {
+            cellButton.getCell().setCellType(Game.CELL_EMPTY);
+            cellButton.setClicked(false);
+
+            cellButton.setText(Game.STR_CELL_EMPTY);
+            cellButton.setEnabled(false);
+        }
+
+        positionChanged();
+    }
+
+    /**
+     * paint the value of every empty cell over its button, for the side to move
+     *
+     * @param evaluation cell scores of the board position, ignored if it belongs to another board
+     */
+    public void showEvaluation(CellEvaluator.Evaluation evaluation) {
+        if (evaluation.getCellCount() != this.board.length) {
+            return;
+        }
+
+        for (int i = 0; i < this.board.length; i++) {
+            int score = evaluation.getScore(i);
+
+            if (score == CellEvaluator.NO_SCORE || this.position.getCellType(i) != Game.CELL_EMPTY) {
+                this.board[i].setOverlay(null, null);
+            } else if (CellEvaluator.isWin(score)) {
+                this.board[i].setOverlay("W" + CellEvaluator.getDistance(score), BoardColors.COLOR_WIN);
+            } else if (CellEvaluator.isLoss(score)) {
+                this.board[i].setOverlay("L" + CellEvaluator.getDistance(score), BoardColors.COLOR_LOSS);
+            } else if (score == Game.SCORE_DRAW && evaluation.isComplete()) {
+                this.board[i].setOverlay("D", BoardColors.COLOR_DRAW);
+            } else {
+                // not proven yet, the heuristic score at the reached depth
+                this.board[i].setOverlay(String.format("%+d", score), BoardColors.COLOR_ESTIMATE);
+            }
+        }
+    }
+
+    public void clearEvaluation() {
+        for (CellButton cellButton : this.board) {
+            cellButton.setOverlay(null, null);
+        }
+    }
+
+    public void enableBoard() {
+        for (CellButton cellButton : this.board) {
+            cellButton.setEnabled(true);
+        }
+    }
+
+    /**
+     * check if specified player cell type wins the game.
+     *
+     * @param playerCellType player's cell type
+     * @return true if the specified player cell type wins otherwise false
+     */
+    public boolean checkWin(int playerCellType) {
+        return this.position.checkWin(playerCellType);
+    }
+}
+
+/**
+ * the nine boards of ultimate tic-tac-toe, cell button (board * 9 + cell) plays that move;
+ * the boards the side to move may play in are framed, won boards are tinted with the winner's color
+ */
+class UltimateBoard extends Board {
+    protected UltimatePosition ultimate;
+    private final JPanel[] panels;
+
+    public UltimateBoard() {
+        super(9, new CellButton[UltimatePosition.CELLS]);
+
+        this.ultimate = new UltimatePosition();
+        this.panels = new JPanel[UltimatePosition.BOARDS];
+
+        setLayout(new GridLayout(3, 3, 4, 4));
+        setBackground(Color.DARK_GRAY);
+
+        initComponents();
+        showBoards();
+        setVisible(true);
+    }
+
+    /**
+     * one panel per small board, holding its nine cells
+     */
+    private void initComponents() {
+        for (int board = 0; board < UltimatePosition.BOARDS; board++) {
+            this.panels[board] = new JPanel(new GridLayout(3, 3));
+
+            for (int cell = 0; cell < 9; cell++) {
+                int index = board * 9 + cell;
+
+                this.board[index] = new CellButton(Game.STR_CELL_EMPTY, "Button" + getCellName(index));
+                this.board[index].getCell().setCellType(Game.CELL_EMPTY);
+                this.board[index].setFocusPainted(false);
+                this.board[index].setMargin(new Insets(0, 0, 0, 0));
+                this.board[index].setFont(this.board[index].getFont().deriveFont(14f));
+
+                this.panels[board].add(this.board[index]);
+            }
+
+            add(this.panels[board]);
+        }
+    }
+
+    public UltimatePosition getUltimatePosition() {
+        return this.ultimate;
+    }
+
+    /**
+     * @param index board * 9 + cell
+     * @return column letter and row number of the cell on the 9x9 grid, A9 is the top left cell
+     */
+    @Override
+    public String getCellName(int index) {
+        int board = index / 9;
+        int cell = index % 9;
+
+        return "" + (char) ('A' + board % 3 * 3 + cell % 3) + (9 - (board / 3 * 3 + cell / 3));
     }
 
     /**
-     * add the listener for player1 button
+     * @param index board * 9 + cell
+     * @return row of the cell on the 9x9 grid
      */
-    public void actOnPlayerOneButton() {
-        this.buttonPlayer1.addActionListener(e -> {
-            if (state == Game.NOT_STARTED) {
-                if (Objects.equals(buttonPlayer1.getText(), Game.STR_HUMAN)) {
-                    buttonPlayer1.setText(Game.STR_COMPUTER);
-                } else {
-                    buttonPlayer1.setText(Game.STR_HUMAN);
-                }
-            }
-        });
+    @Override
+    public int getCellRow(int index) {
+        return index / 9 / 3 * 3 + index % 9 / 3;
     }
 
     /**
-     * add the listener for player2 button
+     * @param index board * 9 + cell
+     * @return column of the cell on the 9x9 grid
      */
-    public void actOnPlayerTwoButton() {
-        this.buttonPlayer2.addActionListener(e -> {
-            if (state == Game.NOT_STARTED) {
-                if (Objects.equals(buttonPlayer2.getText(), Game.STR_HUMAN)) {
-                    buttonPlayer2.setText(Game.STR_COMPUTER);
-                } else {
-                    buttonPlayer2.setText(Game.STR_HUMAN);
-                }
-            }
-        });
+    @Override
+    public int getCellCol(int index) {
+        return index / 9 % 3 * 3 + index % 9 % 3;
+    }
+
+    @Override
+    public int getState() {
+        return this.ultimate.getState();
+    }
+
+    @Override
+    public int getSideToMove() {
+        return this.ultimate.getSideToMove();
+    }
+
+    @Override
+    public boolean isLegalMove(int index) {
+        return this.ultimate.isLegal(index);
     }
 
     /**
-     * check the game state
+     * play the move for the side to move, the sides alternate
      *
+     * @param index board * 9 + cell
+     * @param cellType CELL_X or CELL_O, the side to move
      */
-    private void checkGameState() {
-        if (this.board.checkWin(Game.CELL_X)) {
-            this.state = Game.X_WIN;
+    @Override
+    public void makeMove(int index, int cellType) {
+        this.ultimate.makeMove(index);
 
-        } else if (this.board.checkWin(Game.CELL_O)) {
-            this.state = Game.O_WIN;
+        CellButton cellButton = this.board[index];
+        cellButton.getCell().setCellType(cellType);
+        cellButton.setClicked(true);
+        cellButton.setText(cellType == Game.CELL_X ? Game.STR_CELL_X : Game.STR_CELL_O);
 
-        } else {
-            // check if board is full or not
-            boolean isBoardFull = true;
-            for (int row = 0; row < this.board.size; row++) {
-                for (int col = 0; col < this.board.size; col++) {
-                    if (this.board.getBoard()[row * this.board.size + col].getCell().getCellType() == Game.CELL_EMPTY) {
-                        isBoardFull = false;
-                        break; // break out of the inner for loop
-                    }
+        showBoards();
+        positionChanged();
+    }
 
-                    if (!isBoardFull) { // break out of the outer for loop
-                        break;
-                    }
-                }
-            }
+    /**
+     * the ultimate board keeps no move history
+     */
+    @Override
+    public int undoMove() {
+        return -1;
+    }
+
+    @Override
+    public int redoMove() {
+        return -1;
+    }
+
+    @Override
+    public void clear() {
+        this.ultimate.clear();
+
+        for (CellButton cellButton : this.board) {
+            cellButton.getCell().setCellType(Game.CELL_EMPTY);
+            cellButton.setClicked(false);
 
-            this.state = isBoardFull? Game.DRAW : Game.IN_PROGRESS;
+            cellButton.setText(Game.STR_CELL_EMPTY);
+            cellButton.setEnabled(false);
         }
 
-        switch (this.state) {
-            case Game.X_WIN:
-            case Game.O_WIN:
-                this.labelStatus.setText(String.format("The %s Player (%s) wins",
-                        this.currPlayer.getPlayerTypeStr(), this.currPlayer.getPlayerCellTypeStr()));
-                this.state = Game.GAME_OVER;
-                break;
-            case Game.DRAW:
-                this.labelStatus.setText(Game.STR_DRAW);
-                this.state = Game.GAME_OVER;
-                break;
-            case Game.IN_PROGRESS:
-                this.labelStatus.setText(String.format("The turn of %s Player (%s)",
-                        this.currPlayer.getPlayerTypeStr(), this.currPlayer.getPlayerCellTypeStr()));
-                break;
+        showBoards();
+        positionChanged();
+    }
+
+    @Override
+    public boolean checkWin(int playerCellType) {
+        return this.ultimate.getState() == (playerCellType == Game.CELL_X ? Game.X_WIN : Game.O_WIN);
+    }
+
+    /**
+     * frame the boards open to the side to move and tint the decided ones
+     */
+    private void showBoards() {
+        int playable = this.ultimate.getPlayableBoards();
+
+        for (int board = 0; board < UltimatePosition.BOARDS; board++) {
+            int bit = 1 << board;
+            Color background = (this.ultimate.getMacro(Game.CELL_X) & bit) != 0 ? BoardColors.COLOR_X_BOARD
+                    : (this.ultimate.getMacro(Game.CELL_O) & bit) != 0 ? BoardColors.COLOR_O_BOARD
+                    : (this.ultimate.getMacroDone() & bit) != 0 ? Color.GRAY : Color.LIGHT_GRAY;
+
+            this.panels[board].setBorder(BorderFactory.createLineBorder(
+                    (playable & bit) != 0 ? BoardColors.COLOR_PLAYABLE : Color.DARK_GRAY, 3));
+
+            for (int cell = 0; cell < 9; cell++) {
+                this.board[board * 9 + cell].setBackground(background);
+            }
         }
     }
 }
 
-class Board extends JPanel{
-    protected int size;
-    protected CellButton[] board;
+/**
+ * the 4x4x4 cube of Qubic shown as its four layers side by side, cell button (layer * 16 + row * 4 + col)
+ * plays that cell; the stones of a finished game's winning lines are highlighted
+ */
+class QubicBoard extends Board {
+    protected QubicPosition qubic;
 
-    public Board() {
-        super();
+    public QubicBoard() {
+        super(QubicPosition.SIZE, new CellButton[QubicPosition.CELLS]);
 
-        this.size = Game.SIZE;
-        this.board = new CellButton[this.size * this.size];
+        this.qubic = new QubicPosition();
 
-        initComponents();
+        setLayout(new GridLayout(1, QubicPosition.SIZE, 8, 8));
+        setBackground(Color.DARK_GRAY);
 
-        setLayout(new GridLayout(3, 3));
+        initComponents();
         setVisible(true);
     }
 
     /**
-     * initialize the cell buttons
+     * one panel per layer, holding its sixteen cells
      */
     private void initComponents() {
-        char chAlpha = 'A';
-        char chNum = '3';
-        String text;
+        int layerCells = QubicPosition.SIZE * QubicPosition.SIZE;
 
-        for (int i = 0; i < this.board.length; i++) {
-            text = "" + chAlpha + chNum;
-
-            this.board[i] = new CellButton(Game.STR_CELL_EMPTY, "Button" + text);
-            this.board[i].getCell().setCellType(Game.CELL_EMPTY);   // initialize to empty cell
+        for (int layer = 0; layer < QubicPosition.SIZE; layer++) {
+            JPanel panel = new JPanel(new GridLayout(QubicPosition.SIZE, QubicPosition.SIZE));
+            panel.setBorder(BorderFactory.createTitledBorder("Layer " + (layer + 1)));
 
-            this.board[i].setFocusPainted(false);   // remove the border around the text of the active cell
+            for (int cell = 0; cell < layerCells; cell++) {
+                int index = layer * layerCells + cell;
 
-            add(this.board[i]);
+                this.board[index] = new CellButton(Game.STR_CELL_EMPTY, "Button" + getCellName(index));
+                this.board[index].getCell().setCellType(Game.CELL_EMPTY);
+                this.board[index].setFocusPainted(false);
+                this.board[index].setMargin(new Insets(0, 0, 0, 0));
+                this.board[index].setFont(this.board[index].getFont().deriveFont(20f));
 
-            chAlpha++;
-            if (chAlpha == 'D') {
-                chNum--;
-                chAlpha = 'A';
+                panel.add(this.board[index]);
             }
+
+            add(panel);
         }
     }
 
-    public CellButton[] getBoard() {
-        return this.board;
+    public QubicPosition getQubicPosition() {
+        return this.qubic;
     }
 
-    public int getBoardSize() {
-        return this.size;
+    /**
+     * @param index layer * 16 + row * 4 + col
+     * @return layer number, column letter and row number of the cell, 1A4 is the top left cell of the first layer
+     */
+    @Override
+    public String getCellName(int index) {
+        int layerCells = QubicPosition.SIZE * QubicPosition.SIZE;
+        int cell = index % layerCells;
+
+        return "" + (index / layerCells + 1) + (char) ('A' + cell % QubicPosition.SIZE) + (QubicPosition.SIZE - cell / QubicPosition.SIZE);
     }
 
     /**
-     * get the empty cells on the board
-     *
-     * @return an LinkedList with empty cells
+     * @param index layer * 16 + row * 4 + col
+     * @return row of the cell within its layer
      */
-    public LinkedList<Cell> getEmptyCells() {
-        LinkedList<Cell> emptyCells = new LinkedList<>();
+    @Override
+    public int getCellRow(int index) {
+        return index % (QubicPosition.SIZE * QubicPosition.SIZE) / QubicPosition.SIZE;
+    }
 
-        for (CellButton cellButton : this.board) {
-            if (cellButton.getCell().getCellType() == Game.CELL_EMPTY) {
-                emptyCells.add(cellButton.getCell());
-            }
-        }
+    /**
+     * @param index layer * 16 + row * 4 + col
+     * @return column of the cell within its layer
+     */
+    @Override
+    public int getCellCol(int index) {
+        return index % QubicPosition.SIZE;
+    }
+
+    @Override
+    public int getState() {
+        return this.qubic.getState();
+    }
 
-        return emptyCells;
+    @Override
+    public int getSideToMove() {
+        return this.qubic.getSideToMove();
+    }
+
+    @Override
+    public boolean isLegalMove(int index) {
+        return this.qubic.isLegal(index);
     }
 
     /**
-     * reset the board for a new game
+     * play the move for the side to move, the sides alternate
      *
+     * @param index layer * 16 + row * 4 + col
+     * @param cellType CELL_X or CELL_O, the side to move
+     */
+    @Override
+    public void makeMove(int index, int cellType) {
+        this.qubic.makeMove(index);
+
+        CellButton cellButton = this.board[index];
+        cellButton.getCell().setCellType(cellType);
+        cellButton.setClicked(true);
+        cellButton.setText(cellType == Game.CELL_X ? Game.STR_CELL_X : Game.STR_CELL_O);
+
+        showWinningLines();
+        positionChanged();
+    }
+
+    /**
+     * the cube keeps no move history
      */
+    @Override
+    public int undoMove() {
+        return -1;
+    }
+
+    @Override
+    public int redoMove() {
+        return -1;
+    }
+
+    @Override
     public void clear() {
+        this.qubic.clear();
+
         for (CellButton cellButton : this.board) {
             cellButton.getCell().setCellType(Game.CELL_EMPTY);
             cellButton.setClicked(false);
@@ -548,31 +1866,34 @@ class Board extends JPanel{
             cellButton.setText(Game.STR_CELL_EMPTY);
             cellButton.setEnabled(false);
         }
+
+        showWinningLines();
+        positionChanged();
     }
 
-    public void enableBoard() {
-        for (CellButton cellButton : this.board) {
-            cellButton.setEnabled(true);
-        }
+    @Override
+    public boolean checkWin(int playerCellType) {
+        return this.qubic.getState() == (playerCellType == Game.CELL_X ? Game.X_WIN : Game.O_WIN);
     }
 
     /**
-     * check if specified player cell type wins the game.
-     *
-     * This function is used for minimax algorithm. Though it's not an optimal solution to the problem.
-     *
-     * @param playerCellType player's cell type
-     * @return true if the specified player cell type wins otherwise false
+     * tint the cells of the lines the winner filled, a line across the layers is hard to spot otherwise
      */
-    public boolean checkWin(int playerCellType) {
-        return (this.board[0].getCell().getCellType() == playerCellType && this.board[1].getCell().getCellType() == playerCellType && this.board[2].getCell().getCellType() == playerCellType) ||
-                (this.board[3].getCell().getCellType() == playerCellType && this.board[4].getCell().getCellType() == playerCellType && this.board[5].getCell().getCellType() == playerCellType) ||
-                (this.board[6].getCell().getCellType() == playerCellType && this.board[7].getCell().getCellType() == playerCellType && this.board[8].getCell().getCellType() == playerCellType) ||
-                (this.board[0].getCell().getCellType() == playerCellType && this.board[3].getCell().getCellType() == playerCellType && this.board[6].getCell().getCellType() == playerCellType) ||
-                (this.board[1].getCell().getCellType() == playerCellType && this.board[4].getCell().getCellType() == playerCellType && this.board[7].getCell().getCellType() == playerCellType) ||
-                (this.board[2].getCell().getCellType() == playerCellType && this.board[5].getCell().getCellType() == playerCellType && this.board[8].getCell().getCellType() == playerCellType) ||
-                (this.board[0].getCell().getCellType() == playerCellType && this.board[4].getCell().getCellType() == playerCellType && this.board[8].getCell().getCellType() == playerCellType) ||
-                (this.board[2].getCell().getCellType() == playerCellType && this.board[4].getCell().getCellType() == playerCellType && this.board[6].getCell().getCellType() == playerCellType);
+    private void showWinningLines() {
+        int state = this.qubic.getState();
+        long winner = state == Game.X_WIN ? this.qubic.getMask(Game.CELL_X)
+                : state == Game.O_WIN ? this.qubic.getMask(Game.CELL_O) : 0;
+
+        long won = 0;
+        for (long line : QubicPosition.LINES) {
+            if ((winner & line) == line) {
+                won |= line;
+            }
+        }
+
+        for (int i = 0; i < this.board.length; i++) {
+            this.board[i].setBackground((won & (1L << i)) != 0 ? BoardColors.COLOR_WIN : Color.LIGHT_GRAY);
+        }
     }
 }
 
@@ -660,6 +1981,10 @@ class CellButton extends JButton {
     private Cell cell;
     private boolean isClicked;
 
+    // evaluation painted over an empty cell, null for none
+    private String overlayText;
+    private Color overlayColor;
+
     public CellButton(String text, String name) {
         super(text);
 
@@ -688,59 +2013,63 @@ class CellButton extends JButton {
     public void setClicked(boolean isClicked) {
         this.isClicked = isClicked;
     }
-}
 
-class Game {
     /**
-     * constants definition
+     * show a small label on a tint over the cell, the button text stays as it is
+     *
+     * @param overlayText label, or null to remove the overlay
+     * @param overlayColor tint and label color
      */
+    public void setOverlay(String overlayText, Color overlayColor) {
+        if (Objects.equals(overlayText, this.overlayText) && Objects.equals(overlayColor, this.overlayColor)) {
+            return;
+        }
 
-    // number of cells in a row on a squared board
-    final static int SIZE = 3;
-
-    // game state
-    final static int NOT_STARTED = 0;
-    final static int IN_PROGRESS = 1;
-    final static int X_WIN = 2;
-    final static int O_WIN = 3;
-    final static int DRAW = 4;
-    final static int GAME_OVER = 5;
-
-    final static String STR_NOT_STARTED = "Game is not started";
-    final static String STR_DRAW = "Draw";
-
-    // cell type at the position
-    final static int CELL_EMPTY = 0;
-    final static int CELL_X = 1;
-    final static int CELL_O = 2;
-
-    final static String STR_CELL_EMPTY = " ";
-    final static String STR_CELL_X = "X";
-    final static String STR_CELL_O = "O";
-
-    // who is playing
-    final static int ROBOT = 1;
-    final static int HUMAN = 2;
+        this.overlayText = overlayText;
+        this.overlayColor = overlayColor;
+        repaint();
+    }
 
-    // String for human and computer
-    final static String STR_HUMAN = "Human";
-    final static String STR_COMPUTER = "Robot";
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        super.paintComponent(graphics);
 
-    // robot level
-    final static int EASY = 0;
-    final static int MEDIUM = 1;
-    final static int HARD = 2;
+        if (this.overlayText == null) {
+            return;
+        }
 
-    // String for start or reset the game
-    final static String STR_START = "Start";
-    final static String STR_RESET = "Reset";
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.setColor(new Color(this.overlayColor.getRed(), this.overlayColor.getGreen(), this.overlayColor.getBlue(), 60));
+            g.fillRect(0, 0, getWidth(), getHeight());
+
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(getFont().deriveFont(Font.BOLD, Math.max(10f, getHeight() / 5f)));
+            g.setColor(this.overlayColor.darker());
+
+            FontMetrics metrics = g.getFontMetrics();
+            g.drawString(this.overlayText, (getWidth() - metrics.stringWidth(this.overlayText)) / 2,
+                    (getHeight() - metrics.getHeight()) / 2 + metrics.getAscent());
+        } finally {
+            g.dispose();
+        }
+    }
+}
 
-    // score for the minimax function
-    final static int SCORE_WIN = 10;
-    final static int SCORE_LOSS = -10;
-    final static int SCORE_DRAW = 0;
-    final static int SCORE_MAX = 10000;
-    final static int SCORE_MIN = -10000;
+/**
+ * colors of the Swing board, apart from Game so the headless tools never load AWT
+ */
+class BoardColors {
+    // evaluation overlay colors
+    final static Color COLOR_WIN = new Color(0, 150, 0);
+    final static Color COLOR_LOSS = new Color(200, 0, 0);
+    final static Color COLOR_DRAW = Color.GRAY;
+    final static Color COLOR_ESTIMATE = new Color(90, 90, 160);
+
+    // ultimate board colors, the boards open to the side to move and the won boards
+    final static Color COLOR_PLAYABLE = new Color(230, 180, 0);
+    final static Color COLOR_X_BOARD = new Color(170, 190, 230);
+    final static Color COLOR_O_BOARD = new Color(230, 170, 170);
 }
 
 class Move implements Cloneable{
@@ -900,12 +2229,19 @@ class PlayerHuman extends Player {
 
 class PlayerRobot extends Player {
     private final int level;
+    private final RobotEngine engine;
+
+    // the ultimate board and the cube have their own engines, made on the first move there
+    private UltimateSearch ultimateSearch;
+    private QubicSearch qubicSearch;
 
     public PlayerRobot(int level) {
         super();
 
         setPlayerType(Game.ROBOT);
         this.level = level;
+        this.engine = new RobotEngine(level, Game.SEARCH_THREADS);
+        this.engine.setTimeLimit(Game.MOVE_TIME_MILLIS);
     }
 
     public PlayerRobot(boolean isFirst, int level) {
@@ -913,150 +2249,163 @@ class PlayerRobot extends Player {
 
         setPlayerType(Game.ROBOT);
         this.level = level;
+        this.engine = new RobotEngine(level, Game.SEARCH_THREADS);
+        this.engine.setTimeLimit(Game.MOVE_TIME_MILLIS);
     }
 
-    @Override
-    protected void MoveNext(Board board) {
-        switch (this.level) {
-            case Game.EASY:
-            case Game.MEDIUM:
-                break;
-            case Game.HARD:
-                MoveNextHard(board);
-                break;
-        }
+    /**
+     * number of nodes the last search visited
+     *
+     * @return node count of the last getNextBestMove
+     */
+    public long getNodeCount() {
+        return this.engine.getNodeCount();
     }
 
+    public int getLevel() {
+        return this.level;
+    }
 
     /**
-     * robot makes the move at the hard level
+     * robot makes the move at its level
      *
      * @param board game board
      */
-    private void MoveNextHard(Board board) {
-        // finding the ultimate move that favors the computer
-        Move bestMove = getNextBestMove(board);
-
-        int row = bestMove.getCell().getRow();
-        int col = bestMove.getCell().getCol();
-
-        Cell cell = this.isFirst ? new Cell(row, col, Game.CELL_X) : new Cell(row, col, Game.CELL_O);
-
-        CellButton cellButton = board.getBoard()[row * Game.SIZE + col];
-        cellButton.setCell(cell);  // make the robot move
-
-        cellButton.setEnabled(true);
-
-        // draw the cell
-        cellButton.setText(this.isFirst ? Game.STR_CELL_X : Game.STR_CELL_O);
-        cellButton.setVisible(true);
-
-        // Programmatically perform a "click".
-        // This does the same thing as if the user had pressed and released the button.
-        cellButton.doClick();
+    @Override
+    protected void MoveNext(Board board) {
+        // finding the move that favors the computer, the engine knows how weak to play
+        makeMove(board, getNextBestIndex(board));
     }
 
     /**
-     * Get the next best move
+     * copy the board position for a search, on the thread owning the board; every request gets
+     * its own copy, a cancelled search may still be running on the previous one
+     *
      * @param board game board
-     * @return next best move
+     * @return a position the robot may search on any thread
      */
-    public Move getNextBestMove(Board board) {
-        LinkedList<Move> nextMoves = new LinkedList<>();        // a LinkedList to collect all the moves
-
-        LinkedList<Cell> availSpots = board.getEmptyCells();    // available spots
-
-        for (Cell spot : availSpots) {
-            Move nextMove = new Move(spot);
-
-            int curIndex = spot.getRow() * board.getBoardSize() + spot.getCol(); // for easy debug purpose
-
-            // set the type of the available spot to the current player's type
-            board.getBoard()[curIndex].getCell().setCellType(getPlayerCellType());
+    public Position copyPosition(Board board) {
+        return new Position(board.getPosition());
+    }
 
-            // This is the AI player, and the next move is not maximizing.
-            // So the "isMaximizing" flag should be set to false.
-            nextMove.setScore(miniMaxMove(board, 0, false));
+    /**
+     * copy the board position, on the thread owning the board, and return the search choosing the move on the copy
+     *
+     * @param board game board, N x N, ultimate or Qubic
+     * @return the search, safe to run off the event dispatch thread; it returns the chosen cell index or -1
+     */
+    public IntSupplier prepareMove(Board board) {
+        if (board instanceof QubicBoard) {
+            if (this.qubicSearch == null) {
+                this.qubicSearch = new QubicSearch(this.level);
+                this.qubicSearch.setTimeLimit(Game.MOVE_TIME_MILLIS);
+            }
 
-            // reset the spot type back to empty
-            board.getBoard()[curIndex].getCell().setCellType(Game.CELL_EMPTY);
+            QubicSearch search = this.qubicSearch;
+            QubicPosition position = new QubicPosition(((QubicBoard) board).getQubicPosition());
 
-            nextMoves.add(nextMove); // push the object to the LinkedList
+            return () -> search.chooseMove(position);
         }
 
-        // loop over the moves and choose the move with the highest score
-        Move bestMove = new Move();
+        if (!(board instanceof UltimateBoard)) {
+            Position position = copyPosition(board);
+            return () -> chooseMove(position);
+        }
 
-        int bestScore = Game.SCORE_MIN;
-        for (Move move : nextMoves) {
-            if (move.getScore() > bestScore) {
-                bestScore = move.getScore();
-                bestMove = move;
-            }
+        if (this.ultimateSearch == null) {
+            this.ultimateSearch = new UltimateSearch(this.level);
+            this.ultimateSearch.setTimeLimit(Game.MOVE_TIME_MILLIS);
         }
 
-        return bestMove;
+        UltimateSearch search = this.ultimateSearch;
+        UltimatePosition position = new UltimatePosition(((UltimateBoard) board).getUltimatePosition());
+
+        return () -> search.chooseMove(position);
     }
 
     /**
-     * minimax algorithm implementation
+     * choose the move on a copied position, safe to call off the event dispatch thread
      *
-     * @param board  game board
-     * @param depth how many levels down
-     * @param isMaximizing if it's maximizing player moving
-     * @return the score for the current position
+     * @param position position returned by copyPosition
+     * @return index of the chosen cell, or -1 if there is no move
      */
-    public int miniMaxMove(Board board, int depth, boolean isMaximizing) {
+    public int chooseMove(Position position) {
+        return this.engine.chooseMove(position);
+    }
 
-        LinkedList<Cell> availSpots = board.getEmptyCells();    // available spots
+    /**
+     * stop a search running on another thread, until resume is called
+     */
+    public void cancel() {
+        this.engine.cancel();
 
-        if (board.checkWin(Game.CELL_X) || (board.checkWin(Game.CELL_O))) {
-            if (isMaximizing) {
-                return Game.SCORE_LOSS;
-            } else {
-                return Game.SCORE_WIN;
-            }
-        } else if (availSpots.size() == 0) {
-            return Game.SCORE_DRAW;
+        UltimateSearch search = this.ultimateSearch;
+        if (search != null) {
+            search.cancel();
         }
 
-        if (isMaximizing) {
-            int maxEval = Game.SCORE_MIN;
-
-            // loop through available spots
-            for (Cell spot : availSpots) {
-                // set the type of the available spot to the current player's type
-                int curIndex = spot.getRow() * board.getBoardSize() + spot.getCol(); // for easy debug purpose
-                board.getBoard()[curIndex].getCell().setCellType(getPlayerCellType());
-
-                // after maximizing player's turn, it's minimizing player's turn
-                int eval = miniMaxMove(board, depth + 1, false);
+        QubicSearch qubic = this.qubicSearch;
+        if (qubic != null) {
+            qubic.cancel();
+        }
+    }
 
-                board.getBoard()[curIndex].getCell().setCellType(Game.CELL_EMPTY);
+    /**
+     * let a cancelled robot think again, its move was taken back rather than its game abandoned;
+     * call it on the thread running chooseMove
+     */
+    public void resume() {
+        this.engine.resume();
 
-                maxEval = Math.max(maxEval, eval);
-            }
+        UltimateSearch search = this.ultimateSearch;
+        if (search != null) {
+            search.resume();
+        }
 
-            return maxEval;
+        QubicSearch qubic = this.qubicSearch;
+        if (qubic != null) {
+            qubic.resume();
+        }
+    }
 
-        } else {
-            int minEval = Game.SCORE_MAX;
+    /**
+     * put the chosen stone on the board
+     *
+     * @param board game board
+     * @param index cell index
+     */
+    public void makeMove(Board board, int index) {
+        board.makeMove(index, getPlayerCellType());  // make the robot move
 
-            // loop through available spots
-            for (Cell spot : availSpots) {
-                // set the type of the available spot to the opponent player's type
-                int curIndex = spot.getRow() * board.getBoardSize() + spot.getCol(); // for easy debug purpose
-                board.getBoard()[curIndex].getCell().setCellType(getOppPlayerCellType());
+        CellButton cellButton = board.getBoard()[index];
+        cellButton.setEnabled(true);
+        cellButton.setVisible(true);
 
-                // after minimizing player's turn, it's maximizing player's turn
-                int eval = miniMaxMove(board, depth + 1, true);
+        // Programmatically perform a "click".
+        // This does the same thing as if the user had pressed and released the button,
+        // without holding the button down, which would block the event dispatch thread.
+        cellButton.doClick(0);
+    }
 
-                board.getBoard()[curIndex].getCell().setCellType(Game.CELL_EMPTY);
+    /**
+     * Get the next best move
+     * @param board game board
+     * @return next best move
+     */
+    public Move getNextBestMove(Board board) {
+        int index = getNextBestIndex(board);
+        int size = board.getBoardSize();
 
-                minEval = Math.min(minEval, eval);
-            }
+        return new Move(new Cell(index / size, index % size, getPlayerCellType()));
+    }
 
-            return minEval;
-        }
+    /**
+     * Get the cell index of the next best move
+     * @param board game board
+     * @return index of the best cell
+     */
+    public int getNextBestIndex(Board board) {
+        // search on a copy, so the Swing components are never touched by the search
+        return prepareMove(board).getAsInt();
     }
-}
\ No newline at end of file
+}
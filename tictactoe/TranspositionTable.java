@@ -0,0 +1,154 @@
+package tictactoe;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size transposition table for the robot search.
+ *
+ * Entries are keyed by the canonical symmetry hash of a Position, so the eight mirror images
+ * and rotations of a position share one entry. Scores are stored from the point of view of the
+ * side to move. Each entry packs score, bound type, draft and best move into one int next to
+ * its 64-bit key.
+ *
+ * One table can be shared by several search threads without locks: the key is stored XOR-ed with
+ * its entry, so a slot torn by two racing writers fails the key check and reads as a miss. The
+ * statistics are plain counters and only approximate while several threads use the table.
+ */
+class TranspositionTable {
+    // bound type of a stored score
+    final static int EXACT = 1;
+    final static int LOWER_BOUND = 2;   // the real score is at least the stored one
+    final static int UPPER_BOUND = 3;   // the real score is at most the stored one
+
+    // replacement policy when two positions share a slot
+    final static int REPLACE_ALWAYS = 0;        // the newest entry wins
+    final static int REPLACE_DEPTH = 1;         // keep the entry searched to the larger draft
+
+    final static int NO_MOVE = 0x7F;
+
+    private final long[] keys;      // key ^ entry of each slot
+    private final int[] entries;    // 0 marks an empty slot
+    private final int mask;
+    private final int policy;
+
+    private long hits;
+    private long misses;
+    private long stores;
+    private int used;
+
+    public TranspositionTable() {
+        this(1 << 16, REPLACE_DEPTH);
+    }
+
+    /**
+     * @param size number of entries, rounded up to a power of two
+     * @param policy REPLACE_ALWAYS or REPLACE_DEPTH
+     */
+    public TranspositionTable(int size, int policy) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+
+        this.keys = new long[capacity];
+        this.entries = new int[capacity];
+        this.mask = capacity - 1;
+        this.policy = policy;
+    }
+
+    /**
+     * look up a position
+     *
+     * @param key canonical hash of the position
+     * @return the packed entry, or 0 if the position is not stored
+     */
+    public int probe(long key) {
+        int slot = (int) (key ^ (key >>> 32)) & this.mask;
+
+        int entry = this.entries[slot];
+
+        if (entry != 0 && (this.keys[slot] ^ entry) == key) {
+            this.hits++;
+            return entry;
+        }
+
+        this.misses++;
+        return 0;
+    }
+
+    /**
+     * store a search result
+     *
+     * @param key canonical hash of the position
+     * @param score score for the side to move
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param draft number of plies searched below the position
+     * @param move best move in the canonical orientation, or NO_MOVE
+     */
+    public void store(long key, int score, int bound, int draft, int move) {
+        int slot = (int) (key ^ (key >>> 32)) & this.mask;
+        int old = this.entries[slot];
+
+        if (old != 0 && (this.keys[slot] ^ old) != key && this.policy == REPLACE_DEPTH && getDraft(old) > draft) {
+            return;
+        }
+
+        if (old == 0) {
+            this.used++;
+        }
+
+        int entry = (score + 0x8000) << 16 | bound << 14 | (draft & 0x7F) << 7 | (move & 0x7F);
+
+        this.keys[slot] = key ^ entry;
+        this.entries[slot] = entry;
+        this.stores++;
+    }
+
+    public static int getScore(int entry) {
+        return (entry >>> 16) - 0x8000;
+    }
+
+    public static int getBound(int entry) {
+        return (entry >>> 14) & 0x3;
+    }
+
+    public static int getDraft(int entry) {
+        return (entry >>> 7) & 0x7F;
+    }
+
+    public static int getMove(int entry) {
+        return entry & 0x7F;
+    }
+
+    public void clear() {
+        Arrays.fill(this.entries, 0);
+
+        this.used = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.stores = 0;
+    }
+
+    public int getCapacity() {
+        return this.entries.length;
+    }
+
+    public int getUsed() {
+        return this.used;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public long getStores() {
+        return this.stores;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tt used %d/%d, hits %d, misses %d, stores %d",
+                this.used, this.entries.length, this.hits, this.misses, this.stores);
+    }
+}
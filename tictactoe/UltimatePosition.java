@@ -0,0 +1,384 @@
+package tictactoe;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Position of ultimate tic-tac-toe: nine 3x3 boards laid out as the cells of a 3x3 macro board.
+ *
+ * Each side's stones are nine 9-bit masks, one per small board, bit (row * 3 + col) of the board.
+ * A small board won by a side sets its bit in that side's macro mask, a board that is won or full
+ * is done and takes no more moves. Three boards in a row on the macro board win the game, the
+ * game is a draw once every board is done without such a row.
+ *
+ * A move is (board * 9 + cell). It sends the opponent to the board of the same number as the
+ * cell; if that board is done the opponent may play in any board that is not. Wins on a small
+ * board and on the macro board are one lookup of a 512-entry table, so makeMove and unmakeMove
+ * stay O(1) and the move generator walks the empty bits of at most nine masks.
+ *
+ * Like Position it is not thread-safe, a search works on its own copy.
+ */
+class UltimatePosition implements VariantPosition {
+    final static int BOARDS = 9;
+    final static int CELLS = BOARDS * 9;
+    final static int FULL = 0x1FF;
+
+    // no forced board, the side to move may play in any board that is not done
+    final static int ANY_BOARD = -1;
+
+    // WON[mask] is true if the 9-bit mask holds three in a row
+    private final static boolean[] WON = new boolean[512];
+
+    // keys of the stones of each side and of the forced board, ANY_BOARD at index 9
+    private final static long[][] ZOBRIST = new long[3][CELLS];
+    private final static long[] ZOBRIST_FORCED = new long[BOARDS + 1];
+    private final static long ZOBRIST_O_TO_MOVE;
+
+    static {
+        int[] lines = {0x007, 0x038, 0x1C0, 0x049, 0x092, 0x124, 0x111, 0x054};
+        for (int mask = 0; mask < 512; mask++) {
+            for (int line : lines) {
+                if ((mask & line) == line) {
+                    WON[mask] = true;
+                    break;
+                }
+            }
+        }
+
+        Random random = new Random(0x7A0B215L ^ 81);  // fixed seed, hashes are reproducible between runs
+        for (int cellType = Game.CELL_X; cellType <= Game.CELL_O; cellType++) {
+            for (int move = 0; move < CELLS; move++) {
+                ZOBRIST[cellType][move] = random.nextLong();
+            }
+        }
+        for (int board = 0; board <= BOARDS; board++) {
+            ZOBRIST_FORCED[board] = random.nextLong();
+        }
+        ZOBRIST_O_TO_MOVE = random.nextLong();
+    }
+
+    private final int[] cellsX;
+    private final int[] cellsO;
+    private int macroX;     // boards won by X
+    private int macroO;     // boards won by O
+    private int macroDone;  // boards won or full
+
+    private int forced;
+    private int state;
+    private int ply;
+    private long hash;
+
+    // played moves and the forced board before each, for unmakeMove
+    private final int[] moves;
+    private final int[] forcedBefore;
+
+    public UltimatePosition() {
+        this.cellsX = new int[BOARDS];
+        this.cellsO = new int[BOARDS];
+        this.moves = new int[CELLS];
+        this.forcedBefore = new int[CELLS];
+        clear();
+    }
+
+    public UltimatePosition(UltimatePosition other) {
+        this();
+        copyFrom(other);
+    }
+
+    /**
+     * make this position a copy of another one, without allocating
+     */
+    public void copyFrom(UltimatePosition other) {
+        System.arraycopy(other.cellsX, 0, this.cellsX, 0, BOARDS);
+        System.arraycopy(other.cellsO, 0, this.cellsO, 0, BOARDS);
+        System.arraycopy(other.moves, 0, this.moves, 0, other.ply);
+        System.arraycopy(other.forcedBefore, 0, this.forcedBefore, 0, other.ply);
+
+        this.macroX = other.macroX;
+        this.macroO = other.macroO;
+        this.macroDone = other.macroDone;
+        this.forced = other.forced;
+        this.state = other.state;
+        this.ply = other.ply;
+        this.hash = other.hash;
+    }
+
+    public void clear() {
+        for (int board = 0; board < BOARDS; board++) {
+            this.cellsX[board] = 0;
+            this.cellsO[board] = 0;
+        }
+
+        this.macroX = 0;
+        this.macroO = 0;
+        this.macroDone = 0;
+        this.forced = ANY_BOARD;
+        this.state = Game.IN_PROGRESS;
+        this.ply = 0;
+        this.hash = ZOBRIST_FORCED[BOARDS];
+    }
+
+    /**
+     * @return IN_PROGRESS, X_WIN, O_WIN or DRAW
+     */
+    public int getState() {
+        return this.state;
+    }
+
+    public int getPly() {
+        return this.ply;
+    }
+
+    /**
+     * @return CELL_X or CELL_O, X moves first
+     */
+    public int getSideToMove() {
+        return (this.ply & 1) == 0 ? Game.CELL_X : Game.CELL_O;
+    }
+
+    /**
+     * @return board the side to move has to play in, or ANY_BOARD
+     */
+    public int getForcedBoard() {
+        return this.forced;
+    }
+
+    /**
+     * @param move board * 9 + cell
+     * @return CELL_EMPTY, CELL_X or CELL_O
+     */
+    public int getCellType(int move) {
+        int bit = 1 << (move % 9);
+        int board = move / 9;
+
+        return (this.cellsX[board] & bit) != 0 ? Game.CELL_X : (this.cellsO[board] & bit) != 0 ? Game.CELL_O : Game.CELL_EMPTY;
+    }
+
+    /**
+     * @param cellType CELL_X or CELL_O
+     * @param board board number
+     * @return the 9-bit stone mask of the side on the board
+     */
+    public int getCells(int cellType, int board) {
+        return cellType == Game.CELL_X ? this.cellsX[board] : this.cellsO[board];
+    }
+
+    /**
+     * @param cellType CELL_X or CELL_O
+     * @return boards won by the side
+     */
+    public int getMacro(int cellType) {
+        return cellType == Game.CELL_X ? this.macroX : this.macroO;
+    }
+
+    /**
+     * @return boards won or full
+     */
+    public int getMacroDone() {
+        return this.macroDone;
+    }
+
+    /**
+     * @return the 64-bit hash of the position, side to move and forced board included
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * @return boards the side to move may play in, 0 once the game is over
+     */
+    public int getPlayableBoards() {
+        if (this.state != Game.IN_PROGRESS) {
+            return 0;
+        }
+        return this.forced == ANY_BOARD ? ~this.macroDone & FULL : 1 << this.forced;
+    }
+
+    /**
+     * @param move board * 9 + cell
+     * @return true if the side to move may play the move
+     */
+    public boolean isLegal(int move) {
+        if (move < 0 || move >= CELLS || (getPlayableBoards() & (1 << (move / 9))) == 0) {
+            return false;
+        }
+
+        int board = move / 9;
+        return ((this.cellsX[board] | this.cellsO[board]) & (1 << (move % 9))) == 0;
+    }
+
+    /**
+     * list the legal moves, board by board in ascending order
+     *
+     * @param moves receives the moves, CELLS long
+     * @return number of moves
+     */
+    public int generateMoves(int[] moves) {
+        int count = 0;
+
+        for (int boards = getPlayableBoards(); boards != 0; boards &= boards - 1) {
+            int board = Integer.numberOfTrailingZeros(boards);
+            int base = board * 9;
+
+            for (int empty = ~(this.cellsX[board] | this.cellsO[board]) & FULL; empty != 0; empty &= empty - 1) {
+                moves[count++] = base + Integer.numberOfTrailingZeros(empty);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return number of legal moves
+     */
+    public int getMoveCount() {
+        int count = 0;
+
+        for (int boards = getPlayableBoards(); boards != 0; boards &= boards - 1) {
+            int board = Integer.numberOfTrailingZeros(boards);
+            count += 9 - Integer.bitCount(this.cellsX[board] | this.cellsO[board]);
+        }
+
+        return count;
+    }
+
+    /**
+     * pick a uniformly random legal move
+     *
+     * @param random random source of the caller
+     * @return the move
+     */
+    public int getRandomMove(SplittableRandom random) {
+        int skip = random.nextInt(getMoveCount());
+
+        for (int boards = getPlayableBoards(); ; boards &= boards - 1) {
+            int board = Integer.numberOfTrailingZeros(boards);
+            int empty = ~(this.cellsX[board] | this.cellsO[board]) & FULL;
+            int count = Integer.bitCount(empty);
+
+            if (skip < count) {
+                for (; skip > 0; skip--) {
+                    empty &= empty - 1;
+                }
+                return board * 9 + Integer.numberOfTrailingZeros(empty);
+            }
+            skip -= count;
+        }
+    }
+
+    /**
+     * play a legal move for the side to move
+     *
+     * @param move board * 9 + cell
+     */
+    public void makeMove(int move) {
+        int board = move / 9;
+        int cell = move - board * 9;
+        int bit = 1 << cell;
+        int boardBit = 1 << board;
+        int cellType = getSideToMove();
+
+        this.moves[this.ply] = move;
+        this.forcedBefore[this.ply] = this.forced;
+        this.ply++;
+
+        this.hash ^= ZOBRIST[cellType][move] ^ ZOBRIST_O_TO_MOVE ^ ZOBRIST_FORCED[this.forced < 0 ? BOARDS : this.forced];
+
+        int own;
+        if (cellType == Game.CELL_X) {
+            own = this.cellsX[board] |= bit;
+        } else {
+            own = this.cellsO[board] |= bit;
+        }
+
+        if (WON[own]) {
+            this.macroDone |= boardBit;
+
+            int macro;
+            if (cellType == Game.CELL_X) {
+                macro = this.macroX |= boardBit;
+            } else {
+                macro = this.macroO |= boardBit;
+            }
+
+            if (WON[macro]) {
+                this.state = cellType == Game.CELL_X ? Game.X_WIN : Game.O_WIN;
+            }
+        } else if ((this.cellsX[board] | this.cellsO[board]) == FULL) {
+            this.macroDone |= boardBit;
+        }
+
+        if (this.state == Game.IN_PROGRESS && this.macroDone == FULL) {
+            this.state = Game.DRAW;
+        }
+
+        // the cell sends the opponent to the board of the same number, unless that board is done
+        this.forced = (this.macroDone & (1 << cell)) != 0 ? ANY_BOARD : cell;
+        this.hash ^= ZOBRIST_FORCED[this.forced < 0 ? BOARDS : this.forced];
+    }
+
+    /**
+     * take back the last move
+     */
+    public void unmakeMove() {
+        int move = this.moves[--this.ply];
+        int board = move / 9;
+        int bit = 1 << (move - board * 9);
+        int boardBit = ~(1 << board);
+        int cellType = getSideToMove();
+
+        if (cellType == Game.CELL_X) {
+            this.cellsX[board] &= ~bit;
+        } else {
+            this.cellsO[board] &= ~bit;
+        }
+
+        // the board took the move, so it was not done before it
+        this.macroX &= boardBit;
+        this.macroO &= boardBit;
+        this.macroDone &= boardBit;
+        this.state = Game.IN_PROGRESS;
+
+        this.hash ^= ZOBRIST_FORCED[this.forced < 0 ? BOARDS : this.forced];
+        this.forced = this.forcedBefore[this.ply];
+        this.hash ^= ZOBRIST[cellType][move] ^ ZOBRIST_O_TO_MOVE ^ ZOBRIST_FORCED[this.forced < 0 ? BOARDS : this.forced];
+    }
+
+    /**
+     * @param ply number of the move, counted from 0, below getPly()
+     * @return the move
+     */
+    public int getMove(int ply) {
+        return this.moves[ply];
+    }
+
+    /**
+     * @param mask 9-bit mask of one side on a board or on the macro board
+     * @return true if it holds three in a row
+     */
+    static boolean isWon(int mask) {
+        return WON[mask];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                int cellType = getCellType((row / 3 * 3 + col / 3) * 9 + row % 3 * 3 + col % 3);
+                builder.append(cellType == Game.CELL_X ? 'X' : cellType == Game.CELL_O ? 'O' : '_');
+                if (col == 2 || col == 5) {
+                    builder.append(' ');
+                }
+            }
+            builder.append('\n');
+            if (row == 2 || row == 5) {
+                builder.append('\n');
+            }
+        }
+
+        return builder.toString();
+    }
+}
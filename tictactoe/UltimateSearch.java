@@ -0,0 +1,115 @@
+package tictactoe;
+
+/**
+ * Robot search for ultimate tic-tac-toe, playing within a time budget per move.
+ *
+ * Up to 81 moves to choose from puts the game far beyond an exhaustive search, so this is the
+ * iterative deepening of VariantSearch over the legal moves of the position. At the horizon a
+ * position is scored from two lookup tables over the 9-bit masks: the open lines of the macro
+ * board and the open lines of every small board still in play.
+ */
+class UltimateSearch extends VariantSearch<UltimatePosition> {
+    // search bounds per level, indexed by EASY, MEDIUM, HARD and MCTS; 0 means unlimited,
+    // the MCTS robot plays the ultimate board with this search like HARD
+    final static int[] DEPTH_LIMITS = {2, 4, 0, 0};
+
+    // OPEN_LINES[own << 9 | blocked]: lines of a 3x3 mask holding no blocked cell, weighted by the stones of own in them
+    private final static byte[] OPEN_LINES = new byte[1 << 18];
+
+    // weights of the small boards, the center and corners sit on more macro lines
+    private final static int[] BOARD_WEIGHTS = {3, 2, 3, 2, 4, 2, 3, 2, 3};
+    private final static int MACRO_WEIGHT = 24;
+    private final static int BOARD_WIN = 12;
+
+    static {
+        int[] lines = {0x007, 0x038, 0x1C0, 0x049, 0x092, 0x124, 0x111, 0x054};
+        int[] weights = {0, 1, 5, 0};
+
+        for (int own = 0; own < 512; own++) {
+            for (int blocked = 0; blocked < 512; blocked++) {
+                int score = 0;
+                for (int line : lines) {
+                    if ((blocked & line) == 0) {
+                        score += weights[Integer.bitCount(own & line)];
+                    }
+                }
+                OPEN_LINES[own << 9 | blocked] = (byte) score;
+            }
+        }
+    }
+
+    public UltimateSearch() {
+        this(Game.HARD);
+    }
+
+    /**
+     * @param level EASY, MEDIUM or HARD
+     */
+    public UltimateSearch(int level) {
+        super(UltimatePosition.CELLS, DEPTH_LIMITS[level]);
+    }
+
+    @Override
+    protected int generateMoves(UltimatePosition position, int[] moves) {
+        return position.generateMoves(moves);
+    }
+
+    @Override
+    protected int negamax(UltimatePosition position, int depth, int ply, int alpha, int beta) {
+        this.nodeCount++;
+
+        // only the side that just moved can have won
+        int state = position.getState();
+        if (state != Game.IN_PROGRESS) {
+            return state == Game.DRAW ? SCORE_DRAW : -(SCORE_WIN - ply);
+        }
+
+        if (isOverBudget()) {
+            return SCORE_DRAW;
+        }
+
+        if (depth == 0) {
+            return evaluate(position);
+        }
+
+        long key = position.getHash();
+        int entry = probe(key, depth);
+        int stored = getCutoffScore(entry, depth, ply, alpha, beta);
+        if (stored != NO_SCORE) {
+            return stored;
+        }
+
+        int[] moves = this.moveLists[ply];
+        int count = position.generateMoves(moves);
+        orderMoves(position.getSideToMove(), moves, count, ply, getHashMove(entry));
+
+        return searchMoves(position, moves, count, depth, depth - 1, ply, alpha, beta, key);
+    }
+
+    /**
+     * heuristic score of a position in progress for the side to move
+     */
+    static int evaluate(UltimatePosition position) {
+        int side = position.getSideToMove();
+        int opponent = side == Game.CELL_X ? Game.CELL_O : Game.CELL_X;
+
+        int macroOwn = position.getMacro(side);
+        int macroOpp = position.getMacro(opponent);
+        int done = position.getMacroDone();
+        int drawn = done & ~(macroOwn | macroOpp);
+
+        // lines of the macro board, a drawn board blocks both sides
+        int eval = MACRO_WEIGHT * (OPEN_LINES[macroOwn << 9 | macroOpp | drawn] - OPEN_LINES[macroOpp << 9 | macroOwn | drawn])
+                + BOARD_WIN * (Integer.bitCount(macroOwn) - Integer.bitCount(macroOpp));
+
+        for (int boards = ~done & UltimatePosition.FULL; boards != 0; boards &= boards - 1) {
+            int board = Integer.numberOfTrailingZeros(boards);
+            int own = position.getCells(side, board);
+            int opp = position.getCells(opponent, board);
+
+            eval += BOARD_WEIGHTS[board] * (OPEN_LINES[own << 9 | opp] - OPEN_LINES[opp << 9 | own]);
+        }
+
+        return eval;
+    }
+}
@@ -0,0 +1,34 @@
+package tictactoe;
+
+/**
+ * Position of a variant board searched by a VariantSearch: the moves are cell numbers, a move is
+ * taken back in the reverse order it was played.
+ */
+interface VariantPosition {
+    /**
+     * @return IN_PROGRESS, X_WIN, O_WIN or DRAW
+     */
+    int getState();
+
+    /**
+     * @return CELL_X or CELL_O, X moves first
+     */
+    int getSideToMove();
+
+    int getPly();
+
+    /**
+     * @return the 64-bit hash of the position
+     */
+    long getHash();
+
+    /**
+     * play a legal move for the side to move
+     */
+    void makeMove(int move);
+
+    /**
+     * take back the last move
+     */
+    void unmakeMove();
+}
@@ -0,0 +1,363 @@
+package tictactoe;
+
+import java.util.Arrays;
+
+/**
+ * Robot search of the variant boards, playing within a time budget per move.
+ *
+ * An iterative deepening negamax with alpha-beta pruning that stops when the budget runs out and
+ * plays the best move of the deepest completed iteration. Moves are tried transposition table
+ * move first, then by the history heuristic. This class holds the iterations, the table, the
+ * move ordering and the budget; a variant supplies its move generation, its evaluation and the
+ * node itself, which it builds from probe, getCutoffScore and searchMoves.
+ *
+ * Wins score SCORE_WIN minus their distance from the root, so the robot takes the quickest win
+ * and delays a loss. A search is not thread-safe, cancel may be called from any thread.
+ */
+abstract class VariantSearch<P extends VariantPosition> {
+    final static int SCORE_WIN = 30000;
+    final static int SCORE_DRAW = 0;
+
+    // scores beyond this are wins or losses, the heuristic stays far below it
+    final static int WIN_BOUND = SCORE_WIN - 1000;
+
+    // getCutoffScore without a cutoff, below every score
+    final static int NO_SCORE = Integer.MIN_VALUE;
+
+    private final TranspositionTable table;
+    private final int maxDepth;     // deepest iteration, every ply of a game at most
+
+    // history heuristic, cutoffs per side and move
+    private final int[][] history;
+
+    // moves and their ordering keys per ply, allocated once
+    protected final int[][] moveLists;
+    private final int[][] orderKeys;
+
+    private int depthLimit;
+    private long timeLimitMillis;
+    private long nodeLimit;
+    private volatile boolean cancelled;
+
+    // state of the running search
+    private long deadline;
+    protected long nodeCount;
+    protected boolean aborted;
+    private int completedDepth;
+    protected int score;
+
+    /**
+     * @param cells cells of the board, the moves are numbered below it
+     * @param depthLimit deepest iteration, 0 for no limit
+     */
+    protected VariantSearch(int cells, int depthLimit) {
+        this.table = new TranspositionTable(1 << 20, TranspositionTable.REPLACE_DEPTH);
+        this.maxDepth = cells;
+        this.history = new int[3][cells];
+        this.moveLists = new int[cells + 1][cells];
+        this.orderKeys = new int[cells + 1][cells];
+        this.depthLimit = depthLimit;
+    }
+
+    /**
+     * @param depthLimit deepest iteration, 0 for no limit
+     */
+    public void setDepthLimit(int depthLimit) {
+        this.depthLimit = depthLimit;
+    }
+
+    /**
+     * @param timeLimitMillis milliseconds per move, 0 for no limit
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    /**
+     * @param nodeLimit nodes per move, 0 for no limit
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * stop the running search soon, until resume is called; may be called from any thread
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * let a cancelled search run again, call it on the searching thread
+     */
+    public void resume() {
+        this.cancelled = false;
+    }
+
+    public long getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * @return horizon of the last completed iteration
+     */
+    public int getCompletedDepth() {
+        return this.completedDepth;
+    }
+
+    /**
+     * @return score of the chosen move for the side to move
+     */
+    public int getScore() {
+        return this.score;
+    }
+
+    /**
+     * forget the positions searched so far, for a new game
+     */
+    public void clear() {
+        this.table.clear();
+        for (int[] moves : this.history) {
+            Arrays.fill(moves, 0);
+        }
+    }
+
+    /**
+     * search the position within the budget
+     *
+     * @param position game position, restored before returning
+     * @return the best move of the deepest completed iteration, or -1 if the game is over
+     */
+    public int chooseMove(P position) {
+        this.nodeCount = 0;
+        this.completedDepth = 0;
+        this.score = SCORE_DRAW;
+        this.aborted = false;
+
+        if (position.getState() != Game.IN_PROGRESS) {
+            return -1;
+        }
+
+        long start = System.nanoTime();
+        this.deadline = this.timeLimitMillis > 0 ? start + this.timeLimitMillis * 1_000_000 : Long.MAX_VALUE;
+
+        int forced = chooseForcedMove(position);
+        if (forced >= 0) {
+            return forced;
+        }
+
+        int[] moves = this.moveLists[0];
+        int count = generateMoves(position, moves);
+        if (count == 0) {
+            return -1;
+        }
+
+        int side = position.getSideToMove();
+        int bestMove = moves[0];
+        int maxDepth = this.maxDepth - position.getPly();
+        if (this.depthLimit > 0) {
+            maxDepth = Math.min(maxDepth, this.depthLimit);
+        }
+
+        // age the history, so old cutoffs give way to the ones of this position
+        for (int[] moveHistory : this.history) {
+            for (int i = 0; i < moveHistory.length; i++) {
+                moveHistory[i] >>= 2;
+            }
+        }
+
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            int bestScore = -SCORE_WIN - 1;
+            int iterationMove = -1;
+            int alpha = -SCORE_WIN - 1;
+
+            orderMoves(side, moves, count, 0, bestMove);
+
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+
+                position.makeMove(move);
+                int moveScore = -negamax(position, depth - 1, 1, -SCORE_WIN - 1, -alpha);
+                position.unmakeMove();
+
+                if (this.aborted) {
+                    break;
+                }
+
+                if (moveScore > bestScore) {
+                    bestScore = moveScore;
+                    iterationMove = move;
+                }
+                alpha = Math.max(alpha, moveScore);
+            }
+
+            if (this.aborted) {
+                break;
+            }
+
+            bestMove = iterationMove;
+            this.score = bestScore;
+            this.completedDepth = depth;
+
+            // a proven result does not change with depth, and an iteration started late would not complete
+            if (bestScore > WIN_BOUND || bestScore < -WIN_BOUND
+                    || (this.timeLimitMillis > 0 && System.nanoTime() - start > this.timeLimitMillis * 500_000)) {
+                break;
+            }
+        }
+
+        return bestMove;
+    }
+
+    /**
+     * a root move that needs no search, with this.score set for it
+     *
+     * @param position game position in progress
+     * @return the move, or -1 to search
+     */
+    protected int chooseForcedMove(P position) {
+        return -1;
+    }
+
+    /**
+     * @param moves receives the legal moves
+     * @return number of moves
+     */
+    protected abstract int generateMoves(P position, int[] moves);
+
+    /**
+     * @param depth plies left to the horizon
+     * @param ply plies from the root
+     * @return score for the side to move
+     */
+    protected abstract int negamax(P position, int depth, int ply, int alpha, int beta);
+
+    /**
+     * @param depth plies left to the horizon, a node past it is not looked up
+     * @return the table entry of the position, 0 if there is none
+     */
+    protected final int probe(long key, int depth) {
+        return depth > 0 ? this.table.probe(key) : 0;
+    }
+
+    /**
+     * @param entry table entry of the position, or 0
+     * @return the stored score if it decides the node within (alpha, beta), else NO_SCORE
+     */
+    protected static int getCutoffScore(int entry, int depth, int ply, int alpha, int beta) {
+        if (entry == 0 || TranspositionTable.getDraft(entry) < depth) {
+            return NO_SCORE;
+        }
+
+        int stored = fromTable(TranspositionTable.getScore(entry), ply);
+        int bound = TranspositionTable.getBound(entry);
+
+        if (bound == TranspositionTable.EXACT
+                || (bound == TranspositionTable.LOWER_BOUND && stored >= beta)
+                || (bound == TranspositionTable.UPPER_BOUND && stored <= alpha)) {
+            return stored;
+        }
+        return NO_SCORE;
+    }
+
+    /**
+     * @param entry table entry of the position, or 0
+     * @return the best move stored with it, -1 if none
+     */
+    protected static int getHashMove(int entry) {
+        int move = entry != 0 ? TranspositionTable.getMove(entry) : TranspositionTable.NO_MOVE;
+        return move == TranspositionTable.NO_MOVE ? -1 : move;
+    }
+
+    /**
+     * search the ordered moves of a node and store its result, a node past the horizon is not stored
+     *
+     * @param childDepth depth of the children, depth - 1 or depth for a forced move
+     * @return score for the side to move, SCORE_DRAW if the search was aborted
+     */
+    protected final int searchMoves(P position, int[] moves, int count, int depth, int childDepth, int ply,
+                                    int alpha, int beta, long key) {
+        int side = position.getSideToMove();
+        int alphaOrig = alpha;
+        int best = -SCORE_WIN - 1;
+        int bestMove = TranspositionTable.NO_MOVE;
+
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+
+            position.makeMove(move);
+            int moveScore = -negamax(position, childDepth, ply + 1, -beta, -alpha);
+            position.unmakeMove();
+
+            if (this.aborted) {
+                return SCORE_DRAW;     // the iteration is thrown away, store nothing
+            }
+
+            if (moveScore > best) {
+                best = moveScore;
+                bestMove = move;
+            }
+            if (moveScore > alpha) {
+                alpha = moveScore;
+            }
+            if (alpha >= beta) {
+                this.history[side][move] += depth * depth;
+                break;
+            }
+        }
+
+        int bound = best <= alphaOrig ? TranspositionTable.UPPER_BOUND
+                : best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        if (depth > 0) {
+            this.table.store(key, toTable(best, ply), bound, depth, bestMove);
+        }
+
+        return best;
+    }
+
+    /**
+     * sort the moves by history, the hash move first; a stable insertion sort, so ties keep the generated order
+     */
+    protected final void orderMoves(int side, int[] moves, int count, int ply, int hashMove) {
+        int[] keys = this.orderKeys[ply];
+        int[] moveHistory = this.history[side];
+
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int key = move == hashMove ? Integer.MAX_VALUE : moveHistory[move];
+
+            int j = i;
+            while (j > 0 && keys[j - 1] < key) {
+                keys[j] = keys[j - 1];
+                moves[j] = moves[j - 1];
+                j--;
+            }
+            keys[j] = key;
+            moves[j] = move;
+        }
+    }
+
+    /**
+     * wins are stored as a distance from the stored position, so they stay right at any ply
+     */
+    private static int toTable(int score, int ply) {
+        return score > WIN_BOUND ? score + ply : score < -WIN_BOUND ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        return score > WIN_BOUND ? score - ply : score < -WIN_BOUND ? score + ply : score;
+    }
+
+    /**
+     * check the clock, the node budget and the cancel flag only every 1024 nodes,
+     * and mark the search aborted once one of them runs out
+     */
+    protected final boolean isOverBudget() {
+        if ((this.nodeCount & 1023) == 0
+                && (this.cancelled || System.nanoTime() > this.deadline
+                        || (this.nodeLimit > 0 && this.nodeCount >= this.nodeLimit))) {
+            this.aborted = true;
+        }
+        return this.aborted;
+    }
+}